@@ -43,4 +43,4 @@ private void writeObject(java.io.ObjectOutputStream);
 private void readObject(java.io.ObjectInputStream);
 java.lang.Object writeReplace();
 java.lang.Object readResolve();
-}
\ No newline at end of file
+}
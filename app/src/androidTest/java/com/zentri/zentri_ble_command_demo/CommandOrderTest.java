@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.support.test.rule.ServiceTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Commands submitted from two threads at once, while results from earlier ones are dispatching
+ * more on the BLE thread, still reach the module in the order each thread queued them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CommandOrderTest
+{
+    private static final String DEVICE_NAME = "Order";
+    private static final int COMMANDS_PER_THREAD = 50;
+    private static final long TIMEOUT_MS = 20000;
+
+    @Rule
+    public final ServiceTestRule mServiceRule = new ServiceTestRule();
+
+    private SimulatedModule mModule;
+    private SimulatedService mSimulated;
+    private DeviceSession mSession;
+
+    //commands as the library reported them sent, from any thread
+    private final List<String> mSent = new ArrayList<>();
+
+    private final BLEEventBus.Listener mSentListener = new BLEEventBus.Listener()
+    {
+        @Override
+        public void onEvent(BLEEvent event)
+        {
+            synchronized (mSent)
+            {
+                mSent.add(event.getCommand());
+            }
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception
+    {
+        SimulatedBLEHandler handler = new SimulatedBLEHandler(new SimClock(), 1);
+        mModule = new SimulatedModule(DEVICE_NAME, "00:00:00:00:00:03");
+        handler.addModule(mModule);
+
+        mSimulated = new SimulatedService(handler);
+        mSimulated.start(mServiceRule);
+        mSession = mSimulated.connect(DEVICE_NAME, ZentriOSBLEManager.MODE_COMMAND_REMOTE);
+        assertNotNull("Not connected in command mode", mSession);
+        mSession.getEventBus().addListener(mSentListener, BLEEvent.COMMAND_SENT);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (mSession != null)
+        {
+            mSession.getEventBus().removeListener(mSentListener);
+        }
+        mSimulated.stop();
+    }
+
+    @Test
+    public void commandsFromTwoThreadsKeepTheirOrder() throws Exception
+    {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2 * COMMANDS_PER_THREAD);
+        Thread first = submitter(DeviceVariable.SYSTEM_DEVICE_NAME, "a", start, done);
+        Thread second = submitter(DeviceVariable.USER_VARIABLE, "b", start, done);
+        first.start();
+        second.start();
+        start.countDown();
+
+        assertTrue("Commands timed out", done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        first.join();
+        second.join();
+
+        List<Integer> a = new ArrayList<>();
+        List<Integer> b = new ArrayList<>();
+        synchronized (mSent)
+        {
+            for (String command : mSent)
+            {
+                //the value is the last word, the prefix and the position it was queued in
+                String value = command.substring(command.lastIndexOf(' ') + 1);
+                if (command.startsWith("set sy d n a"))
+                {
+                    a.add(Integer.parseInt(value.substring(1)));
+                }
+                else if (command.startsWith("set us v b"))
+                {
+                    b.add(Integer.parseInt(value.substring(1)));
+                }
+            }
+        }
+        assertInOrder(a);
+        assertInOrder(b);
+
+        //the module ends up with the last value each thread queued
+        assertEquals("a" + (COMMANDS_PER_THREAD - 1), mModule.getVariable("sy d n"));
+        assertEquals("b" + (COMMANDS_PER_THREAD - 1), mModule.getVariable("us v"));
+    }
+
+    //sets the variable to prefix0, prefix1, ... as fast as it can
+    private Thread submitter(final DeviceVariable variable, final String prefix,
+                             final CountDownLatch start, final CountDownLatch done)
+    {
+        final CommandClient client = mSession.getCommandClient();
+        final CommandFuture.Callback counter = new CommandFuture.Callback()
+        {
+            @Override
+            public void onComplete(CommandFuture future)
+            {
+                done.countDown();
+            }
+        };
+
+        return new Thread(prefix)
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    start.await();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                for (int i = 0; i < COMMANDS_PER_THREAD; i++)
+                {
+                    client.submit(variable.writeCommand(prefix + i)).addCallback(counter);
+                }
+            }
+        };
+    }
+
+    private static void assertInOrder(List<Integer> indices)
+    {
+        assertEquals(indices.toString(), COMMANDS_PER_THREAD, indices.size());
+        for (int i = 0; i < indices.size(); i++)
+        {
+            assertEquals(indices.toString(), Integer.valueOf(i), indices.get(i));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ServiceTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Provisioning a simulated module through the service: only the variables that differ are set,
+ * followed by one save, and a module that already matches gets nothing but the reads.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConfigEngineTest
+{
+    private static final String DEVICE_NAME = "Provision";
+    private static final long TIMEOUT_MS = 10000;
+
+    @Rule
+    public final ServiceTestRule mServiceRule = new ServiceTestRule();
+
+    private SimulatedModule mModule;
+    private SimulatedService mSimulated;
+    private DeviceSession mSession;
+
+    //commands as the library reported them sent, from any thread
+    private final List<String> mSent = new ArrayList<>();
+
+    private final BLEEventBus.Listener mSentListener = new BLEEventBus.Listener()
+    {
+        @Override
+        public void onEvent(BLEEvent event)
+        {
+            synchronized (mSent)
+            {
+                mSent.add(event.getCommand());
+            }
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception
+    {
+        SimulatedBLEHandler handler = new SimulatedBLEHandler(new SimClock(), 1);
+        mModule = new SimulatedModule(DEVICE_NAME, "00:00:00:00:00:02");
+        handler.addModule(mModule);
+
+        mSimulated = new SimulatedService(handler);
+        mSimulated.start(mServiceRule);
+        mSession = mSimulated.connect(DEVICE_NAME, ZentriOSBLEManager.MODE_COMMAND_REMOTE);
+        assertNotNull("Not connected in command mode", mSession);
+        mSession.getEventBus().addListener(mSentListener, BLEEvent.COMMAND_SENT);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (mSession != null)
+        {
+            mSession.getEventBus().removeListener(mSentListener);
+        }
+        mSimulated.stop();
+    }
+
+    @Test
+    public void provisionSendsOnlyDifferences() throws Exception
+    {
+        //two values differ from the module's defaults, two already match
+        ConfigSnapshot profile = new ConfigSnapshot()
+                .put(DeviceVariable.SYSTEM_DEVICE_NAME, "Provisioned")
+                .put(DeviceVariable.BLUETOOTH_TX_POWER_ADV, "2")
+                .put(DeviceVariable.SYSTEM_COMMAND_HEADER, mModule.getVariable("sy c h"))
+                .put(DeviceVariable.BLUETOOTH_ADV_HIGH_INT, mModule.getVariable("bl v h i"));
+
+        CommandFuture result = provision(profile);
+        assertTrue(String.valueOf(result.getError()), result.isSuccess());
+
+        List<String> writes = writes();
+        assertEquals(writes.toString(), 3, writes.size());
+        assertTrue(writes.toString(), writes.get(0).startsWith("set "));
+        assertTrue(writes.toString(), writes.get(1).startsWith("set "));
+        assertEquals("save", writes.get(2));
+        assertEquals("Provisioned", mModule.getVariable("sy d n"));
+        assertEquals("2", mModule.getVariable("bl t a"));
+
+        //the module now matches, provisioning again only reads
+        synchronized (mSent)
+        {
+            mSent.clear();
+        }
+        result = provision(profile);
+        assertTrue(String.valueOf(result.getError()), result.isSuccess());
+        assertEquals(writes().toString(), 0, writes().size());
+        synchronized (mSent)
+        {
+            assertEquals(mSent.toString(), profile.size(), mSent.size());
+        }
+    }
+
+    //runs on the main thread like the app, waits for the outcome
+    private CommandFuture provision(final ConfigSnapshot profile) throws InterruptedException
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        final CommandFuture[] result = new CommandFuture[1];
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                result[0] = new ConfigEngine(mSession).provision(profile)
+                        .addCallback(new CommandFuture.Callback()
+                        {
+                            @Override
+                            public void onComplete(CommandFuture future)
+                            {
+                                done.countDown();
+                            }
+                        });
+            }
+        });
+
+        assertTrue("Provisioning timed out", done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        return result[0];
+    }
+
+    //set and save commands sent so far
+    private List<String> writes()
+    {
+        ArrayList<String> writes = new ArrayList<>();
+        synchronized (mSent)
+        {
+            for (String command : mSent)
+            {
+                if (command.startsWith("set ") || command.equals("save"))
+                {
+                    writes.add(command);
+                }
+            }
+        }
+        return writes;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ServiceTestRule;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs ZentriOSBLEService on a {@link SimulatedBLEHandler} for instrumented tests, with the
+ * simulator's clock in real time, and connects to simulated modules through the
+ * ConnectionManager as the app does.
+ */
+class SimulatedService
+{
+    static final long SETUP_TIMEOUT_MS = 5000;
+
+    private final SimulatedBLEHandler mHandler;
+    private ZentriOSBLEService mService;
+
+    SimulatedService(SimulatedBLEHandler handler)
+    {
+        mHandler = handler;
+    }
+
+    ZentriOSBLEService start(ServiceTestRule rule) throws TimeoutException
+    {
+        ZentriOSBLEService.setTransport(new SimulatedZentriOSBLEManager(mHandler), mHandler);
+        mHandler.getClock().startRealtime();
+
+        Context context = InstrumentationRegistry.getTargetContext();
+        mService = ((ZentriOSBLEService.LocalBinder)rule.bindService(
+                new Intent(context, ZentriOSBLEService.class))).getService();
+        return mService;
+    }
+
+    void stop()
+    {
+        mHandler.getClock().stopRealtime();
+        ZentriOSBLEService.setTransport(null, null);
+    }
+
+    /**
+     * Connects and sets the mode.
+     * @return the device's session, or null if it didn't get there within SETUP_TIMEOUT_MS
+     */
+    DeviceSession connect(final String deviceName, int mode) throws InterruptedException
+    {
+        //the connection manager runs on the main thread
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mService.getConnectionManager().connect(deviceName);
+            }
+        });
+        DeviceSession session = mService.getSession(deviceName);
+        if (!waitFor(session, -1))
+        {
+            return null;
+        }
+
+        mService.getManager().setMode(deviceName, mode);
+        return waitFor(session, mode) ? session : null;
+    }
+
+    //connected, and in the given mode unless it is -1
+    private static boolean waitFor(DeviceSession session, int mode) throws InterruptedException
+    {
+        long end = SystemClock.elapsedRealtime() + SETUP_TIMEOUT_MS;
+        while (!session.isConnected() || (mode >= 0 && session.getMode() != mode))
+        {
+            if (SystemClock.elapsedRealtime() > end)
+            {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ServiceTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.zentri.zentri_ble.BLECallbacks.ReceiveMode;
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Stream-mode throughput and echo latency through the whole app path, run as an instrumented test.
+ *
+ * The service is started on a {@link SimulatedBLEHandler} whose clock runs in real time, with a
+ * loopback {@link SimulatedModule} as the peer. Numbered messages of a given payload size are
+ * written through the session's {@link WriteQueue} and the echoes are taken from the
+ * STRING_DATA_BATCH and BINARY_DATA_BATCH events the device screen uses, so the times include the
+ * service, the write queue, the receive coalescer and event delivery. The time from writing a
+ * message to receiving it back is its latency, throughput is over the wall-clock time of a run.
+ *
+ * Every run sweeps the payload sizes in both receive modes and produces one {@link Result} per
+ * combination. The results go to logcat and to stream_benchmark.jsonl in the app's files
+ * directory as JSON lines. The simulated link has no throughput limit, so the app side is what
+ * is measured.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StreamBenchmark
+{
+    private static final String TAG = StreamBenchmark.class.getSimpleName();
+
+    public static final int[] DEFAULT_PAYLOAD_SIZES = {20, 64, 256, 1024, 4096};
+    public static final int DEFAULT_MESSAGES = 200;
+    public static final int MIN_PAYLOAD_SIZE = 8;
+
+    public static final long SIMULATED_LATENCY_MS = 15;
+
+    private static final String DEVICE_NAME = "Benchmark";
+    private static final long RUN_TIMEOUT_MS = 30000;
+
+    @Rule
+    public final ServiceTestRule mServiceRule = new ServiceTestRule();
+
+    private SimulatedService mSimulated;
+    private ZentriOSBLEService mService;
+
+    public static class Result
+    {
+        private final ReceiveMode mReceiveMode;
+        private final int mPayloadSize;
+        private final int mMessages;
+        private final int mReceived;
+        private final long mElapsedUs;
+        private final long mLatencyP50Us;
+        private final long mLatencyP99Us;
+        private final long mLatencyMaxUs;
+
+        Result(ReceiveMode receiveMode, int payloadSize, int messages, Probe probe)
+        {
+            mReceiveMode = receiveMode;
+            mPayloadSize = payloadSize;
+            mMessages = messages;
+            mReceived = probe.mReceived;
+            mElapsedUs = probe.mLastReceiveUs - probe.mFirstSendUs;
+
+            long[] latencies = Arrays.copyOf(probe.mLatencies, probe.mReceived);
+            Arrays.sort(latencies);
+            mLatencyP50Us = percentile(latencies, 50);
+            mLatencyP99Us = percentile(latencies, 99);
+            mLatencyMaxUs = latencies.length > 0 ? latencies[latencies.length - 1] : 0;
+        }
+
+        public ReceiveMode getReceiveMode()
+        {
+            return mReceiveMode;
+        }
+
+        public int getPayloadSize()
+        {
+            return mPayloadSize;
+        }
+
+        public int getMessages()
+        {
+            return mMessages;
+        }
+
+        //messages echoed back before the run ended
+        public int getReceived()
+        {
+            return mReceived;
+        }
+
+        public long getBytes()
+        {
+            return (long)mReceived * mPayloadSize;
+        }
+
+        //from the first message sent to the last one received
+        public long getElapsedUs()
+        {
+            return mElapsedUs;
+        }
+
+        //received payload bytes per second
+        public double getThroughput()
+        {
+            return mElapsedUs > 0 ? getBytes() * 1000000.0 / mElapsedUs : 0;
+        }
+
+        public long getLatencyP50Us()
+        {
+            return mLatencyP50Us;
+        }
+
+        public long getLatencyP99Us()
+        {
+            return mLatencyP99Us;
+        }
+
+        public long getLatencyMaxUs()
+        {
+            return mLatencyMaxUs;
+        }
+
+        public String toJson()
+        {
+            return String.format(Locale.US,
+                    "{\"receiveMode\":\"%s\",\"payloadSize\":%d,"
+                            + "\"messages\":%d,\"received\":%d,\"bytes\":%d,\"elapsedUs\":%d,"
+                            + "\"throughputBps\":%.1f,\"latencyP50Us\":%d,\"latencyP99Us\":%d,"
+                            + "\"latencyMaxUs\":%d}",
+                    mReceiveMode, mPayloadSize, mMessages, mReceived, getBytes(),
+                    mElapsedUs, getThroughput(), mLatencyP50Us, mLatencyP99Us, mLatencyMaxUs);
+        }
+
+        private static long percentile(long[] sorted, int percent)
+        {
+            return sorted.length > 0 ? sorted[(sorted.length - 1) * percent / 100] : 0;
+        }
+    }
+
+    /**
+     * Matches echoed messages to the time they were sent. Messages are "<seq>:xxx...\n", padded
+     * to the payload size, so they survive being split and merged on the way back.
+     */
+    static class Probe
+    {
+        final long[] mSendTimes;
+        final long[] mLatencies;
+        final StringBuilder mLine = new StringBuilder();
+        int mReceived;
+        long mFirstSendUs = -1;
+        long mLastReceiveUs;
+
+        Probe(int messages)
+        {
+            mSendTimes = new long[messages];
+            mLatencies = new long[messages];
+            Arrays.fill(mSendTimes, -1);
+        }
+
+        synchronized void sent(int seq, long timeUs)
+        {
+            mSendTimes[seq] = timeUs;
+            if (mFirstSendUs < 0)
+            {
+                mFirstSendUs = timeUs;
+            }
+        }
+
+        synchronized void received(CharSequence data, long timeUs)
+        {
+            int length = data.length();
+            for (int i = 0; i < length; i++)
+            {
+                char c = data.charAt(i);
+                if (c == '\n')
+                {
+                    lineReceived(timeUs);
+                }
+                else
+                {
+                    mLine.append(c);
+                }
+            }
+        }
+
+        synchronized void received(ByteBuffer data, long timeUs)
+        {
+            while (data.hasRemaining())
+            {
+                char c = (char)(data.get() & 0xFF);
+                if (c == '\n')
+                {
+                    lineReceived(timeUs);
+                }
+                else
+                {
+                    mLine.append(c);
+                }
+            }
+        }
+
+        synchronized boolean isDone()
+        {
+            return mReceived == mSendTimes.length;
+        }
+
+        //waits until every message is back or the timeout passes, returns isDone()
+        synchronized boolean await(long timeoutMs) throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + timeoutMs;
+            long remaining = timeoutMs;
+            while (!isDone() && remaining > 0)
+            {
+                wait(remaining);
+                remaining = end - System.currentTimeMillis();
+            }
+            return isDone();
+        }
+
+        private void lineReceived(long timeUs)
+        {
+            int colon = mLine.indexOf(":");
+            int seq = -1;
+            try
+            {
+                seq = Integer.parseInt(mLine.substring(0, colon < 0 ? 0 : colon));
+            }
+            catch (NumberFormatException e)
+            {
+                //partial message after a loss, dropped
+            }
+            mLine.setLength(0);
+
+            if (seq >= 0 && seq < mSendTimes.length && mSendTimes[seq] >= 0)
+            {
+                mLatencies[mReceived++] = timeUs - mSendTimes[seq];
+                mSendTimes[seq] = -1;//count duplicates once
+                mLastReceiveUs = timeUs;
+                if (isDone())
+                {
+                    notifyAll();
+                }
+            }
+        }
+
+        static String message(int seq, int payloadSize)
+        {
+            StringBuilder message = new StringBuilder(payloadSize);
+            message.append(seq).append(':');
+            while (message.length() < payloadSize - 1)
+            {
+                message.append('x');
+            }
+            return message.append('\n').toString();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        SimulatedBLEHandler handler = new SimulatedBLEHandler(new SimClock(), 1);
+        handler.setLatency(SIMULATED_LATENCY_MS, 0);
+        SimulatedModule module = new SimulatedModule(DEVICE_NAME, "00:00:00:00:00:01");
+        module.setLoopback(true);
+        handler.addModule(module);
+
+        mSimulated = new SimulatedService(handler);
+        mService = mSimulated.start(mServiceRule);
+        assertNotNull("Not connected in stream mode",
+                      mSimulated.connect(DEVICE_NAME, ZentriOSBLEManager.MODE_STREAM));
+    }
+
+    @After
+    public void tearDown()
+    {
+        mSimulated.stop();
+    }
+
+    @Test
+    public void streamSweep() throws Exception
+    {
+        List<Result> results = run(mService, DEVICE_NAME, DEFAULT_PAYLOAD_SIZES, DEFAULT_MESSAGES,
+                                   RUN_TIMEOUT_MS);
+
+        for (Result result : results)
+        {
+            Log.i(TAG, result.toJson());
+        }
+        File file = new File(InstrumentationRegistry.getTargetContext().getFilesDir(),
+                             "stream_benchmark.jsonl");
+        write(results, new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+
+        for (Result result : results)
+        {
+            assertEquals(result.toJson(), result.getMessages(), result.getReceived());
+        }
+    }
+
+    /**
+     * Runs the sweep through the service. Call from a background thread, not the main thread.
+     * Replaces the write queue's listener for the duration of the run.
+     * @param timeoutMs per payload size and receive mode
+     */
+    public static List<Result> run(ZentriOSBLEService service, String deviceName,
+                                   int[] payloadSizes, int messages, long timeoutMs)
+            throws InterruptedException
+    {
+        checkSizes(payloadSizes);
+
+        ZentriOSBLEManager manager = service.getManager();
+        DeviceSession session = service.getSession(deviceName);
+        ReceiveMode previousMode = manager.getReceiveMode();
+        ArrayList<Result> results = new ArrayList<>();
+
+        try
+        {
+            for (ReceiveMode mode : ReceiveMode.values())
+            {
+                manager.setReceiveMode(mode);
+                for (int size : payloadSizes)
+                {
+                    results.add(runService(session, mode, size, messages, timeoutMs));
+                }
+            }
+        }
+        finally
+        {
+            manager.setReceiveMode(previousMode);
+            session.getWriteQueue().setListener(null);
+        }
+
+        return results;
+    }
+
+    private static Result runService(DeviceSession session, ReceiveMode mode, int payloadSize,
+                                     int messages, long timeoutMs) throws InterruptedException
+    {
+        final Probe probe = new Probe(messages);
+        final Object writable = new Object();
+
+        BLEEventBus.Listener listener = new BLEEventBus.Listener()
+        {
+            @Override
+            public void onEvent(BLEEvent event)
+            {
+                long now = System.nanoTime() / 1000;
+                if (event.getType() == BLEEvent.STRING_DATA_BATCH)
+                {
+                    probe.received(event.getText(), now);
+                }
+                else if (event.getBuffer() != null)
+                {
+                    probe.received(event.getBuffer().view(), now);
+                }
+            }
+        };
+
+        WriteQueue queue = session.getWriteQueue();
+        queue.setListener(new WriteQueue.Listener()
+        {
+            @Override
+            public void onWritable(WriteQueue queue)
+            {
+                synchronized (writable)
+                {
+                    writable.notifyAll();
+                }
+            }
+        });
+        session.getEventBus().addListener(listener, BLEEvent.STRING_DATA_BATCH,
+                                          BLEEvent.BINARY_DATA_BATCH);
+
+        try
+        {
+            for (int seq = 0; seq < messages; seq++)
+            {
+                String message = Probe.message(seq, payloadSize);
+                byte[] bytes = mode == ReceiveMode.BINARY ? message.getBytes(SimulatedModule.CHARSET)
+                                                          : null;
+                probe.sent(seq, System.nanoTime() / 1000);
+
+                synchronized (writable)
+                {
+                    while (!(bytes != null ? queue.offer(bytes) : queue.offer(message)))
+                    {
+                        writable.wait(timeoutMs);
+                    }
+                }
+            }
+
+            probe.await(timeoutMs);
+        }
+        finally
+        {
+            session.getEventBus().removeListener(listener);
+        }
+
+        return new Result(mode, payloadSize, messages, probe);
+    }
+
+    //one JSON object per line, closes out
+    public static void write(List<Result> results, Writer out) throws IOException
+    {
+        try
+        {
+            for (Result result : results)
+            {
+                out.write(result.toJson());
+                out.write('\n');
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static void checkSizes(int[] payloadSizes)
+    {
+        for (int size : payloadSizes)
+        {
+            if (size < MIN_PAYLOAD_SIZE)
+            {
+                throw new IllegalArgumentException("Payload size below " + MIN_PAYLOAD_SIZE);
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import com.zentri.zentri_ble_command.ErrorCode;
+
+/**
+ * A BLE event published by {@link BLEEventBus}.
+ *
+ * Event instances are pre-allocated and reused by the bus, one per event type. An event is only
+ * valid for the duration of the {@link BLEEventBus.Listener#onEvent(BLEEvent)} call, listeners
+ * must copy out anything they want to keep.
+ */
+public class BLEEvent
+{
+    public static final int SCAN_RESULT = 0;
+    public static final int CONNECTED = 1;
+    public static final int DISCONNECTED = 2;
+    public static final int MODE_WRITE = 3;
+    public static final int MODE_READ = 4;
+    public static final int STRING_DATA_WRITE = 5;
+    public static final int STRING_DATA_READ = 6;
+    public static final int BINARY_DATA_WRITE = 7;
+    public static final int BINARY_DATA_READ = 8;
+    public static final int COMMAND_SENT = 9;
+    public static final int COMMAND_RESULT = 10;
+    public static final int ERROR = 11;
+    public static final int FIRMWARE_VERSION_READ = 12;
+
+    //coalesced stream data, published on the main thread once per frame (see ReceiveCoalescer)
+    public static final int STRING_DATA_BATCH = 13;
+    public static final int BINARY_DATA_BATCH = 14;
+
+    static final int TYPE_COUNT = 15;
+
+    private final int mType;
+
+    private String mDeviceName;
+    private String mAddress;
+    private int mMode;
+    private String mStringData;
+    private byte[] mBinaryData;
+    private PooledBuffer mBuffer;
+    private int mLength;
+    private CharSequence mText;
+    private int mBatchChunks;
+    private long mBatchCount;
+    private long mTotalChunks;
+    private String mCommand;
+    private int mCommandID;
+    private int mResponseCode;
+    private ErrorCode mError;
+
+    BLEEvent(int type)
+    {
+        mType = type;
+    }
+
+    //copies the payload of an event of the same type, for delivery after the original is reused
+    void copyFrom(BLEEvent event)
+    {
+        mDeviceName = event.mDeviceName;
+        mAddress = event.mAddress;
+        mMode = event.mMode;
+        mStringData = event.mStringData;
+        mBinaryData = event.mBinaryData;//the library hands out a new array for every callback
+        mBuffer = event.mBuffer;
+        mLength = event.mLength;
+        mText = event.mText;
+        mBatchChunks = event.mBatchChunks;
+        mBatchCount = event.mBatchCount;
+        mTotalChunks = event.mTotalChunks;
+        mCommand = event.mCommand;
+        mCommandID = event.mCommandID;
+        mResponseCode = event.mResponseCode;
+        mError = event.mError;
+    }
+
+    //clears the payload so nothing leaks between two uses of the same instance
+    BLEEvent begin(String deviceName)
+    {
+        mDeviceName = deviceName;
+        mAddress = null;
+        mMode = 0;
+        mStringData = null;
+        mBinaryData = null;
+        mBuffer = null;
+        mLength = 0;
+        mText = null;
+        mBatchChunks = 0;
+        mBatchCount = 0;
+        mTotalChunks = 0;
+        mCommand = null;
+        mCommandID = 0;
+        mResponseCode = -1;
+        mError = null;
+        return this;
+    }
+
+    public int getType()
+    {
+        return mType;
+    }
+
+    public String getDeviceName()
+    {
+        return mDeviceName;
+    }
+
+    void setDeviceName(String deviceName)
+    {
+        mDeviceName = deviceName;
+    }
+
+    public String getAddress()
+    {
+        return mAddress;
+    }
+
+    void setAddress(String address)
+    {
+        mAddress = address;
+    }
+
+    public int getMode()
+    {
+        return mMode;
+    }
+
+    void setMode(int mode)
+    {
+        mMode = mode;
+    }
+
+    public String getStringData()
+    {
+        return mStringData;
+    }
+
+    void setStringData(String data)
+    {
+        mStringData = data;
+    }
+
+    public byte[] getBinaryData()
+    {
+        return mBinaryData;
+    }
+
+    void setBinaryData(byte[] data)
+    {
+        setBinaryData(data, data != null ? data.length : 0);
+    }
+
+    void setBinaryData(byte[] data, int length)
+    {
+        mBinaryData = data;
+        mLength = length;
+    }
+
+    /**
+     * Binary batch data. Read it through {@link PooledBuffer#view()}, and call
+     * {@link PooledBuffer#retain()} to keep it after onEvent returns instead of copying it out.
+     */
+    public PooledBuffer getBuffer()
+    {
+        return mBuffer;
+    }
+
+    void setBuffer(PooledBuffer buffer)
+    {
+        mBuffer = buffer;
+        mLength = buffer != null ? buffer.length() : 0;
+    }
+
+    //number of valid bytes in getBinaryData() or getBuffer()
+    public int getLength()
+    {
+        return mLength;
+    }
+
+    //batch text, a reused buffer so use it or copy it before returning from onEvent
+    public CharSequence getText()
+    {
+        return mText;
+    }
+
+    void setText(CharSequence text)
+    {
+        mText = text;
+    }
+
+    //number of received chunks coalesced into this batch
+    public int getBatchChunks()
+    {
+        return mBatchChunks;
+    }
+
+    //batches delivered so far for this device, including this one
+    public long getBatchCount()
+    {
+        return mBatchCount;
+    }
+
+    //chunks received so far for this device, getTotalChunks() / getBatchCount() is the coalescing ratio
+    public long getTotalChunks()
+    {
+        return mTotalChunks;
+    }
+
+    void setBatchCounters(int batchChunks, long batchCount, long totalChunks)
+    {
+        mBatchChunks = batchChunks;
+        mBatchCount = batchCount;
+        mTotalChunks = totalChunks;
+    }
+
+    //the length field of this event's trace record
+    int getTraceLength()
+    {
+        switch (mType)
+        {
+            case STRING_DATA_WRITE:
+            case STRING_DATA_READ:
+                return mStringData != null ? mStringData.length() : 0;
+
+            case STRING_DATA_BATCH:
+                return mText != null ? mText.length() : 0;
+
+            case BINARY_DATA_WRITE:
+            case BINARY_DATA_READ:
+            case BINARY_DATA_BATCH:
+                return mLength;
+
+            case COMMAND_SENT:
+            case COMMAND_RESULT:
+                return mCommandID;
+
+            case MODE_WRITE:
+            case MODE_READ:
+                return mMode;
+
+            case ERROR:
+                return mError != null ? mError.ordinal() : -1;
+
+            default:
+                return 0;
+        }
+    }
+
+    public String getCommand()
+    {
+        return mCommand;
+    }
+
+    void setCommand(String command)
+    {
+        mCommand = command;
+    }
+
+    public int getCommandID()
+    {
+        return mCommandID;
+    }
+
+    void setCommandID(int id)
+    {
+        mCommandID = id;
+    }
+
+    public int getResponseCode()
+    {
+        return mResponseCode;
+    }
+
+    void setResponseCode(int code)
+    {
+        mResponseCode = code;
+    }
+
+    public ErrorCode getError()
+    {
+        return mError;
+    }
+
+    void setError(ErrorCode error)
+    {
+        mError = error;
+    }
+}
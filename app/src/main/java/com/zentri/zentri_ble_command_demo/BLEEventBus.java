@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-process event bus for BLE events from {@link ZentriOSBLEService}.
+ *
+ * Listeners register for the event types they care about and are called directly on the thread
+ * the BLE callback arrived on, there is no Intent allocation or main looper hop. Each event type
+ * has a single pre-allocated {@link BLEEvent} which is reused for every publish.
+ */
+public class BLEEventBus
+{
+    public interface Listener
+    {
+        //called on the BLE callback thread (main thread for batch events), event is only valid
+        //until this returns
+        void onEvent(BLEEvent event);
+    }
+
+    private static final Listener[] NO_LISTENERS = new Listener[0];
+
+    private final BLEEvent[] mEvents = new BLEEvent[BLEEvent.TYPE_COUNT];
+
+    //copy-on-write so publish never takes a lock or allocates
+    private final AtomicReferenceArray<Listener[]> mListeners =
+            new AtomicReferenceArray<>(BLEEvent.TYPE_COUNT);
+
+    public BLEEventBus()
+    {
+        for (int i = 0; i < BLEEvent.TYPE_COUNT; i++)
+        {
+            mEvents[i] = new BLEEvent(i);
+            mListeners.set(i, NO_LISTENERS);
+        }
+    }
+
+    public synchronized void addListener(Listener listener, int... types)
+    {
+        for (int type : types)
+        {
+            Listener[] current = mListeners.get(type);
+            if (indexOf(current, listener) < 0)
+            {
+                Listener[] updated = new Listener[current.length + 1];
+                System.arraycopy(current, 0, updated, 0, current.length);
+                updated[current.length] = listener;
+                mListeners.set(type, updated);
+            }
+        }
+    }
+
+    public synchronized void removeListener(Listener listener)
+    {
+        for (int type = 0; type < BLEEvent.TYPE_COUNT; type++)
+        {
+            Listener[] current = mListeners.get(type);
+            int index = indexOf(current, listener);
+            if (index >= 0)
+            {
+                Listener[] updated = NO_LISTENERS;
+                if (current.length > 1)
+                {
+                    updated = new Listener[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, index);
+                    System.arraycopy(current, index + 1, updated, index, updated.length - index);
+                }
+                mListeners.set(type, updated);
+            }
+        }
+    }
+
+    public boolean hasListeners(int type)
+    {
+        return mListeners.get(type).length > 0;
+    }
+
+    /**
+     * Returns the reusable event for the given type. The BLE stack may call back from more than one
+     * thread, so callers must synchronize on the event, call {@link BLEEvent#begin(String)} to clear
+     * it and only release it once publish() has returned.
+     */
+    BLEEvent obtain(int type)
+    {
+        return mEvents[type];
+    }
+
+    void publish(BLEEvent event)
+    {
+        Listener[] listeners = mListeners.get(event.getType());
+        for (Listener listener : listeners)
+        {
+            listener.onEvent(event);
+        }
+    }
+
+    private static int indexOf(Listener[] listeners, Listener listener)
+    {
+        for (int i = 0; i < listeners.length; i++)
+        {
+            if (listeners[i] == listener)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+/**
+ * Actions and extras of the local broadcasts published by {@link IntentBroadcastAdapter}. Kept
+ * free of Android types so the benchmarks module compiles the same constants as the app.
+ */
+public final class BLEIntents
+{
+    public static final String ACTION_SCAN_RESULT = "ACTION_SCAN_RESULT";
+    public static final String ACTION_CONNECTED = "ACTION_CONNECTED";
+    public static final String ACTION_DISCONNECTED = "ACTION_DISCONNECTED";
+    public static final String ACTION_MODE_WRITE = "ACTION_MODE_WRITE";
+    public static final String ACTION_MODE_READ = "ACTION_MODE_READ";
+    public static final String ACTION_STRING_DATA_WRITE = "ACTION_STRING_DATA_WRITE";
+    public static final String ACTION_STRING_DATA_READ = "ACTION_STRING_DATA_READ";
+    public static final String ACTION_BINARY_DATA_WRITE = "ACTION_BINARY_DATA_WRITE";
+    public static final String ACTION_BINARY_DATA_READ = "ACTION_BINARY_DATA_READ";
+    public static final String ACTION_COMMAND_SENT = "ACTION_COMMAND_SENT";
+    public static final String ACTION_COMMAND_RESULT = "ACTION_COMMAND_RESULT";
+    public static final String ACTION_ERROR = "ACTION_ERROR";
+
+    public static final String EXTRA_MODE = "EXTRA_MODE";
+    public static final String EXTRA_DATA = "EXTRA_DATA";
+    public static final String EXTRA_COMMAND = "EXTRA_COMMAND";
+    public static final String EXTRA_ID = "EXTRA_ID";
+    public static final String EXTRA_RESPONSE_CODE = "EXTRA_RESPONSE_CODE";
+    public static final String EXTRA_ERROR = "EXTRA_ERROR";
+    public static final String EXTRA_DEVICE_NAME = "EXTRA_DEVICE_NAME";
+
+    private BLEIntents()
+    {
+    }
+}
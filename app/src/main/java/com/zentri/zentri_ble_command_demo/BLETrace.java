@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Structured tracing for the BLE hot path.
+ *
+ * Call sites are written as {@code if (BLETrace.ENABLED) BLETrace.record(...)} so they are removed
+ * at compile time when ENABLED is false. When compiled in, recording can still be switched on and
+ * off at runtime and costs a volatile read when off.
+ *
+ * Records are fixed-size binary (timestamp, event id, device handle, length) and go into a
+ * lock-free in-memory ring that overwrites the oldest records. The ring can be written to a file
+ * with {@link #dump(File)}.
+ */
+public final class BLETrace
+{
+    //compile-time switch for all trace call sites, release builds don't trace
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    //compile-time switch for the remaining logcat output on the BLE paths
+    public static final boolean LOGCAT = false;
+
+    //trace-only event ids, BLEEvent types are used as-is for callback events
+    public static final int EV_CONNECT = 32;
+    public static final int EV_DISCONNECT = 33;
+    public static final int EV_SCAN_START = 34;
+    public static final int EV_SCAN_STOP = 35;
+    public static final int EV_WRITE = 36;
+    public static final int EV_EVENT_DROPPED = 37;//length is the dropped BLEEvent type
+
+    static final int DUMP_MAGIC = 0x5A425452;//"ZBTR"
+    static final int DUMP_VERSION = 1;
+
+    private static final int CAPACITY = 8192;//records, must be a power of 2
+    private static final int MASK = CAPACITY - 1;
+    private static final int SLOT_SIZE = 3;//sequence, timestamp, packed event/handle/length
+
+    private static final AtomicLongArray sRing = new AtomicLongArray(CAPACITY * SLOT_SIZE);
+    private static final AtomicLong sCursor = new AtomicLong();
+    private static volatile boolean sRecording = true;
+
+    static
+    {
+        for (int i = 0; i < CAPACITY; i++)
+        {
+            sRing.set(i * SLOT_SIZE, -1);//empty slot
+        }
+    }
+
+    private BLETrace()
+    {
+    }
+
+    public static void setRecording(boolean recording)
+    {
+        sRecording = recording;
+    }
+
+    public static boolean isRecording()
+    {
+        return sRecording;
+    }
+
+    /**
+     * Records one event. Lock-free and allocation-free, safe to call from any thread.
+     * @param eventId a BLEEvent type or one of the EV_* ids
+     * @param handle device handle from {@link DeviceSession#getHandle()}, 0 if none
+     * @param length payload length, or the command id / mode for events without a payload
+     */
+    public static void record(int eventId, int handle, int length)
+    {
+        if (!sRecording)
+        {
+            return;
+        }
+
+        long seq = sCursor.getAndIncrement();
+        int base = (int)(seq & MASK) * SLOT_SIZE;
+
+        //mark the slot as being written so a concurrent dump skips it
+        sRing.set(base, -1);
+        sRing.lazySet(base + 1, System.nanoTime());
+        sRing.lazySet(base + 2, pack(eventId, handle, length));
+        sRing.set(base, seq);
+    }
+
+    /**
+     * Writes the ring, oldest record first, to the given file. Recording may continue while this
+     * runs, records overwritten during the dump are skipped.
+     * @return number of records written
+     */
+    public static int dump(File file) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        int count = 0;
+
+        try
+        {
+            long end = sCursor.get();
+            long start = Math.max(0, end - CAPACITY);
+
+            out.writeInt(DUMP_MAGIC);
+            out.writeInt(DUMP_VERSION);
+            out.writeLong(start);//sequence number of the first record, records follow until EOF
+
+            for (long seq = start; seq < end; seq++)
+            {
+                int base = (int)(seq & MASK) * SLOT_SIZE;
+
+                if (sRing.get(base) != seq)
+                {
+                    continue;
+                }
+                long timestamp = sRing.get(base + 1);
+                long packed = sRing.get(base + 2);
+                if (sRing.get(base) != seq)
+                {
+                    continue;//overwritten while reading
+                }
+
+                out.writeLong(timestamp);
+                out.writeShort(eventOf(packed));
+                out.writeShort(handleOf(packed));
+                out.writeInt(lengthOf(packed));
+                count++;
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        return count;
+    }
+
+    static long pack(int eventId, int handle, int length)
+    {
+        return ((long)(eventId & 0xFFFF) << 48) | ((long)(handle & 0xFFFF) << 32)
+                | (length & 0xFFFFFFFFL);
+    }
+
+    static int eventOf(long packed)
+    {
+        return (int)(packed >>> 48);
+    }
+
+    static int handleOf(long packed)
+    {
+        return (int)(packed >>> 32) & 0xFFFF;
+    }
+
+    static int lengthOf(long packed)
+    {
+        return (int)packed;
+    }
+}
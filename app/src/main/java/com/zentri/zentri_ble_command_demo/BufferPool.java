@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size pool of direct buffers for the binary stream path.
+ *
+ * All slices are cut from a single direct allocation up front so acquiring and releasing a buffer
+ * never allocates. Slices can be passed straight to the BLE transport and delivered to listeners
+ * as read-only views without copying the data into byte arrays on the way.
+ *
+ * When the pool is empty, or more than a slice is asked for, acquire() falls back to a one-off
+ * heap buffer so callers never have to handle failure. {@link #getMisses()} counts these.
+ */
+public class BufferPool
+{
+    public static final int DEFAULT_SLICE_SIZE = 4096;
+    public static final int DEFAULT_SLICE_COUNT = 32;
+
+    private final int mSliceSize;
+    private final int mSliceCount;
+    private final ArrayBlockingQueue<PooledBuffer> mFree;
+    private final AtomicLong mMisses = new AtomicLong();
+
+    public BufferPool(int sliceSize, int sliceCount)
+    {
+        mSliceSize = sliceSize;
+        mSliceCount = sliceCount;
+        mFree = new ArrayBlockingQueue<>(sliceCount);
+
+        ByteBuffer slab = ByteBuffer.allocateDirect(sliceSize * sliceCount);
+        for (int i = 0; i < sliceCount; i++)
+        {
+            slab.limit((i + 1) * sliceSize);
+            slab.position(i * sliceSize);
+            mFree.add(new PooledBuffer(this, slab.slice()));
+        }
+    }
+
+    public PooledBuffer acquire()
+    {
+        return acquire(mSliceSize);
+    }
+
+    /**
+     * @param minSize bytes the caller needs, the buffer's limit is set to its full capacity
+     * @return a cleared buffer holding one reference for the caller
+     */
+    public PooledBuffer acquire(int minSize)
+    {
+        PooledBuffer buffer = minSize <= mSliceSize ? mFree.poll() : null;
+
+        if (buffer == null)
+        {
+            mMisses.incrementAndGet();
+            buffer = new PooledBuffer(null, ByteBuffer.allocate(Math.max(minSize, mSliceSize)));
+        }
+
+        buffer.reset();
+        return buffer;
+    }
+
+    public int getSliceSize()
+    {
+        return mSliceSize;
+    }
+
+    public int getSliceCount()
+    {
+        return mSliceCount;
+    }
+
+    //slices currently in the pool
+    public int getAvailable()
+    {
+        return mFree.size();
+    }
+
+    //acquires that had to allocate because no slice was free or large enough
+    public long getMisses()
+    {
+        return mMisses.get();
+    }
+
+    void recycle(PooledBuffer buffer)
+    {
+        mFree.offer(buffer);
+    }
+}
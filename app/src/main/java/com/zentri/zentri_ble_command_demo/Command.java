@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import com.zentri.zentri_ble_command.CommandMode;
+import com.zentri.zentri_ble_command.GPIODirection;
+import com.zentri.zentri_ble_command.GPIOFunction;
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+/**
+ * A module command that can be submitted to a {@link CommandClient}.
+ *
+ * Commands are immutable and can be reused, the factory methods cover the commands used by the
+ * demo. Anything else can be sent by overriding {@link #send(ZentriOSBLEManager, String)}.
+ */
+public abstract class Command
+{
+    private final String mName;
+
+    protected Command(String name)
+    {
+        mName = name;
+    }
+
+    //short description for logs, e.g. "gfu 9 stdio"
+    public String getName()
+    {
+        return mName;
+    }
+
+    @Override
+    public String toString()
+    {
+        return mName;
+    }
+
+    /**
+     * Hands the command to the manager.
+     * @return the command id, or ZentriOSBLEManager.ID_INVALID if it could not be sent
+     */
+    protected abstract int send(ZentriOSBLEManager manager, String deviceName);
+
+    public static Command adc(final int gpio)
+    {
+        return new Command("adc " + gpio)
+        {
+            @Override
+            protected int send(ZentriOSBLEManager manager, String deviceName)
+            {
+                return manager.adc(deviceName, gpio);
+            }
+        };
+    }
+
+    public static Command gpioGet(final int gpio)
+    {
+        return new Command("gge " + gpio)
+        {
+            @Override
+            protected int send(ZentriOSBLEManager manager, String deviceName)
+            {
+                return manager.GPIOGet(deviceName, gpio);
+            }
+        };
+    }
+
+    public static Command gpioSet(final int gpio, final int value)
+    {
+        return new Command("gse " + gpio + " " + value)
+        {
+            @Override
+            protected int send(ZentriOSBLEManager manager, String deviceName)
+            {
+                return manager.GPIOSet(deviceName, gpio, value);
+            }
+        };
+    }
+
+    public static Command gpioFunctionSet(final int gpio, final GPIOFunction function)
+    {
+        return new Command("gfu " + gpio + " " + function)
+        {
+            @Override
+            protected int send(ZentriOSBLEManager manager, String deviceName)
+            {
+                return manager.GPIOFunctionSet(deviceName, gpio, function);
+            }
+        };
+    }
+
+    public static Command gpioDirectionSet(final int gpio, final GPIODirection direction)
+    {
+        return new Command("gdi " + gpio + " " + direction)
+        {
+            @Override
+            protected int send(ZentriOSBLEManager manager, String deviceName)
+            {
+                return manager.GPIODirectionSet(deviceName, gpio, direction);
+            }
+        };
+    }
+
+    public static Command save()
+    {
+        return new Command("save")
+        {
+            @Override
+            protected int send(ZentriOSBLEManager manager, String deviceName)
+            {
+                return manager.save(deviceName);
+            }
+        };
+    }
+
+    //address is the module's Bluetooth address, which the module requires to confirm the reset
+    public static Command factoryReset(final String address)
+    {
+        return new Command("factory_reset")
+        {
+            @Override
+            protected int send(ZentriOSBLEManager manager, String deviceName)
+            {
+                return manager.factoryReset(deviceName, address);
+            }
+        };
+    }
+
+    public static Command reboot()
+    {
+        return new Command("reboot")
+        {
+            @Override
+            protected int send(ZentriOSBLEManager manager, String deviceName)
+            {
+                return manager.reboot(deviceName);
+            }
+        };
+    }
+
+    //CommandClient expects CommandMode.MACHINE, the module's responses are parsed by the library
+    public static Command systemCommandMode(final CommandMode mode)
+    {
+        return new Command("set sy c m " + mode)
+        {
+            @Override
+            protected int send(ZentriOSBLEManager manager, String deviceName)
+            {
+                return manager.setSystemCommandMode(deviceName, mode);
+            }
+        };
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import com.zentri.zentri_ble_command.Result;
+
+import java.util.ArrayList;
+
+/**
+ * A list of commands submitted together with {@link CommandClient#submit(CommandBatch)}.
+ *
+ * Commands are sent back to back with up to {@link #getWindow()} of them outstanding at once, the
+ * module answers them in order so there is one round trip per window rather than per command.
+ * The batch completes with a single future: success if every command succeeded, otherwise the
+ * outcome of the first failure, whose position is available from {@link #getFailedIndex()}.
+ * Nothing after a failure is sent, and with rollback enabled the undo commands of everything that
+ * did succeed are sent in reverse order before the batch completes. Batches of independent
+ * commands, such as variable reads, can instead continue past failures.
+ *
+ * A batch can only be submitted once and must be submitted from the main thread.
+ */
+public class CommandBatch
+{
+    public static final int DEFAULT_WINDOW = 4;
+
+    private final ArrayList<Command> mCommands = new ArrayList<>();
+    private final ArrayList<Command> mUndo = new ArrayList<>();
+    private int mWindow = DEFAULT_WINDOW;
+    private boolean mRollback = false;
+    private boolean mContinueOnFailure = false;
+
+    //run state, main thread only
+    private CommandClient mClient;
+    private CommandFuture mResult;
+    private CommandFuture[] mFutures;
+    private int mNext;
+    private int mInFlight;
+    private int mFailedIndex = -1;
+    private boolean mRolledBack = false;
+
+    private final CommandFuture.Callback mStepCallback = new CommandFuture.Callback()
+    {
+        @Override
+        public void onComplete(CommandFuture future)
+        {
+            mInFlight--;
+
+            if (!future.isSuccess() && mFailedIndex < 0)
+            {
+                mFailedIndex = indexOf(future);
+            }
+
+            pump();
+        }
+    };
+
+    public CommandBatch add(Command command)
+    {
+        return add(command, null);
+    }
+
+    //undo is sent if a later command fails and rollback is enabled, null if there is nothing to undo
+    public CommandBatch add(Command command, Command undo)
+    {
+        checkNotStarted();
+        mCommands.add(command);
+        mUndo.add(undo);
+        return this;
+    }
+
+    /**
+     * Max commands outstanding at once, 1 sends them strictly one after another. The device's
+     * scheduler caps it too, see {@link CommandScheduler#setMaxInFlight(int, int)}.
+     */
+    public CommandBatch setWindow(int window)
+    {
+        checkNotStarted();
+        mWindow = Math.max(1, window);
+        return this;
+    }
+
+    public CommandBatch setRollbackOnFailure(boolean rollback)
+    {
+        checkNotStarted();
+        mRollback = rollback;
+        return this;
+    }
+
+    //keep sending after a failure, the batch still fails with the first failure once all are done
+    public CommandBatch setContinueOnFailure(boolean continueOnFailure)
+    {
+        checkNotStarted();
+        mContinueOnFailure = continueOnFailure;
+        return this;
+    }
+
+    public int size()
+    {
+        return mCommands.size();
+    }
+
+    public int getWindow()
+    {
+        return mWindow;
+    }
+
+    //index of the first command that failed, -1 if none has
+    public int getFailedIndex()
+    {
+        return mFailedIndex;
+    }
+
+    //future of the command at the given index, null if it was never sent
+    public CommandFuture getFuture(int index)
+    {
+        return mFutures != null ? mFutures[index] : null;
+    }
+
+    //true once all undo commands for a failed batch have succeeded
+    public boolean isRolledBack()
+    {
+        return mRolledBack;
+    }
+
+    CommandFuture start(CommandClient client, CommandFuture result)
+    {
+        checkNotStarted();
+        mClient = client;
+        mResult = result;
+        mFutures = new CommandFuture[mCommands.size()];
+        pump();
+        return result;
+    }
+
+    private void pump()
+    {
+        if (mFailedIndex < 0 || mContinueOnFailure)
+        {
+            while (mInFlight < mWindow && mNext < mFutures.length)
+            {
+                int index = mNext++;
+                mInFlight++;
+                mFutures[index] = mClient.submit(mCommands.get(index));
+                mFutures[index].addCallback(mStepCallback);
+            }
+        }
+
+        if (mInFlight == 0
+                && ((mFailedIndex >= 0 && !mContinueOnFailure) || mNext == mFutures.length))
+        {
+            finish();
+        }
+    }
+
+    private void finish()
+    {
+        if (mFailedIndex < 0)
+        {
+            mResult.complete(Result.SUCCESS, null);
+            return;
+        }
+
+        final CommandFuture failed = mFutures[mFailedIndex];
+        if (!mRollback)
+        {
+            mResult.completeFrom(failed);
+            return;
+        }
+
+        //commands still in flight when the failure arrived may have succeeded too
+        ArrayList<CommandFuture> undone = new ArrayList<>();
+        for (int i = mFutures.length - 1; i >= 0; i--)
+        {
+            if (mFutures[i] != null && mFutures[i].isSuccess() && mUndo.get(i) != null)
+            {
+                undone.add(mClient.submit(mUndo.get(i)));
+            }
+        }
+
+        mClient.allOf(undone.toArray(new CommandFuture[undone.size()]))
+                .addCallback(new CommandFuture.Callback()
+                {
+                    @Override
+                    public void onComplete(CommandFuture future)
+                    {
+                        mRolledBack = future.isSuccess();
+                        mResult.completeFrom(failed);
+                    }
+                });
+    }
+
+    private int indexOf(CommandFuture future)
+    {
+        for (int i = 0; i < mNext; i++)
+        {
+            if (mFutures[i] == future)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void checkNotStarted()
+    {
+        if (mResult != null)
+        {
+            throw new IllegalStateException("Batch already submitted");
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.os.Handler;
+
+import com.zentri.zentri_ble_command.ErrorCode;
+import com.zentri.zentri_ble_command.Result;
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+import java.util.ArrayDeque;
+
+/**
+ * Sends commands to one device and returns a {@link CommandFuture} for each.
+ *
+ * Results from onCommandResult are matched to their future by command id in an O(1) map, so
+ * screens no longer need to remember ids or keep in-progress flags. Commands wait in a queue per
+ * client until the {@link CommandScheduler} shared by all devices lets them go, so any number can
+ * be submitted at once. The module processes them in order.
+ */
+public class CommandClient
+{
+    //results that arrive before submit() has registered the id, see onCommandResult()
+    private static final int EARLY_RESULTS = 8;
+
+    private final String mDeviceName;
+    private final ZentriOSBLEManager mManager;
+    private final Handler mHandler;
+    private final CommandScheduler mScheduler;
+    private final CommandScheduler.Lane mLane;
+
+    private static final class Queued
+    {
+        final Command mCommand;
+        final CommandFuture mFuture;
+
+        Queued(Command command, CommandFuture future)
+        {
+            mCommand = command;
+            mFuture = future;
+        }
+    }
+
+    //held from taking a command off the queue until the manager has it, so commands sent from
+    //the main and BLE threads at once still reach the module in queue order. Never taken by the
+    //result path, which only needs this
+    private final Object mSendLock = new Object();
+
+    //guarded by this
+    private final ArrayDeque<Queued> mQueue = new ArrayDeque<>();
+    private final LongObjectMap<CommandFuture> mPending = new LongObjectMap<>();
+    private final int[] mEarlyIDs = new int[EARLY_RESULTS];
+    private final int[] mEarlyCodes = new int[EARLY_RESULTS];
+    private final String[] mEarlyData = new String[EARLY_RESULTS];
+    private int mEarlyNext;
+
+    CommandClient(String deviceName, ZentriOSBLEManager manager, Handler handler,
+                  CommandScheduler scheduler)
+    {
+        mDeviceName = deviceName;
+        mManager = manager;
+        mHandler = handler;
+        mScheduler = scheduler;
+        mLane = scheduler.register(this);
+
+        for (int i = 0; i < EARLY_RESULTS; i++)
+        {
+            mEarlyIDs[i] = ZentriOSBLEManager.ID_INVALID;
+        }
+    }
+
+    //queues the command, it is sent straight away if the scheduler has room
+    public CommandFuture submit(Command command)
+    {
+        CommandFuture future = new CommandFuture(mHandler, command.getName());
+
+        synchronized (this)
+        {
+            mQueue.add(new Queued(command, future));
+        }
+        mScheduler.dispatch();
+
+        return future;
+    }
+
+    /**
+     * Sends the commands in the batch, pipelined up to the batch's window. Must be called on the
+     * main thread.
+     * @return a future that completes once the whole batch has, see {@link CommandBatch}
+     */
+    public CommandFuture submit(CommandBatch batch)
+    {
+        return batch.start(this, new CommandFuture(mHandler, "batch of " + batch.size()));
+    }
+
+    /**
+     * @return a future that completes once all the given futures have. It succeeds if they all
+     * succeeded, otherwise it takes the outcome of the first one, in argument order, that failed.
+     */
+    public CommandFuture allOf(final CommandFuture... futures)
+    {
+        final CommandFuture all = new CommandFuture(mHandler, null);
+
+        if (futures.length == 0)
+        {
+            all.complete(Result.SUCCESS, null);
+            return all;
+        }
+
+        CommandFuture.Callback counter = new CommandFuture.Callback()
+        {
+            private int mRemaining = futures.length;
+
+            @Override
+            public void onComplete(CommandFuture future)
+            {
+                //callbacks all run on the main thread so the count needs no lock
+                if (--mRemaining > 0)
+                {
+                    return;
+                }
+
+                for (CommandFuture f : futures)
+                {
+                    if (!f.isSuccess())
+                    {
+                        all.completeFrom(f);
+                        return;
+                    }
+                }
+                all.complete(Result.SUCCESS, null);
+            }
+        };
+
+        for (CommandFuture future : futures)
+        {
+            future.addCallback(counter);
+        }
+
+        return all;
+    }
+
+    //a future that has already succeeded with the given data, e.g. for answers from a cache
+    CommandFuture completed(String command, String data)
+    {
+        CommandFuture future = newFuture(command);
+        future.complete(Result.SUCCESS, data);
+        return future;
+    }
+
+    //a pending future for work built on top of commands, completed by the caller
+    CommandFuture newFuture(String command)
+    {
+        return new CommandFuture(mHandler, command);
+    }
+
+    //commands sent and not answered yet
+    public synchronized int getPendingCount()
+    {
+        return mPending.size();
+    }
+
+    //commands waiting for their turn to be sent
+    public synchronized int getQueuedCount()
+    {
+        return mQueue.size();
+    }
+
+    CommandScheduler.Lane getLane()
+    {
+        return mLane;
+    }
+
+    /**
+     * Sends the oldest queued command, called by the scheduler once it has counted it in flight.
+     * @return false if nothing is in flight as a result, the scheduler then takes the count back
+     */
+    boolean sendNext()
+    {
+        Queued next;
+        int code;
+        String data;
+
+        synchronized (mSendLock)
+        {
+            synchronized (this)
+            {
+                next = mQueue.poll();
+            }
+            if (next == null)
+            {
+                return false;
+            }
+
+            //results come back on the BLE thread and don't wait for the send lock
+            int id = next.mCommand.send(mManager, mDeviceName);
+            if (id == ZentriOSBLEManager.ID_INVALID)
+            {
+                next.mFuture.fail(ErrorCode.WRITE_FAILED);
+                return false;
+            }
+
+            next.mFuture.setID(id);
+
+            synchronized (this)
+            {
+                int early = indexOfEarly(id);
+                if (early < 0)
+                {
+                    mPending.put(id, next.mFuture);
+                    return true;
+                }
+
+                mEarlyIDs[early] = ZentriOSBLEManager.ID_INVALID;
+                code = mEarlyCodes[early];
+                data = mEarlyData[early];
+                mEarlyData[early] = null;
+            }
+        }
+
+        //the answer beat us to it, the command is already finished
+        next.mFuture.complete(code, data);
+        mScheduler.onCompleted(mLane, true, data != null ? data.length() : 0);
+        return true;
+    }
+
+    //called on the BLE thread, returns true if the id belonged to a future from this client
+    boolean onCommandResult(int id, int responseCode, String data)
+    {
+        CommandFuture future;
+
+        synchronized (this)
+        {
+            future = mPending.remove(id);
+            if (future == null)
+            {
+                //either not ours (sent straight through the manager) or submit() has not
+                //registered it yet, keep the last few so a late registration still completes
+                mEarlyIDs[mEarlyNext] = id;
+                mEarlyCodes[mEarlyNext] = responseCode;
+                mEarlyData[mEarlyNext] = data;
+                mEarlyNext = (mEarlyNext + 1) % EARLY_RESULTS;
+                return false;
+            }
+        }
+
+        future.complete(responseCode, data);
+        mScheduler.onCompleted(mLane, true, data != null ? data.length() : 0);
+        return true;
+    }
+
+    /**
+     * The library reports timeouts without an id. Commands are answered in order so the oldest
+     * outstanding command, the lowest id, is the one that timed out. That only holds while every
+     * command for the device goes through its client, setMode() and readFirmwareVersion() are
+     * characteristic operations and don't time out this way.
+     */
+    void onCommandTimeout()
+    {
+        CommandFuture oldest = null;
+
+        synchronized (this)
+        {
+            int oldestID = Integer.MAX_VALUE;
+            for (int slot = 0; slot < mPending.capacity(); slot++)
+            {
+                CommandFuture future = mPending.valueAt(slot);
+                if (future != null && mPending.keyAt(slot) < oldestID)
+                {
+                    oldestID = (int)mPending.keyAt(slot);
+                    oldest = future;
+                }
+            }
+
+            if (oldest != null)
+            {
+                mPending.remove(oldestID);
+            }
+        }
+
+        if (oldest != null)
+        {
+            oldest.fail(ErrorCode.COMMAND_TIMEOUT);
+            mScheduler.onCompleted(mLane, false, 0);
+        }
+    }
+
+    //fails everything outstanding or queued, e.g. when the device disconnects
+    void failAll(ErrorCode error)
+    {
+        CommandFuture[] failed;
+        int pending;
+
+        synchronized (this)
+        {
+            pending = mPending.size();
+            failed = new CommandFuture[pending + mQueue.size()];
+            int count = 0;
+            for (int slot = 0; slot < mPending.capacity(); slot++)
+            {
+                CommandFuture future = mPending.valueAt(slot);
+                if (future != null)
+                {
+                    failed[count++] = future;
+                }
+            }
+            mPending.clear();
+
+            for (Queued queued : mQueue)
+            {
+                failed[count++] = queued.mFuture;
+            }
+            mQueue.clear();
+
+            for (int i = 0; i < EARLY_RESULTS; i++)
+            {
+                mEarlyIDs[i] = ZentriOSBLEManager.ID_INVALID;
+                mEarlyData[i] = null;
+            }
+        }
+
+        for (CommandFuture future : failed)
+        {
+            future.fail(error);
+        }
+        for (int i = 0; i < pending; i++)
+        {
+            mScheduler.onCompleted(mLane, false, 0);
+        }
+    }
+
+    private int indexOfEarly(int id)
+    {
+        for (int i = 0; i < EARLY_RESULTS; i++)
+        {
+            if (mEarlyIDs[i] == id)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.os.Handler;
+
+import com.zentri.zentri_ble_command.ErrorCode;
+import com.zentri.zentri_ble_command.Result;
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+import java.util.ArrayList;
+
+/**
+ * Pending result of a command submitted to a {@link CommandClient}.
+ *
+ * A future completes once, either with the module's response or with a failure (error response
+ * code, command not sent, connection lost or timed out). Callbacks are always run on the main
+ * thread, including ones added after completion.
+ *
+ * Futures compose with {@link #then(Continuation)} to run a follow-up command on success and
+ * {@link CommandClient#allOf(CommandFuture...)} to wait for a group of pipelined commands.
+ */
+public class CommandFuture
+{
+    public interface Callback
+    {
+        //called on the main thread once the future is done
+        void onComplete(CommandFuture future);
+    }
+
+    public interface Continuation
+    {
+        //called on the main thread when the previous future succeeds, returns the next future
+        CommandFuture then(CommandFuture previous);
+    }
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+
+    private final Handler mHandler;
+    private final String mCommand;
+
+    //guarded by this
+    private int mState = PENDING;
+    private int mID = ZentriOSBLEManager.ID_INVALID;
+    private int mResponseCode = -1;
+    private String mData;
+    private ErrorCode mError;
+    private ArrayList<Callback> mCallbacks;
+    private boolean mDispatchPosted;
+
+    private final Runnable mDispatchTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            dispatch();
+        }
+    };
+
+    CommandFuture(Handler handler, String command)
+    {
+        mHandler = handler;
+        mCommand = command;
+    }
+
+    public String getCommand()
+    {
+        return mCommand;
+    }
+
+    //command id assigned by the manager, ID_INVALID if not sent
+    public synchronized int getID()
+    {
+        return mID;
+    }
+
+    synchronized void setID(int id)
+    {
+        mID = id;
+    }
+
+    public synchronized boolean isDone()
+    {
+        return mState != PENDING;
+    }
+
+    public synchronized boolean isSuccess()
+    {
+        return mState == SUCCEEDED;
+    }
+
+    //module response code, -1 if no response was received
+    public synchronized int getResponseCode()
+    {
+        return mResponseCode;
+    }
+
+    //response data, null if there was none
+    public synchronized String getData()
+    {
+        return mData;
+    }
+
+    //set when the future failed without a response from the module
+    public synchronized ErrorCode getError()
+    {
+        return mError;
+    }
+
+    public CommandFuture addCallback(Callback callback)
+    {
+        synchronized (this)
+        {
+            if (mCallbacks == null)
+            {
+                mCallbacks = new ArrayList<>(2);
+            }
+            mCallbacks.add(callback);
+
+            if (mState != PENDING)
+            {
+                postDispatchLocked();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Chains a follow-up on success.
+     * @return a future that completes with the continuation's future, or fails with this one
+     */
+    public CommandFuture then(final Continuation continuation)
+    {
+        final CommandFuture next = new CommandFuture(mHandler, mCommand);
+
+        addCallback(new Callback()
+        {
+            @Override
+            public void onComplete(CommandFuture future)
+            {
+                if (!future.isSuccess())
+                {
+                    next.completeFrom(future);
+                    return;
+                }
+
+                CommandFuture following = continuation.then(future);
+                if (following == null)
+                {
+                    next.completeFrom(future);
+                }
+                else
+                {
+                    following.addCallback(new Callback()
+                    {
+                        @Override
+                        public void onComplete(CommandFuture future)
+                        {
+                            next.completeFrom(future);
+                        }
+                    });
+                }
+            }
+        });
+
+        return next;
+    }
+
+    //completes from a module response, returns false if already done
+    boolean complete(int responseCode, String data)
+    {
+        synchronized (this)
+        {
+            if (mState != PENDING)
+            {
+                return false;
+            }
+
+            mState = responseCode == Result.SUCCESS ? SUCCEEDED : FAILED;
+            mResponseCode = responseCode;
+            mData = data;
+            postDispatchLocked();
+            return true;
+        }
+    }
+
+    //fails without a module response, returns false if already done
+    boolean fail(ErrorCode error)
+    {
+        synchronized (this)
+        {
+            if (mState != PENDING)
+            {
+                return false;
+            }
+
+            mState = FAILED;
+            mError = error;
+            postDispatchLocked();
+            return true;
+        }
+    }
+
+    //takes over the outcome of another, completed, future
+    void completeFrom(CommandFuture other)
+    {
+        int state, id, code;
+        String data;
+        ErrorCode error;
+
+        synchronized (other)
+        {
+            state = other.mState;
+            id = other.mID;
+            code = other.mResponseCode;
+            data = other.mData;
+            error = other.mError;
+        }
+
+        synchronized (this)
+        {
+            if (mState != PENDING)
+            {
+                return;
+            }
+
+            mState = state;
+            mID = id;
+            mResponseCode = code;
+            mData = data;
+            mError = error;
+            postDispatchLocked();
+        }
+    }
+
+    private void postDispatchLocked()
+    {
+        if (!mDispatchPosted && mCallbacks != null && !mCallbacks.isEmpty())
+        {
+            mDispatchPosted = true;
+            mHandler.post(mDispatchTask);
+        }
+    }
+
+    private void dispatch()
+    {
+        ArrayList<Callback> callbacks;
+
+        synchronized (this)
+        {
+            mDispatchPosted = false;
+            callbacks = mCallbacks;
+            mCallbacks = null;//each callback runs once
+        }
+
+        if (callbacks != null)
+        {
+            for (Callback callback : callbacks)
+            {
+                callback.onComplete(this);
+            }
+        }
+    }
+}
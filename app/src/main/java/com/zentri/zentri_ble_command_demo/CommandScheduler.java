@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+
+/**
+ * Decides which device's command is sent next when several devices are connected.
+ *
+ * Each {@link CommandClient} queues its own commands. Clients are served round robin, a client
+ * sending up to its weight in commands per turn, and commands in flight are capped both in total
+ * and per device. A device with a deep queue, e.g. a fast sampling loop, then only gets its share
+ * of the link and can't hold up commands for the others. Also counts completed commands per
+ * client for throughput. Thread safe.
+ */
+public class CommandScheduler
+{
+    //a device can fill a batch window on its own, and two devices can at once
+    public static final int DEFAULT_MAX_IN_FLIGHT_PER_DEVICE = CommandBatch.DEFAULT_WINDOW;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2 * DEFAULT_MAX_IN_FLIGHT_PER_DEVICE;
+
+    static final class Lane
+    {
+        final CommandClient mClient;
+        int mWeight = 1;
+        int mCredit = 1;//commands left in the current turn
+        int mInFlight;
+        long mCompleted;
+        long mResponseBytes;
+
+        Lane(CommandClient client)
+        {
+            mClient = client;
+        }
+    }
+
+    //guarded by this
+    private final ArrayList<Lane> mLanes = new ArrayList<>();
+    private int mNext;
+    private int mInFlight;
+    private int mMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int mMaxInFlightPerDevice = DEFAULT_MAX_IN_FLIGHT_PER_DEVICE;
+    private long mStatsStart = SystemClock.elapsedRealtime();
+
+    //called by each client when it is created, clients live as long as the service
+    synchronized Lane register(CommandClient client)
+    {
+        Lane lane = new Lane(client);
+        mLanes.add(lane);
+        return lane;
+    }
+
+    /**
+     * Lowering the per device limit below a batch's window also caps that batch, its commands
+     * wait in the client's queue instead.
+     */
+    public synchronized void setMaxInFlight(int maxInFlight, int maxInFlightPerDevice)
+    {
+        mMaxInFlight = Math.max(1, maxInFlight);
+        mMaxInFlightPerDevice = Math.max(1, maxInFlightPerDevice);
+    }
+
+    //commands a client may send per turn, relative to the others, 1 by default
+    public synchronized void setWeight(CommandClient client, int weight)
+    {
+        Lane lane = client.getLane();
+        lane.mWeight = Math.max(1, weight);
+        lane.mCredit = Math.min(lane.mCredit, lane.mWeight);
+    }
+
+    public synchronized int getInFlight()
+    {
+        return mInFlight;
+    }
+
+    synchronized long getCompleted(Lane lane)
+    {
+        return lane.mCompleted;
+    }
+
+    synchronized long getResponseBytes(Lane lane)
+    {
+        return lane.mResponseBytes;
+    }
+
+    synchronized long getStatsElapsedMs()
+    {
+        return SystemClock.elapsedRealtime() - mStatsStart;
+    }
+
+    synchronized void resetStats()
+    {
+        for (Lane lane : mLanes)
+        {
+            lane.mCompleted = 0;
+            lane.mResponseBytes = 0;
+        }
+        mStatsStart = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Sends queued commands while there is room. Called after a command is queued or finishes,
+     * from any thread.
+     */
+    void dispatch()
+    {
+        while (true)
+        {
+            Lane lane;
+            synchronized (this)
+            {
+                lane = pickLocked();
+                if (lane == null)
+                {
+                    return;
+                }
+                lane.mInFlight++;
+                mInFlight++;
+            }
+
+            //the manager is not called with our lock held
+            if (!lane.mClient.sendNext())
+            {
+                synchronized (this)
+                {
+                    release(lane);
+                }
+            }
+        }
+    }
+
+    //a command sent by the lane's client got its answer, or failed
+    void onCompleted(Lane lane, boolean success, int responseBytes)
+    {
+        synchronized (this)
+        {
+            release(lane);
+            if (success)
+            {
+                lane.mCompleted++;
+                lane.mResponseBytes += responseBytes;
+            }
+        }
+        dispatch();
+    }
+
+    //client lock is taken inside ours, never the other way round
+    private Lane pickLocked()
+    {
+        if (mInFlight >= mMaxInFlight || mLanes.isEmpty())
+        {
+            return null;
+        }
+
+        //one extra visit so the first lane can start a new turn once every lane has had one
+        for (int visited = 0; visited <= mLanes.size(); visited++)
+        {
+            Lane lane = mLanes.get(mNext);
+            if (lane.mCredit > 0 && lane.mInFlight < mMaxInFlightPerDevice
+                    && lane.mClient.getQueuedCount() > 0)
+            {
+                lane.mCredit--;
+                return lane;
+            }
+
+            //turn used up, nothing to send or window full: next lane
+            lane.mCredit = lane.mWeight;
+            mNext = (mNext + 1) % mLanes.size();
+        }
+        return null;
+    }
+
+    private void release(Lane lane)
+    {
+        if (lane.mInFlight > 0)
+        {
+            lane.mInFlight--;
+            mInFlight--;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import com.zentri.zentri_ble_command.Result;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads module configuration into {@link ConfigSnapshot}s and pushes profiles to a module.
+ *
+ * Reads and writes are sent as pipelined {@link CommandBatch}es rather than one round trip each.
+ * A push only sends the set commands for variables that differ from the module's current values,
+ * followed by a single save, and nothing at all if the module already matches.
+ *
+ * Methods must be called on the main thread.
+ */
+public class ConfigEngine
+{
+    private static final List<DeviceVariable> ALL = Arrays.asList(DeviceVariable.values());
+
+    private final CommandClient mClient;
+    private final VariableCache mVariableCache;
+    private int mWindow = CommandBatch.DEFAULT_WINDOW;
+
+    public ConfigEngine(DeviceSession session)
+    {
+        mClient = session.getCommandClient();
+        mVariableCache = session.getVariableCache();
+    }
+
+    //max commands outstanding at once for reads and writes
+    public void setWindow(int window)
+    {
+        mWindow = window;
+    }
+
+    //reads every variable, see read(ConfigSnapshot, List)
+    public CommandFuture read(ConfigSnapshot snapshot)
+    {
+        return read(snapshot, ALL);
+    }
+
+    /**
+     * Reads the given variables into snapshot. The future always succeeds once all reads are done,
+     * variables the module did not answer (e.g. not supported by its firmware) are left out of the
+     * snapshot.
+     */
+    public CommandFuture read(final ConfigSnapshot snapshot, final List<DeviceVariable> variables)
+    {
+        final CommandBatch batch = new CommandBatch()
+                .setWindow(mWindow)
+                .setContinueOnFailure(true);
+        for (DeviceVariable variable : variables)
+        {
+            batch.add(variable.readCommand());
+        }
+
+        final CommandFuture result = mClient.newFuture("read " + variables.size());
+        mClient.submit(batch).addCallback(new CommandFuture.Callback()
+        {
+            @Override
+            public void onComplete(CommandFuture future)
+            {
+                for (int i = 0; i < batch.size(); i++)
+                {
+                    CommandFuture read = batch.getFuture(i);
+                    if (read != null && read.isSuccess())
+                    {
+                        snapshot.put(variables.get(i), read.getData());
+                    }
+                }
+                result.complete(Result.SUCCESS, null);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Writes the variables in desired that differ from current and saves, in one batch. Stops at
+     * the first failed write without saving, see {@link CommandBatch#getFailedIndex()}.
+     */
+    public CommandFuture push(ConfigSnapshot current, ConfigSnapshot desired)
+    {
+        List<DeviceVariable> changed = current.diff(desired);
+        if (changed.isEmpty())
+        {
+            return mClient.completed("push", null);//already configured, nothing to save
+        }
+
+        CommandBatch batch = new CommandBatch().setWindow(mWindow);
+        for (DeviceVariable variable : changed)
+        {
+            batch.add(variable.writeCommand(desired.get(variable)));
+            mVariableCache.invalidate(variable);//written behind the cache's back
+        }
+        batch.add(Command.save());
+
+        return mClient.submit(batch);
+    }
+
+    /**
+     * Brings the module in line with a profile: reads only the variables the profile sets, then
+     * pushes the difference.
+     */
+    public CommandFuture provision(final ConfigSnapshot desired)
+    {
+        final ConfigSnapshot current = new ConfigSnapshot();
+
+        return read(current, desired.getVariables()).then(new CommandFuture.Continuation()
+        {
+            @Override
+            public CommandFuture then(CommandFuture previous)
+            {
+                return push(current, desired);
+            }
+        });
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of {@link DeviceVariable} values, either read from a module or describing the
+ * configuration a module should have.
+ *
+ * Values are stored by variable ordinal in a single array and kept in the form the module reports
+ * them, e.g. "115200" for the UART baud rate and "1"/"0" for flags, so a profile can be compared
+ * with a snapshot without parsing. Not thread safe.
+ */
+public class ConfigSnapshot
+{
+    private static final DeviceVariable[] VARIABLES = DeviceVariable.values();
+
+    private final String[] mValues = new String[VARIABLES.length];
+    private int mSize;
+
+    public ConfigSnapshot put(DeviceVariable variable, String value)
+    {
+        int index = variable.ordinal();
+        if (mValues[index] == null && value != null)
+        {
+            mSize++;
+        }
+        else if (mValues[index] != null && value == null)
+        {
+            mSize--;
+        }
+        mValues[index] = value != null ? value.trim() : null;
+        return this;
+    }
+
+    //value, or null if the variable is not part of this snapshot
+    public String get(DeviceVariable variable)
+    {
+        return mValues[variable.ordinal()];
+    }
+
+    public boolean contains(DeviceVariable variable)
+    {
+        return mValues[variable.ordinal()] != null;
+    }
+
+    public int size()
+    {
+        return mSize;
+    }
+
+    public List<DeviceVariable> getVariables()
+    {
+        ArrayList<DeviceVariable> variables = new ArrayList<>(mSize);
+        for (DeviceVariable variable : VARIABLES)
+        {
+            if (mValues[variable.ordinal()] != null)
+            {
+                variables.add(variable);
+            }
+        }
+        return variables;
+    }
+
+    /**
+     * The writable variables whose value in desired differs from, or is missing in, this
+     * snapshot. Read-only variables in desired are ignored.
+     */
+    public List<DeviceVariable> diff(ConfigSnapshot desired)
+    {
+        ArrayList<DeviceVariable> changed = new ArrayList<>();
+        for (DeviceVariable variable : VARIABLES)
+        {
+            int index = variable.ordinal();
+            String wanted = desired.mValues[index];
+
+            if (wanted != null && variable.isWritable() && !wanted.equals(mValues[index]))
+            {
+                changed.add(variable);
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder("{");
+        for (DeviceVariable variable : VARIABLES)
+        {
+            String value = mValues[variable.ordinal()];
+            if (value != null)
+            {
+                if (builder.length() > 1)
+                {
+                    builder.append(", ");
+                }
+                builder.append(variable.name().toLowerCase()).append('=').append(value);
+            }
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,607 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.zentri.zentri_ble_command.CommandMode;
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Connections to several devices at once, up to {@link #getMaxConnections()}, each with its own
+ * state machine: IDLE, CONNECTING, READY, DISCONNECTING and BACKOFF.
+ *
+ * Connects and disconnects go through here, the service forwards the outcome from the BLE stack.
+ * Connect and disconnect attempts time out on their own. When a ready link drops without being
+ * asked to, the device waits in BACKOFF and is reconnected after a jittered, exponentially growing
+ * delay. Once it is back the mode is put back the way it was and the session's setup commands
+ * (see {@link DeviceSession#setSetupCommands(List)}) are sent again, so screens only need to show
+ * the state changes reported to their {@link Listener}.
+ *
+ * Commands for the connected devices share the link through the {@link CommandScheduler},
+ * {@link #setWeight(String, int)} gives a device a larger share. Command throughput is reported
+ * per device and in total.
+ *
+ * State changes happen on the main thread, the getters can be called from any thread.
+ */
+public class ConnectionManager
+{
+    private static final String TAG = ConnectionManager.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_READY = 2;
+    public static final int STATE_DISCONNECTING = 3;
+    public static final int STATE_BACKOFF = 4;//lost, waiting to reconnect
+
+    //why the state changed
+    public static final int REASON_REQUESTED = 0;
+    public static final int REASON_CONNECT_FAILED = 1;
+    public static final int REASON_CONNECT_TIMEOUT = 2;
+    public static final int REASON_LINK_LOST = 3;
+    public static final int REASON_RECONNECTED = 4;
+    public static final int REASON_GAVE_UP = 5;//reconnect attempts used up
+    public static final int REASON_DISCONNECT_FAILED = 6;
+    public static final int REASON_DISCONNECT_TIMEOUT = 7;
+    public static final int REASON_DEVICE_ERROR = 8;
+
+    public static final long DEFAULT_CONNECT_TIMEOUT_MS = 30000;
+    public static final long DISCONNECT_TIMEOUT_MS = 10000;
+    public static final long INITIAL_BACKOFF_MS = 500;
+    public static final long MAX_BACKOFF_MS = 30000;
+    public static final int DEFAULT_MAX_RECONNECT_ATTEMPTS = 8;
+
+    public interface Listener
+    {
+        //called on the main thread
+        void onStateChanged(String deviceName, int state, int reason);
+    }
+
+    /**
+     * Commands completed since the last reset and the rates over that time. Only successful
+     * commands count, bytes are response data.
+     */
+    public static class Throughput
+    {
+        private final long mCommands;
+        private final long mBytes;
+        private final long mElapsedMs;
+
+        Throughput(long commands, long bytes, long elapsedMs)
+        {
+            mCommands = commands;
+            mBytes = bytes;
+            mElapsedMs = Math.max(1, elapsedMs);
+        }
+
+        public long getCommands()
+        {
+            return mCommands;
+        }
+
+        public long getBytes()
+        {
+            return mBytes;
+        }
+
+        public long getElapsedMs()
+        {
+            return mElapsedMs;
+        }
+
+        public float getCommandsPerSecond()
+        {
+            return mCommands * 1000f / mElapsedMs;
+        }
+
+        public float getBytesPerSecond()
+        {
+            return mBytes * 1000f / mElapsedMs;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d commands, %.1f/s, %.0f B/s", mCommands,
+                                 getCommandsPerSecond(), getBytesPerSecond());
+        }
+    }
+
+    private final class Link
+    {
+        final String mName;
+        int mState = STATE_IDLE;//written under the manager's lock
+        int mAttempts;//reconnect attempts since the link was lost, 0 for a requested connect
+        boolean mRestore;//put the mode and setup back once ready
+        int mRestoreMode = -1;
+
+        final Runnable mTimeoutTask = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                onTimeout(Link.this);
+            }
+        };
+
+        final Runnable mReconnectTask = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                startConnect(Link.this);
+            }
+        };
+
+        Link(String name)
+        {
+            mName = name;
+        }
+    }
+
+    private final ZentriOSBLEService mService;
+    private final ZentriOSBLEManager mManager;
+    private final CommandScheduler mScheduler;
+    private final Handler mHandler;
+    private final Random mRandom = new Random();
+
+    //main thread only
+    private final ArrayList<Listener> mListeners = new ArrayList<>();
+    private boolean mAutoReconnect = true;
+    private int mMaxReconnectAttempts = DEFAULT_MAX_RECONNECT_ATTEMPTS;
+    private long mConnectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+
+    //guarded by this
+    private final HashMap<String, Link> mLinks = new HashMap<>();
+    private int mMaxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    ConnectionManager(ZentriOSBLEService service, ZentriOSBLEManager manager,
+                      CommandScheduler scheduler, Handler mainHandler)
+    {
+        mService = service;
+        mManager = manager;
+        mScheduler = scheduler;
+        mHandler = mainHandler;
+    }
+
+    public void addListener(Listener listener)
+    {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener)
+    {
+        mListeners.remove(listener);
+    }
+
+    //doesn't drop connections already above a lower limit
+    public synchronized void setMaxConnections(int maxConnections)
+    {
+        mMaxConnections = Math.max(1, maxConnections);
+    }
+
+    public synchronized int getMaxConnections()
+    {
+        return mMaxConnections;
+    }
+
+    //reconnect links that drop without a request, on by default
+    public void setAutoReconnect(boolean autoReconnect)
+    {
+        mAutoReconnect = autoReconnect;
+    }
+
+    public void setMaxReconnectAttempts(int attempts)
+    {
+        mMaxReconnectAttempts = attempts;
+    }
+
+    public void setConnectTimeout(long timeoutMs)
+    {
+        mConnectTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Starts connecting, or reconnects straight away if the device is waiting in BACKOFF.
+     * @return false if the connection limit is reached or the manager refused, true if connecting
+     * or already connecting or connected
+     */
+    public boolean connect(String deviceName)
+    {
+        Link link;
+        synchronized (this)
+        {
+            link = getLinkLocked(deviceName);
+            if (link.mState != STATE_IDLE && link.mState != STATE_BACKOFF)
+            {
+                return true;
+            }
+            if (link.mState == STATE_IDLE && getActiveCountLocked() >= mMaxConnections)
+            {
+                return false;
+            }
+        }
+
+        mHandler.removeCallbacks(link.mReconnectTask);
+        link.mAttempts = 0;//failures are reported again rather than retried
+        return startConnect(link);
+    }
+
+    //also cancels a pending reconnect
+    public boolean disconnect(String deviceName)
+    {
+        return disconnect(deviceName, ZentriOSBLEService.DISABLE_TX_NOTIFY);
+    }
+
+    //disableTxNotify false for a quick disconnect
+    public boolean disconnect(String deviceName, boolean disableTxNotify)
+    {
+        Link link;
+        synchronized (this)
+        {
+            link = getLinkLocked(deviceName);
+        }
+
+        switch (link.mState)
+        {
+            case STATE_IDLE:
+            case STATE_DISCONNECTING:
+                return true;
+
+            case STATE_BACKOFF:
+                mHandler.removeCallbacks(link.mReconnectTask);
+                setState(link, STATE_IDLE, REASON_REQUESTED);
+                return true;
+        }
+
+        mHandler.removeCallbacks(link.mTimeoutTask);
+        setState(link, STATE_DISCONNECTING, REASON_REQUESTED);
+        mHandler.postDelayed(link.mTimeoutTask, DISCONNECT_TIMEOUT_MS);
+        mService.getSession(deviceName).getLatencyStats().onDisconnectStarted();
+        return mManager.disconnect(deviceName, disableTxNotify);
+    }
+
+    public synchronized int getState(String deviceName)
+    {
+        Link link = mLinks.get(deviceName);
+        return link != null ? link.mState : STATE_IDLE;
+    }
+
+    public synchronized boolean isConnected(String deviceName)
+    {
+        return getState(deviceName) == STATE_READY;
+    }
+
+    //in no particular order
+    public synchronized List<String> getConnectedDevices()
+    {
+        ArrayList<String> names = new ArrayList<>();
+        for (Link link : mLinks.values())
+        {
+            if (link.mState == STATE_READY)
+            {
+                names.add(link.mName);
+            }
+        }
+        return names;
+    }
+
+    public synchronized int getConnectionCount()
+    {
+        return getConnectedDevices().size();
+    }
+
+    //see CommandScheduler.setWeight()
+    public void setWeight(String deviceName, int weight)
+    {
+        mScheduler.setWeight(mService.getSession(deviceName).getCommandClient(), weight);
+    }
+
+    public Throughput getThroughput(String deviceName)
+    {
+        CommandScheduler.Lane lane = mService.getSession(deviceName).getCommandClient().getLane();
+        synchronized (mScheduler)
+        {
+            return new Throughput(mScheduler.getCompleted(lane), mScheduler.getResponseBytes(lane),
+                                  mScheduler.getStatsElapsedMs());
+        }
+    }
+
+    //every device this manager has connected to since the last reset
+    public Throughput getAggregateThroughput()
+    {
+        long commands = 0;
+        long bytes = 0;
+        List<String> names;
+        synchronized (this)
+        {
+            names = new ArrayList<>(mLinks.keySet());
+        }
+
+        synchronized (mScheduler)
+        {
+            for (String name : names)
+            {
+                CommandScheduler.Lane lane = mService.getSession(name).getCommandClient().getLane();
+                commands += mScheduler.getCompleted(lane);
+                bytes += mScheduler.getResponseBytes(lane);
+            }
+            return new Throughput(commands, bytes, mScheduler.getStatsElapsedMs());
+        }
+    }
+
+    public void resetThroughput()
+    {
+        mScheduler.resetStats();
+    }
+
+    //the on* methods are called by the service on the main thread
+
+    void onConnected(String deviceName)
+    {
+        Link link = getLink(deviceName);
+        if (link.mState == STATE_DISCONNECTING)
+        {
+            return;//the disconnect completes it
+        }
+
+        mHandler.removeCallbacks(link.mTimeoutTask);
+        mHandler.removeCallbacks(link.mReconnectTask);
+        boolean reconnected = link.mRestore;
+        link.mAttempts = 0;
+        setState(link, STATE_READY, reconnected ? REASON_RECONNECTED : REASON_REQUESTED);
+
+        if (reconnected)
+        {
+            link.mRestore = false;
+            restore(link);
+        }
+    }
+
+    void onDisconnected(String deviceName)
+    {
+        Link link = getLink(deviceName);
+        switch (link.mState)
+        {
+            case STATE_DISCONNECTING:
+                mHandler.removeCallbacks(link.mTimeoutTask);
+                setState(link, STATE_IDLE, REASON_REQUESTED);
+                break;
+
+            case STATE_READY:
+                onLost(link, REASON_LINK_LOST);
+                break;
+
+            case STATE_CONNECTING:
+                onConnectFailed(link, REASON_CONNECT_FAILED);
+                break;
+        }
+    }
+
+    void onConnectFailed(String deviceName)
+    {
+        Link link = getLink(deviceName);
+        if (link.mState == STATE_CONNECTING)
+        {
+            onConnectFailed(link, REASON_CONNECT_FAILED);
+        }
+    }
+
+    void onDisconnectFailed(String deviceName)
+    {
+        Link link = getLink(deviceName);
+        if (link.mState == STATE_DISCONNECTING)
+        {
+            mHandler.removeCallbacks(link.mTimeoutTask);
+            setState(link, STATE_READY, REASON_DISCONNECT_FAILED);//still connected
+        }
+    }
+
+    //connection state changed without a request
+    void onDeviceError(String deviceName)
+    {
+        Link link = getLink(deviceName);
+        if (link.mState == STATE_READY)
+        {
+            mManager.disconnect(deviceName, !ZentriOSBLEService.DISABLE_TX_NOTIFY);//tidy up
+            onLost(link, REASON_DEVICE_ERROR);
+        }
+        else if (link.mState == STATE_DISCONNECTING)
+        {
+            mHandler.removeCallbacks(link.mTimeoutTask);
+            setState(link, STATE_IDLE, REASON_DEVICE_ERROR);
+        }
+    }
+
+    private boolean startConnect(Link link)
+    {
+        setState(link, STATE_CONNECTING, link.mAttempts > 0 ? REASON_LINK_LOST : REASON_REQUESTED);
+        mService.getSession(link.mName).getLatencyStats().onConnectStarted();
+        if (!mManager.connect(link.mName))
+        {
+            onConnectFailed(link, REASON_CONNECT_FAILED);
+            return false;
+        }
+
+        mHandler.postDelayed(link.mTimeoutTask, mConnectTimeoutMs);
+        return true;
+    }
+
+    private void onTimeout(Link link)
+    {
+        if (link.mState == STATE_CONNECTING)
+        {
+            if (mManager.isConnected(link.mName))
+            {
+                mManager.disconnect(link.mName, ZentriOSBLEService.DISABLE_TX_NOTIFY);
+            }
+            onConnectFailed(link, REASON_CONNECT_TIMEOUT);
+        }
+        else if (link.mState == STATE_DISCONNECTING)
+        {
+            setState(link, STATE_IDLE, REASON_DISCONNECT_TIMEOUT);
+        }
+    }
+
+    private void onConnectFailed(Link link, int reason)
+    {
+        mHandler.removeCallbacks(link.mTimeoutTask);
+        mService.getSession(link.mName).getLatencyStats().onConnectAbandoned();
+        if (link.mAttempts == 0)
+        {
+            //a requested connect, let whoever asked decide whether to try again
+            link.mRestore = false;
+            setState(link, STATE_IDLE, reason);
+        }
+        else
+        {
+            scheduleReconnect(link, reason);
+        }
+    }
+
+    private void onLost(Link link, int reason)
+    {
+        mHandler.removeCallbacks(link.mTimeoutTask);
+        if (!mAutoReconnect)
+        {
+            setState(link, STATE_IDLE, reason);
+            return;
+        }
+
+        int mode = mService.getSession(link.mName).getMode();
+        link.mRestoreMode = mode;
+        link.mRestore = true;
+        scheduleReconnect(link, reason);
+    }
+
+    private void scheduleReconnect(Link link, int reason)
+    {
+        if (link.mAttempts >= mMaxReconnectAttempts)
+        {
+            link.mAttempts = 0;
+            link.mRestore = false;
+            setState(link, STATE_IDLE, REASON_GAVE_UP);
+            return;
+        }
+
+        //half the backoff plus up to as much again at random, so devices dropped together don't
+        //all come back at once
+        long backoff = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(link.mAttempts, 16));
+        long delay = backoff / 2 + (long)(mRandom.nextDouble() * (backoff / 2));
+        link.mAttempts++;
+
+        if (BLETrace.LOGCAT)
+        {
+            Log.d(TAG, "Reconnecting to " + link.mName + " in " + delay + "ms, attempt "
+                    + link.mAttempts);
+        }
+        setState(link, STATE_BACKOFF, reason);
+        mHandler.postDelayed(link.mReconnectTask, delay);
+    }
+
+    //command mode for the setup commands, then back to the mode the link was lost in
+    private void restore(final Link link)
+    {
+        final String name = link.mName;
+        final int mode = link.mRestoreMode;
+        DeviceSession session = mService.getSession(name);
+
+        mManager.setMode(name, ZentriOSBLEManager.MODE_COMMAND_REMOTE);
+
+        //through the client like every other command, so timeouts are matched to the right one
+        CommandBatch batch = new CommandBatch();
+        batch.add(Command.systemCommandMode(CommandMode.MACHINE));
+        for (Command command : session.getSetupCommands())
+        {
+            batch.add(command);
+        }
+        session.getCommandClient().submit(batch).addCallback(new CommandFuture.Callback()
+        {
+            @Override
+            public void onComplete(CommandFuture future)
+            {
+                if (!future.isSuccess())
+                {
+                    Log.w(TAG, "Setup of " + name + " after reconnect failed");
+                }
+                restoreMode(link, mode);
+            }
+        });
+    }
+
+    private void restoreMode(Link link, int mode)
+    {
+        if (link.mState == STATE_READY && mode >= 0
+                && mode != ZentriOSBLEManager.MODE_COMMAND_REMOTE)
+        {
+            mManager.setMode(link.mName, mode);
+        }
+    }
+
+    private void setState(Link link, int state, int reason)
+    {
+        synchronized (this)
+        {
+            link.mState = state;
+        }
+
+        for (int i = mListeners.size() - 1; i >= 0; i--)
+        {
+            mListeners.get(i).onStateChanged(link.mName, state, reason);
+        }
+    }
+
+    private synchronized Link getLink(String deviceName)
+    {
+        return getLinkLocked(deviceName);
+    }
+
+    private Link getLinkLocked(String deviceName)
+    {
+        Link link = mLinks.get(deviceName);
+        if (link == null)
+        {
+            link = new Link(deviceName);
+            mLinks.put(deviceName, link);
+        }
+        return link;
+    }
+
+    //links holding or about to hold a connection
+    private int getActiveCountLocked()
+    {
+        int count = 0;
+        for (Link link : mLinks.values())
+        {
+            if (link.mState != STATE_IDLE)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * ListView adapter showing a {@link ConsoleBuffer} one row per line.
+ *
+ * Only the rows on screen have views, so appending re-binds the visible lines instead of laying
+ * out the whole scrollback as a single TextView does. Each recycled row keeps its own char array
+ * that lines are copied into, binding does not create Strings.
+ */
+public class ConsoleAdapter extends BaseAdapter
+{
+    private static final int MAX_LINE_CHARS = 512;//longer lines are cut off on screen
+
+    private final Context mContext;
+    private final ConsoleBuffer mBuffer;
+    private final int mTextColor;
+
+    public ConsoleAdapter(Context context, ConsoleBuffer buffer, int textColor)
+    {
+        mContext = context;
+        mBuffer = buffer;
+        mTextColor = textColor;
+    }
+
+    public ConsoleBuffer getBuffer()
+    {
+        return mBuffer;
+    }
+
+    //appends and refreshes the visible rows, call at most once per frame
+    public void append(CharSequence text)
+    {
+        mBuffer.append(text);
+        notifyDataSetChanged();
+    }
+
+    public void clear()
+    {
+        mBuffer.clear();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount()
+    {
+        return mBuffer.getLineCount();
+    }
+
+    @Override
+    public Object getItem(int position)
+    {
+        char[] line = new char[Math.min(mBuffer.getLineLength(position), MAX_LINE_CHARS)];
+        mBuffer.getLine(position, line);
+        return new String(line);
+    }
+
+    @Override
+    public long getItemId(int position)
+    {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent)
+    {
+        TextView row = (TextView)convertView;
+        if (row == null)
+        {
+            row = new TextView(mContext);
+            row.setTypeface(Typeface.MONOSPACE);
+            row.setTextSize(TypedValue.COMPLEX_UNIT_SP, 12);
+            row.setTextColor(mTextColor);
+            row.setTag(new char[MAX_LINE_CHARS]);
+        }
+
+        char[] chars = (char[])row.getTag();
+        int length = mBuffer.getLine(position, chars);
+        row.setText(chars, 0, length);
+        return row;
+    }
+}
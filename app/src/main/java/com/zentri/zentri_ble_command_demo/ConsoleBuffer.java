@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Fixed-capacity scrollback for received console text.
+ *
+ * Text is kept in a character ring with a second ring of line start offsets, both allocated once.
+ * When either the character or the line limit is reached the oldest lines are dropped, or written
+ * to a spill file first if one is set. A single line longer than the character capacity keeps only
+ * its newest characters. Line breaks are not stored. Not thread safe.
+ */
+public class ConsoleBuffer
+{
+    private static final String TAG = ConsoleBuffer.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CHARS = 64 * 1024;
+    public static final int DEFAULT_MAX_LINES = 2000;
+
+    private final char[] mChars;
+    private final long[] mLineStarts;//absolute char offsets, ring indexed by line number
+
+    private long mCharStart;//absolute offset of the oldest char kept
+    private long mCharEnd;//absolute offset one past the newest char
+    private long mFirstLine;//absolute number of the oldest line kept
+    private int mLineCount;
+    private boolean mLineOpen;//the last line has not been terminated yet
+
+    private Writer mSpill;
+    private long mDroppedLines;
+
+    public ConsoleBuffer(int maxChars, int maxLines)
+    {
+        mChars = new char[maxChars];
+        mLineStarts = new long[maxLines];
+    }
+
+    /**
+     * Older lines are appended to file as they are dropped, instead of being lost. Pass null to
+     * stop spilling.
+     */
+    public void setSpillFile(File file) throws IOException
+    {
+        closeSpill();
+        if (file != null)
+        {
+            mSpill = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                                                               "UTF-8"));
+        }
+    }
+
+    public void closeSpill()
+    {
+        if (mSpill != null)
+        {
+            try
+            {
+                mSpill.close();
+            }
+            catch (IOException e)
+            {
+                Log.e(TAG, "Failed to close spill file", e);
+            }
+            mSpill = null;
+        }
+    }
+
+    public void append(CharSequence text)
+    {
+        int length = text.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (c == '\n')
+            {
+                if (!mLineOpen)
+                {
+                    startLine();//empty line
+                }
+                mLineOpen = false;
+            }
+            else if (c != '\r')
+            {
+                if (!mLineOpen)
+                {
+                    startLine();
+                    mLineOpen = true;
+                }
+                putChar(c);
+            }
+        }
+    }
+
+    public void clear()
+    {
+        mCharStart = mCharEnd = 0;
+        mFirstLine = 0;
+        mLineCount = 0;
+        mLineOpen = false;
+    }
+
+    public int getLineCount()
+    {
+        return mLineCount;
+    }
+
+    //lines dropped or spilled since creation
+    public long getDroppedLines()
+    {
+        return mDroppedLines;
+    }
+
+    /**
+     * Copies line index (0 is the oldest kept) into out, truncated to out's length.
+     * @return number of chars copied
+     */
+    public int getLine(int index, char[] out)
+    {
+        long line = mFirstLine + index;
+        long start = Math.max(lineStart(line), mCharStart);
+        long end = index + 1 < mLineCount ? lineStart(line + 1) : mCharEnd;
+        int length = (int)Math.min(end - start, out.length);
+
+        int from = (int)(start % mChars.length);
+        int first = Math.min(length, mChars.length - from);
+        System.arraycopy(mChars, from, out, 0, first);
+        System.arraycopy(mChars, 0, out, first, length - first);
+        return length;
+    }
+
+    public int getLineLength(int index)
+    {
+        long line = mFirstLine + index;
+        long start = Math.max(lineStart(line), mCharStart);
+        long end = index + 1 < mLineCount ? lineStart(line + 1) : mCharEnd;
+        return (int)(end - start);
+    }
+
+    private void startLine()
+    {
+        if (mLineCount == mLineStarts.length)
+        {
+            dropOldestLine();
+        }
+        mLineStarts[(int)((mFirstLine + mLineCount) % mLineStarts.length)] = mCharEnd;
+        mLineCount++;
+    }
+
+    private void putChar(char c)
+    {
+        while (mCharEnd - mCharStart == mChars.length && mLineCount > 1)
+        {
+            dropOldestLine();
+        }
+        if (mCharEnd - mCharStart == mChars.length)
+        {
+            mCharStart++;//one huge line, keep its tail
+        }
+        mChars[(int)(mCharEnd % mChars.length)] = c;
+        mCharEnd++;
+    }
+
+    private void dropOldestLine()
+    {
+        long end = mLineCount > 1 ? lineStart(mFirstLine + 1) : mCharEnd;
+
+        if (mSpill != null)
+        {
+            try
+            {
+                for (long i = Math.max(lineStart(mFirstLine), mCharStart); i < end; i++)
+                {
+                    mSpill.write(mChars[(int)(i % mChars.length)]);
+                }
+                mSpill.write('\n');
+            }
+            catch (IOException e)
+            {
+                Log.e(TAG, "Failed to spill console line, spilling stopped", e);
+                closeSpill();
+            }
+        }
+
+        mCharStart = end;
+        mFirstLine++;
+        mLineCount--;
+        mDroppedLines++;
+        if (mLineCount == 0)
+        {
+            mLineOpen = false;
+        }
+    }
+
+    private long lineStart(long line)
+    {
+        return mLineStarts[(int)(line % mLineStarts.length)];
+    }
+}
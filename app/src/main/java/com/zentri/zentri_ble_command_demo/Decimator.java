@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+/**
+ * Reduces a live sample stream to what a chart can actually show.
+ *
+ * The visible time window is divided into one bucket per pixel column and each bucket keeps only
+ * the min and max sample that fell into it, so the chart needs at most two points per column
+ * however fast samples arrive, and spikes are never dropped. Appending is O(1) and allocation
+ * free, old buckets are reused as the window scrolls.
+ *
+ * For stored ranges that are plotted once, {@link #largestTriangleThreeBuckets} gives a closer
+ * visual match at the same point budget. Not thread safe.
+ */
+public class Decimator
+{
+    private final int mBuckets;
+    private final long mBucketWidth;
+
+    //ring of buckets, slot = bucket id % mBuckets
+    private final long[] mIds;
+    private final long[] mMinTimes, mMaxTimes;
+    private final int[] mMins, mMaxes;
+    private long mLatestId = Long.MIN_VALUE;
+    private long mAppended;
+
+    /**
+     * @param buckets usually the chart's width in pixels, output is at most twice this
+     * @param windowMs time span of the chart
+     */
+    public Decimator(int buckets, long windowMs)
+    {
+        mBuckets = buckets;
+        mBucketWidth = Math.max(1, windowMs / buckets);
+        mIds = new long[buckets];
+        mMinTimes = new long[buckets];
+        mMaxTimes = new long[buckets];
+        mMins = new int[buckets];
+        mMaxes = new int[buckets];
+        clear();
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < mBuckets; i++)
+        {
+            mIds[i] = Long.MIN_VALUE;
+        }
+        mLatestId = Long.MIN_VALUE;
+    }
+
+    public void append(long timestamp, int value)
+    {
+        long id = timestamp / mBucketWidth;
+        if (mLatestId != Long.MIN_VALUE && id <= mLatestId - mBuckets)
+        {
+            return;//already scrolled out of the window
+        }
+
+        int slot = (int)(id % mBuckets);
+        if (mIds[slot] != id)
+        {
+            mIds[slot] = id;
+            mMins[slot] = mMaxes[slot] = value;
+            mMinTimes[slot] = mMaxTimes[slot] = timestamp;
+        }
+        else if (value < mMins[slot])
+        {
+            mMins[slot] = value;
+            mMinTimes[slot] = timestamp;
+        }
+        else if (value > mMaxes[slot])
+        {
+            mMaxes[slot] = value;
+            mMaxTimes[slot] = timestamp;
+        }
+
+        if (id > mLatestId)
+        {
+            mLatestId = id;
+        }
+        mAppended++;
+    }
+
+    //a batch as delivered by SamplingScheduler.Listener
+    public void append(long[] timestamps, int[] values, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            append(timestamps[i], values[i]);
+        }
+    }
+
+    //samples appended since creation, compare with the output size for the reduction ratio
+    public long getAppendedCount()
+    {
+        return mAppended;
+    }
+
+    //size the output arrays must have
+    public int getMaxPoints()
+    {
+        return mBuckets * 2;
+    }
+
+    /**
+     * Writes the points for the current window, oldest first.
+     * @return number of points written
+     */
+    public int getPoints(long[] timestamps, int[] values)
+    {
+        if (mLatestId == Long.MIN_VALUE)
+        {
+            return 0;
+        }
+
+        int count = 0;
+        for (long id = mLatestId - mBuckets + 1; id <= mLatestId; id++)
+        {
+            int slot = (int)(id % mBuckets);
+            if (id < 0 || mIds[slot] != id)
+            {
+                continue;//no samples in this column
+            }
+
+            boolean minFirst = mMinTimes[slot] <= mMaxTimes[slot];
+            timestamps[count] = minFirst ? mMinTimes[slot] : mMaxTimes[slot];
+            values[count++] = minFirst ? mMins[slot] : mMaxes[slot];
+
+            if (mMinTimes[slot] != mMaxTimes[slot])
+            {
+                timestamps[count] = minFirst ? mMaxTimes[slot] : mMinTimes[slot];
+                values[count++] = minFirst ? mMaxes[slot] : mMins[slot];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Largest-triangle-three-buckets downsampling of count samples to at most threshold points.
+     * Keeps the first and last sample and from each bucket in between the one forming the largest
+     * triangle with the previous pick and the next bucket's average.
+     * @return number of points written to the output arrays
+     */
+    public static int largestTriangleThreeBuckets(long[] timestamps, int[] values, int count,
+                                                  int threshold, long[] outTimestamps,
+                                                  int[] outValues)
+    {
+        if (threshold >= count || threshold < 3)
+        {
+            int copied = Math.min(count, outTimestamps.length);
+            System.arraycopy(timestamps, 0, outTimestamps, 0, copied);
+            System.arraycopy(values, 0, outValues, 0, copied);
+            return copied;
+        }
+
+        double every = (double)(count - 2) / (threshold - 2);
+        int picked = 0;
+        int a = 0;
+
+        outTimestamps[picked] = timestamps[0];
+        outValues[picked++] = values[0];
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++)
+        {
+            //average of the next bucket
+            int nextStart = (int)((bucket + 1) * every) + 1;
+            int nextEnd = Math.min((int)((bucket + 2) * every) + 1, count);
+            double avgX = 0, avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++)
+            {
+                avgX += timestamps[i];
+                avgY += values[i];
+            }
+            int nextLength = Math.max(1, nextEnd - nextStart);
+            avgX /= nextLength;
+            avgY /= nextLength;
+
+            //point in this bucket with the largest triangle
+            int start = (int)(bucket * every) + 1;
+            int end = (int)((bucket + 1) * every) + 1;
+            double ax = timestamps[a], ay = values[a];
+            double maxArea = -1;
+            int next = start;
+
+            for (int i = start; i < end; i++)
+            {
+                double area = Math.abs((ax - avgX) * (values[i] - ay)
+                                       - (ax - timestamps[i]) * (avgY - ay));
+                if (area > maxArea)
+                {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+
+            outTimestamps[picked] = timestamps[next];
+            outValues[picked++] = values[next];
+            a = next;
+        }
+
+        outTimestamps[picked] = timestamps[count - 1];
+        outValues[picked++] = values[count - 1];
+        return picked;
+    }
+}
@@ -20,17 +20,13 @@ package com.zentri.zentri_ble_command_demo;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
@@ -41,29 +37,32 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ToggleButton;
 
 
 import com.zentri.zentri_ble_command.CommandMode;
-import com.zentri.zentri_ble_command.ErrorCode;
 import com.zentri.zentri_ble_command.GPIODirection;
 import com.zentri.zentri_ble_command.GPIOFunction;
 import com.zentri.zentri_ble_command.ZentriOSBLEManager;
-import com.zentri.zentri_ble_command.Result;
+
+import java.util.Arrays;
+import java.util.List;
 
 public class DeviceInfoActivity extends AppCompatActivity
 {
     public static final String TAG = "DeviceInfo";
 
-    private final long DISCONNECT_TIMEOUT_MS = 10000;
-
     private static final int ADC_GPIO = 12;//thermistor on wahoo
     private static final int TEST_GPIO = 9;//button2 on wahoo
     private static final int LED_GPIO = 14;
 
+    private static final float SAMPLE_RATE_HZ = 2;
+
     private TextView mADCTextView;
+    private SampleChartView mADCChart;
     private TextView mGPIOTextView;
     private Button mUpdateButton;
     private ToggleButton mLedButton;
@@ -75,28 +74,21 @@ public class DeviceInfoActivity extends AppCompatActivity
     private Button mSendTextButton;
     private EditText mTextToSendBox;
 
-    private TextView mReceivedDataTextBox;
+    private ListView mReceivedDataList;
+    private ConsoleAdapter mConsoleAdapter;
 
     private ServiceConnection mConnection;
     private ZentriOSBLEService mService;
     private boolean mBound = false;
 
-    private LocalBroadcastManager mLocalBroadcastManager;
-    private BroadcastReceiver mBroadcastReceiver;
-    private IntentFilter mReceiverIntentFilter;
+    private BLEEventBus.Listener mEventListener;
+    private ConnectionManager.Listener mConnectionListener;
 
     private ZentriOSBLEManager mZentriOSBLEManager;
 
     private Dialog mDisconnectDialog;
 
-    private boolean mADCUpdateInProgress = false;
-    private boolean mGPIOUpdateInProgress = false;
-    private int mADCUpdateID, mGPIOUpdateID;
-
-    private boolean mDisconnecting = false;
-
-    private Handler mHandler;
-    private Runnable mDisconnectTimeoutTask;
+    private CommandFuture mUpdate;//ADC and GPIO read in progress, null before the first update
 
     private String mDeviceName;
 
@@ -120,6 +112,7 @@ public class DeviceInfoActivity extends AppCompatActivity
         mDeviceName = intent.getStringExtra(MainActivity.INTENT_EXTRA_DEVICE_NAME);
 
         mADCTextView = (TextView)findViewById(R.id.adc_value);
+        mADCChart = (SampleChartView)findViewById(R.id.adc_chart);
         mGPIOTextView = (TextView)findViewById(R.id.gpio_value);
         mLedButton = (ToggleButton)findViewById(R.id.led_button);
 
@@ -179,33 +172,31 @@ public class DeviceInfoActivity extends AppCompatActivity
                 String data = mTextToSendBox.getText().toString();
                 if (data != null && !data.isEmpty())
                 {
-                    mZentriOSBLEManager.writeData(mDeviceName, data);
+                    //flow controlled against write completions, rejects rather than blocking
+                    if (!mService.getSession(mDeviceName).getWriteQueue().offer(data))
+                    {
+                        showToast("Send queue full, try again", Toast.LENGTH_SHORT);
+                        return;
+                    }
                 }
 
                 mTextToSendBox.setText("");//clear input after send
             }
         });
 
-        mReceivedDataTextBox = (TextView) findViewById(R.id.receivedDataBox);
+        //bounded scrollback, only the visible lines are laid out
+        mConsoleAdapter = new ConsoleAdapter(this,
+                new ConsoleBuffer(ConsoleBuffer.DEFAULT_MAX_CHARS, ConsoleBuffer.DEFAULT_MAX_LINES),
+                getResources().getColor(R.color.white));
+        mReceivedDataList = (ListView) findViewById(R.id.receivedDataBox);
+        mReceivedDataList.setAdapter(mConsoleAdapter);
+        mReceivedDataList.setEmptyView(findViewById(R.id.receivedDataHint));
 
-        initBroadcastManager();
-        initBroadcastReceiver();
+        initEventListener();
+        initConnectionListener();
         initServiceConnection();
-        initReceiverIntentFilter();
 
         GUISetCommandMode();//set up gui for command mode initially
-
-        mHandler = new Handler();
-
-        mDisconnectTimeoutTask = new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                dismissProgressDialog();
-                showErrorDialog(R.string.error, R.string.discon_timeout_message);
-            }
-        };
     }
 
     @Override
@@ -241,8 +232,6 @@ public class DeviceInfoActivity extends AppCompatActivity
     {
         super.onStart();
 
-        mLocalBroadcastManager.registerReceiver(mBroadcastReceiver, mReceiverIntentFilter);
-
         Intent serviceIntent = new Intent(getApplicationContext(), ZentriOSBLEService.class);
         bindService(serviceIntent, mConnection, Context.BIND_AUTO_CREATE);
     }
@@ -252,14 +241,20 @@ public class DeviceInfoActivity extends AppCompatActivity
     {
         super.onStop();
 
-        //quickly disconnect to make sure we are definitely disconnected
-        mZentriOSBLEManager.disconnect(mDeviceName, !ZentriOSBLEService.DISABLE_TX_NOTIFY);
-
-        mLocalBroadcastManager.unregisterReceiver(mBroadcastReceiver);
-
         if (mBound)
         {
+            //quickly disconnect to make sure we are definitely disconnected, without reconnecting
+            ConnectionManager connectionManager = mService.getConnectionManager();
+            connectionManager.removeListener(mConnectionListener);
+            connectionManager.disconnect(mDeviceName, !ZentriOSBLEService.DISABLE_TX_NOTIFY);
+
+            //the session outlives us, don't leave it holding on to this activity
+            SamplingScheduler sampler = mService.getSession(mDeviceName).getSamplingScheduler();
+            sampler.stop();
+            sampler.setListener(null);
+            mService.getSession(mDeviceName).getEventBus().removeListener(mEventListener);
             unbindService(mConnection);
+            mBound = false;
         }
     }
 
@@ -274,11 +269,20 @@ public class DeviceInfoActivity extends AppCompatActivity
                 mService = binder.getService();
                 mBound = true;
 
+                //only events for our device, other connected modules have their own sessions
+                mService.getSession(mDeviceName).getEventBus().addListener(mEventListener,
+                        BLEEvent.COMMAND_SENT,
+                        BLEEvent.STRING_DATA_BATCH,
+                        BLEEvent.MODE_WRITE);
+                mService.getConnectionManager().addListener(mConnectionListener);
+
                 mZentriOSBLEManager = mService.getManager();
                 mZentriOSBLEManager.setMode(mDeviceName, ZentriOSBLEManager.MODE_COMMAND_REMOTE);
-                mZentriOSBLEManager.setSystemCommandMode(mDeviceName, CommandMode.MACHINE);
+                mService.getSession(mDeviceName).getCommandClient()
+                        .submit(Command.systemCommandMode(CommandMode.MACHINE));
                 initGPIOs();
                 updateValues();
+                initSampling();
             }
 
             @Override
@@ -289,165 +293,247 @@ public class DeviceInfoActivity extends AppCompatActivity
         };
     }
 
-    private void initBroadcastReceiver()
+    private void initEventListener()
     {
-        mBroadcastReceiver = new BroadcastReceiver()
+        mEventListener = new BLEEventBus.Listener()
         {
             @Override
-            public void onReceive(Context context, Intent intent)
+            public void onEvent(BLEEvent event)
             {
-                // Get extra data included in the Intent
-                String action = intent.getAction();
-
-                switch (action)
+                //called on the session's dispatch thread, copy out what we need before going to the
+                //UI thread
+                switch (event.getType())
                 {
-                    case ZentriOSBLEService.ACTION_COMMAND_SENT:
-                        String command = ZentriOSBLEService.getCommand(intent).toString();
-                        Log.d(TAG, "Command " + command + " sent");
+                    case BLEEvent.COMMAND_SENT:
+                        if (BLETrace.LOGCAT)
+                        {
+                            Log.d(TAG, "Command " + event.getCommand() + " sent");
+                        }
                         break;
 
-                    case ZentriOSBLEService.ACTION_COMMAND_RESULT:
-                        handleCommandResponse(intent);
+                    case BLEEvent.MODE_WRITE:
+                        final int mode = event.getMode();
+                        runOnUiThread(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                //posted before onStop() removed the listener, too late now
+                                if (!mBound || isFinishing())
+                                {
+                                    return;
+                                }
+
+                                SamplingScheduler sampler =
+                                        mService.getSession(mDeviceName).getSamplingScheduler();
+                                if (mode == ZentriOSBLEManager.MODE_STREAM)
+                                {
+                                    //disable buttons while in stream mode (must be in rem command to work)
+                                    GUISetStreamMode();
+                                    sampler.stop();
+                                }
+                                else
+                                {
+                                    GUISetCommandMode();
+                                    sampler.start();
+                                }
+                            }
+                        });
                         break;
 
-                    case ZentriOSBLEService.ACTION_MODE_WRITE:
-                        int mode = ZentriOSBLEService.getMode(intent);
-                        if (mode == ZentriOSBLEManager.MODE_STREAM)
+                    case BLEEvent.STRING_DATA_BATCH:
+                        //batches are delivered on the UI thread, once per frame at most
+                        if (mCurrentMode == ZentriOSBLEManager.MODE_STREAM)
                         {
-                            //disable buttons while in stream mode (must be in rem command to work)
-                            GUISetStreamMode();
+                            updateReceivedTextBox(event.getText());
                         }
-                        else
+                        break;
+                }
+            }
+        };
+    }
+
+    private void initConnectionListener()
+    {
+        mConnectionListener = new ConnectionManager.Listener()
+        {
+            @Override
+            public void onStateChanged(String deviceName, int state, int reason)
+            {
+                if (!deviceName.equals(mDeviceName))
+                {
+                    return;
+                }
+
+                switch (state)
+                {
+                    case ConnectionManager.STATE_BACKOFF:
+                        //later attempts fail with a connect reason, only say so once
+                        if (reason == ConnectionManager.REASON_LINK_LOST
+                                || reason == ConnectionManager.REASON_DEVICE_ERROR)
                         {
-                            GUISetCommandMode();
+                            showToast("Connection lost, reconnecting...", Toast.LENGTH_SHORT);
                         }
                         break;
 
-                    case ZentriOSBLEService.ACTION_STRING_DATA_READ:
-                        if (mCurrentMode == ZentriOSBLEManager.MODE_STREAM)
+                    case ConnectionManager.STATE_READY:
+                        if (reason == ConnectionManager.REASON_RECONNECTED)
                         {
-                            String text = ZentriOSBLEService.getData(intent);
-                            updateReceivedTextBox(text);
+                            showToast("Reconnected", Toast.LENGTH_SHORT);
+                        }
+                        else if (reason == ConnectionManager.REASON_DISCONNECT_FAILED)
+                        {
+                            dismissProgressDialog();
+                            showDisconnectErrorDialog(R.string.error, R.string.discon_err_message);
                         }
                         break;
 
-                    case ZentriOSBLEService.ACTION_ERROR:
-                        ErrorCode errorCode = ZentriOSBLEService.getErrorCode(intent);
-                        //handle errors
-                        switch (errorCode)
+                    case ConnectionManager.STATE_IDLE:
+                        dismissProgressDialog();
+                        switch (reason)
                         {
-                            case DEVICE_ERROR:
-                                //connection state change without request
-                                if (mDisconnecting)
-                                {
-                                    mDisconnecting = false;
-                                    dismissProgressDialog();
-                                    showErrorDialog(R.string.error, R.string.device_error_message);
-                                }
+                            case ConnectionManager.REASON_REQUESTED:
+                                finish();
                                 break;
 
-                            case DISCONNECT_FAILED:
-                                mDisconnecting = false;
-                                dismissProgressDialog();
-                                showDisconnectErrorDialog(R.string.error, R.string.discon_err_message);
+                            case ConnectionManager.REASON_DEVICE_ERROR:
+                                //connection state change without request while disconnecting
+                                showErrorDialog(R.string.error, R.string.device_error_message);
                                 break;
 
-                        }
-                        break;
+                            case ConnectionManager.REASON_DISCONNECT_TIMEOUT:
+                                showErrorDialog(R.string.error, R.string.discon_timeout_message);
+                                break;
 
-                    case ZentriOSBLEService.ACTION_DISCONNECTED:
-                        mHandler.removeCallbacks(mDisconnectTimeoutTask);//cancel timeout
-                        dismissProgressDialog();
-                        finish();
+                            default:
+                                //gave up reconnecting
+                                showErrorDialog(R.string.error, R.string.con_lost_message);
+                                break;
+                        }
                         break;
                 }
             }
         };
     }
 
-    public void initBroadcastManager()
+    private void initGPIOs()
     {
-        mLocalBroadcastManager = LocalBroadcastManager.getInstance(DeviceInfoActivity.this);
-    }
+        List<Command> setup = Arrays.asList(
+                Command.gpioFunctionSet(ADC_GPIO, GPIOFunction.NONE),
+                Command.gpioFunctionSet(TEST_GPIO, GPIOFunction.NONE),
+                Command.gpioFunctionSet(LED_GPIO, GPIOFunction.NONE),
 
-    public void initReceiverIntentFilter()
-    {
-        mReceiverIntentFilter = new IntentFilter();
-        mReceiverIntentFilter.addAction(ZentriOSBLEService.ACTION_DISCONNECTED);
-        mReceiverIntentFilter.addAction(ZentriOSBLEService.ACTION_COMMAND_RESULT);
-        mReceiverIntentFilter.addAction(ZentriOSBLEService.ACTION_ERROR);
-        mReceiverIntentFilter.addAction(ZentriOSBLEService.ACTION_STRING_DATA_READ);
-        mReceiverIntentFilter.addAction(ZentriOSBLEService.ACTION_MODE_WRITE);
-    }
+                Command.gpioFunctionSet(TEST_GPIO, GPIOFunction.STDIO),
+                Command.gpioFunctionSet(LED_GPIO, GPIOFunction.STDIO),
 
-    private void initGPIOs()
-    {
-        mZentriOSBLEManager.GPIOFunctionSet(mDeviceName, ADC_GPIO, GPIOFunction.NONE);
-        mZentriOSBLEManager.GPIOFunctionSet(mDeviceName, TEST_GPIO, GPIOFunction.NONE);
-        mZentriOSBLEManager.GPIOFunctionSet(mDeviceName, LED_GPIO, GPIOFunction.NONE);
+                Command.gpioDirectionSet(TEST_GPIO, GPIODirection.INPUT),
+                Command.gpioDirectionSet(LED_GPIO, GPIODirection.OUTPUT_LOW));
 
-        mZentriOSBLEManager.GPIOFunctionSet(mDeviceName, TEST_GPIO, GPIOFunction.STDIO);
-        mZentriOSBLEManager.GPIOFunctionSet(mDeviceName, LED_GPIO, GPIOFunction.STDIO);
+        //the connection manager sends these again if the device drops and reconnects
+        mService.getSession(mDeviceName).setSetupCommands(setup);
 
-        mZentriOSBLEManager.GPIODirectionSet(mDeviceName, TEST_GPIO, GPIODirection.INPUT);
-        mZentriOSBLEManager.GPIODirectionSet(mDeviceName, LED_GPIO, GPIODirection.OUTPUT_LOW);
+        //sent back to back as one batch rather than one round trip per command
+        final CommandBatch batch = new CommandBatch();
+        for (Command command : setup)
+        {
+            batch.add(command);
+        }
+
+        mService.getSession(mDeviceName).getCommandClient().submit(batch)
+                .addCallback(new CommandFuture.Callback()
+                {
+                    @Override
+                    public void onComplete(CommandFuture future)
+                    {
+                        if (!future.isSuccess())
+                        {
+                            Log.d(TAG, "GPIO setup failed at command " + batch.getFailedIndex());
+                            showToast("ERROR - failed to set up GPIOs", Toast.LENGTH_SHORT);
+                        }
+                    }
+                });
     }
 
-    private void updateValues()
+    //keeps the ADC and GPIO values up to date while in command mode
+    private void initSampling()
     {
-        if (!mADCUpdateInProgress && !mGPIOUpdateInProgress)
+        SamplingScheduler sampler = mService.getSession(mDeviceName).getSamplingScheduler();
+        sampler.clearChannels();
+        final int adcChannel = sampler.addChannel(SamplingScheduler.TYPE_ADC, ADC_GPIO);
+        sampler.addChannel(SamplingScheduler.TYPE_GPIO, TEST_GPIO);
+        sampler.setRates(SAMPLE_RATE_HZ, SamplingScheduler.DEFAULT_MIN_HZ,
+                         SamplingScheduler.DEFAULT_MAX_HZ);
+        sampler.setSampleStore(mService.getSampleStore());//logged for later review
+        mADCChart.clear();
+
+        sampler.setListener(new SamplingScheduler.Listener()
         {
-            mADCUpdateInProgress = true;
-            mGPIOUpdateInProgress = true;
+            @Override
+            public void onSamples(int channel, long[] timestamps, int[] values, int count)
+            {
+                //latest value as text, the ADC history in the chart
+                if (channel == adcChannel)
+                {
+                    mADCTextView.setText(String.format("ADC: %d", values[count - 1]));
+                    mADCChart.append(timestamps, values, count);
+                }
+                else
+                {
+                    mGPIOTextView.setText(String.format("GPIO: %d", values[count - 1]));
+                }
+            }
+        });
 
-            Log.d(TAG, "Updating values");
-            mADCUpdateID = mZentriOSBLEManager.adc(mDeviceName, ADC_GPIO);
-            mGPIOUpdateID = mZentriOSBLEManager.GPIOGet(mDeviceName, TEST_GPIO);
-        }
-        else
-        {
-            showToast("Update in progress...", Toast.LENGTH_SHORT);
-        }
+        sampler.start();
     }
 
-    private void handleCommandResponse(Intent intent)
+    private void updateValues()
     {
-        String command = ZentriOSBLEService.getCommand(intent);
-        int code = ZentriOSBLEService.getResponseCode(intent);
-        int id = ZentriOSBLEService.getCommandID(intent);
-
-        String result = ZentriOSBLEService.getData(intent);
-        String message = "";
+        if (mUpdate == null || mUpdate.isDone())
+        {
+            Log.d(TAG, "Updating values");
+            CommandClient client = mService.getSession(mDeviceName).getCommandClient();
 
-        Log.d(TAG, "Command " + command + " result");
+            //both reads are pipelined, results arrive on the UI thread
+            CommandFuture adc = client.submit(Command.adc(ADC_GPIO))
+                    .addCallback(new CommandFuture.Callback()
+                    {
+                        @Override
+                        public void onComplete(CommandFuture future)
+                        {
+                            if (future.isSuccess())
+                            {
+                                mADCTextView.setText(String.format("ADC: %s", future.getData()));
+                            }
+                            else
+                            {
+                                showToast("ERROR - failed to update ADC", Toast.LENGTH_SHORT);
+                            }
+                        }
+                    });
 
-        if (id == mADCUpdateID)
-        {
-            mADCUpdateInProgress = false;
+            CommandFuture gpio = client.submit(Command.gpioGet(TEST_GPIO))
+                    .addCallback(new CommandFuture.Callback()
+                    {
+                        @Override
+                        public void onComplete(CommandFuture future)
+                        {
+                            if (future.isSuccess())
+                            {
+                                mGPIOTextView.setText(String.format("GPIO: %s", future.getData()));
+                            }
+                            else
+                            {
+                                showToast("ERROR - failed to update GPIO", Toast.LENGTH_SHORT);
+                            }
+                        }
+                    });
 
-            if (code == Result.SUCCESS)
-            {
-                message = String.format("ADC: %s", result);
-                mADCTextView.setText(message);
-            }
-            else
-            {
-                showToast("ERROR - failed to update ADC", Toast.LENGTH_SHORT);
-            }
+            mUpdate = client.allOf(adc, gpio);
         }
-        else if (id == mGPIOUpdateID)
+        else
         {
-            mGPIOUpdateInProgress = false;
-
-            if (code == Result.SUCCESS)
-            {
-                message = String.format("GPIO: %s", result);
-                mGPIOTextView.setText(message);
-            }
-            else
-            {
-                showToast("ERROR - failed to update GPIO", Toast.LENGTH_SHORT);
-            }
+            showToast("Update in progress...", Toast.LENGTH_SHORT);
         }
     }
 
@@ -471,20 +557,22 @@ public class DeviceInfoActivity extends AppCompatActivity
 
     private void disconnect()
     {
-        mDisconnecting = true;
         showDisconnectDialog();
-        mZentriOSBLEManager.disconnect(mDeviceName, ZentriOSBLEService.DISABLE_TX_NOTIFY);
-        mHandler.postDelayed(mDisconnectTimeoutTask, DISCONNECT_TIMEOUT_MS);
+        if (BLETrace.ENABLED)
+        {
+            BLETrace.record(BLETrace.EV_DISCONNECT, mService.getSession(mDeviceName).getHandle(), 0);
+        }
+        mService.getConnectionManager().disconnect(mDeviceName);//times out on its own
     }
 
-    private void updateReceivedTextBox(String newData)
+    private void updateReceivedTextBox(CharSequence newData)
     {
-        mReceivedDataTextBox.append(newData);
+        mConsoleAdapter.append(newData);
     }
 
     private void clearReceivedTextBox()
     {
-        mReceivedDataTextBox.setText("");
+        mConsoleAdapter.clear();
     }
 
     private void showDisconnectDialog()
@@ -570,7 +658,8 @@ public class DeviceInfoActivity extends AppCompatActivity
 
     private void writeLedState()
     {
-        mZentriOSBLEManager.GPIOSet(mDeviceName, LED_GPIO, mLedState);
+        mService.getSession(mDeviceName).getCommandClient()
+                .submit(Command.gpioSet(LED_GPIO, mLedState));
     }
 
     private void openAboutDialog()
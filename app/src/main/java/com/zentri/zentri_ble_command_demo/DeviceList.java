@@ -18,67 +18,185 @@
 
 package com.zentri.zentri_ble_command_demo;
 
-import android.widget.ArrayAdapter;
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
 import android.widget.ListView;
+import android.widget.TextView;
 
-public class DeviceList
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scan list adapter, one row per device address in the order devices were first seen.
+ *
+ * Rows change only through {@link #apply(ScanRegistry.ChangeSet)}, which applies a whole batch of
+ * inserts, updates and removes and then notifies the list once. Row ids are the packed addresses
+ * and stable, so the ListView keeps its scroll position and only re-binds the visible rows.
+ * Batches that change nothing on screen (e.g. RSSI only) don't notify at all.
+ */
+public class DeviceList extends BaseAdapter
 {
-    ArrayAdapter<String> mDeviceAdapter;
+    private static class Row
+    {
+        final long mKey;
+        String mName;
+        boolean mRemoved;
 
-    public DeviceList(ArrayAdapter<String> adapter, ListView view)
+        Row(long key, String name)
+        {
+            mKey = key;
+            mName = name;
+        }
+    }
+
+    private final LayoutInflater mInflater;
+    private final ArrayList<Row> mRows = new ArrayList<>();
+    private final LongObjectMap<Row> mRowsByKey = new LongObjectMap<>();
+
+    public DeviceList(Context context, ListView view)
     {
-        mDeviceAdapter = adapter;
-        view.setAdapter(mDeviceAdapter);
-        mDeviceAdapter.clear();
+        mInflater = LayoutInflater.from(context);
+        view.setAdapter(this);
     }
 
-    public void add(String name)
+    /**
+     * Applies the changes drained from the scan registry, main thread only.
+     * @return true if any row was inserted, changed or removed
+     */
+    public boolean apply(ScanRegistry.ChangeSet changes)
     {
-        String deviceName = findDeviceWithName(name);
+        boolean changed = false;
 
-        if (deviceName == null)//only add if not already in the list
+        //removes first, a device evicted and seen again in the same batch must end up listed
+        List<ScanRegistry.Entry> removed = changes.getRemoved();
+        if (!removed.isEmpty())
         {
-            if (name != null)
-            {
-                mDeviceAdapter.add(name);
-            }
+            changed |= removeAll(removed);
         }
+
+        for (ScanRegistry.Entry entry : changes.getAdded())
+        {
+            changed |= put(entry.getKey(), entry.getName());
+        }
+        for (ScanRegistry.Entry entry : changes.getUpdated())
+        {
+            changed |= put(entry.getKey(), entry.getName());
+        }
+
+        if (changed)
+        {
+            notifyDataSetChanged();
+        }
+        return changed;
     }
 
+    //name of the device in row position, connections are made by name
     public String get(int position)
     {
-        return mDeviceAdapter.getItem(position);
+        return mRows.get(position).mName;
+    }
+
+    public void clear()
+    {
+        mRows.clear();
+        mRowsByKey.clear();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount()
+    {
+        return mRows.size();
     }
 
-    public void remove(String name)
+    @Override
+    public Object getItem(int position)
     {
-        String toRemove = findDeviceWithName(name);
+        return get(position);
+    }
 
-        if (toRemove != null)
+    @Override
+    public long getItemId(int position)
+    {
+        return mRows.get(position).mKey;
+    }
+
+    @Override
+    public boolean hasStableIds()
+    {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent)
+    {
+        View row = convertView;
+        if (row == null)
         {
-            mDeviceAdapter.remove(toRemove);
+            row = mInflater.inflate(R.layout.listitem, parent, false);
+            row.setTag(row.findViewById(R.id.textView));
         }
+
+        ((TextView)row.getTag()).setText(get(position));
+        return row;
     }
 
-    public void clear()
+    //inserts or renames a row, returns true if anything visible changed
+    private boolean put(long key, String name)
     {
-        mDeviceAdapter.clear();
+        if (name == null)
+        {
+            return false;//unnamed devices are filtered out before they get here
+        }
+
+        Row row = mRowsByKey.get(key);
+        if (row == null)
+        {
+            row = new Row(key, name);
+            mRowsByKey.put(key, row);
+            mRows.add(row);
+            return true;
+        }
+        if (!name.equals(row.mName))
+        {
+            row.mName = name;
+            return true;
+        }
+        return false;
     }
 
-    public String findDeviceWithName(String name)
+    //marks then compacts in one pass, rather than shifting the rows once per removal
+    private boolean removeAll(List<ScanRegistry.Entry> entries)
     {
-        String deviceName = null;
-        int count = mDeviceAdapter.getCount();
-        for (int i=0; i<count; i++)
+        int marked = 0;
+        for (ScanRegistry.Entry entry : entries)
+        {
+            Row row = mRowsByKey.remove(entry.getKey());
+            if (row != null)
+            {
+                row.mRemoved = true;
+                marked++;
+            }
+        }
+
+        if (marked == 0)
         {
-            String nextName = mDeviceAdapter.getItem(i);
+            return false;
+        }
 
-            if (nextName.equals(name))
+        int kept = 0;
+        for (int i = 0; i < mRows.size(); i++)
+        {
+            Row row = mRows.get(i);
+            if (!row.mRemoved)
             {
-                deviceName = nextName;
-                break;
+                mRows.set(kept++, row);
             }
         }
-        return deviceName;
+        mRows.subList(kept, mRows.size()).clear();
+        return true;
     }
 }
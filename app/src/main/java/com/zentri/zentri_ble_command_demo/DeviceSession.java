@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.os.Handler;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.zentri.zentri_ble.BLEHandlerAPI;
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State for one device known to {@link ZentriOSBLEService}.
+ *
+ * Every event for the device is published to the service's global bus and then to the session's
+ * own bus, so screens that drive a single module can subscribe here and never see events from
+ * other connected modules. The session bus has its own event objects and delivers BLE callback
+ * events on a dispatch thread per device, so a slow listener only holds up its own device. If it
+ * falls {@link #QUEUE_DEPTH} events behind on stream data, further data events of that type are
+ * dropped, counted and traced. Other events are never dropped, their queue grows instead, since
+ * screens need them to keep their state right. Batch events are already coalesced per device and
+ * are delivered directly on the main thread. Received stream data is queued per device in the
+ * session's {@link ReceiveCoalescer} and outgoing stream data in its {@link WriteQueue}. Commands
+ * sent through its {@link CommandClient} are answered with futures, variable reads can go through
+ * its {@link VariableCache}. Its setup commands are sent again by the {@link ConnectionManager}
+ * each time the device reconnects on its own.
+ */
+public class DeviceSession
+{
+    //events of one type waiting for the session bus's dispatch thread, before data is dropped
+    public static final int QUEUE_DEPTH = 32;
+
+    private static final String TAG = DeviceSession.class.getSimpleName();
+
+    private static final AtomicInteger sNextHandle = new AtomicInteger(1);
+
+    private final String mName;
+    private final int mHandle;
+    private final BLEEventBus mGlobalBus;
+    private final BLEEventBus mEventBus = new BLEEventBus();
+    private final ReceiveCoalescer mReceiveCoalescer;
+    private final WriteQueue mWriteQueue;
+    private final CommandClient mCommandClient;
+    private final VariableCache mVariableCache;
+    private final SamplingScheduler mSamplingScheduler;
+    private final LatencyStats mLatencyStats = new LatencyStats();
+
+    private volatile boolean mConnected = false;
+    private volatile int mMode = -1;
+    private volatile List<Command> mSetupCommands = Collections.emptyList();
+
+    //session bus delivery, each type has a ring of event copies, QUEUE_DEPTH to start with and
+    //grown for types that can't be dropped. All guarded by mQueued
+    private final BLEEvent[][] mQueued = new BLEEvent[BLEEvent.TYPE_COUNT][];
+    private final int[] mQueuedNext = new int[BLEEvent.TYPE_COUNT];
+    private final int[] mQueuedCounts = new int[BLEEvent.TYPE_COUNT];
+    private final ArrayDeque<BLEEvent> mDispatchQueue =
+            new ArrayDeque<>(BLEEvent.TYPE_COUNT * QUEUE_DEPTH);
+    private Thread mDispatchThread;
+    private boolean mClosed;
+    private long mDroppedEvents;
+    private int mUnloggedDrops;//logged by the dispatch thread once it catches up
+
+    DeviceSession(String name, BLEEventBus globalBus, ZentriOSBLEManager manager,
+                  BLEHandlerAPI transport, BufferPool bufferPool, Handler mainHandler,
+                  Choreographer choreographer, CommandScheduler commandScheduler)
+    {
+        mName = name;
+        mHandle = sNextHandle.getAndIncrement();
+        mGlobalBus = globalBus;
+        mReceiveCoalescer = new ReceiveCoalescer(this, mainHandler, choreographer, bufferPool);
+        mWriteQueue = new WriteQueue(name, mHandle, manager, transport, mainHandler);
+        mCommandClient = new CommandClient(name, manager, mainHandler, commandScheduler);
+        mVariableCache = new VariableCache(mCommandClient);
+        mSamplingScheduler = new SamplingScheduler(name, mCommandClient, mainHandler);
+    }
+
+    public String getName()
+    {
+        return mName;
+    }
+
+    //small integer id for this session, stable for the lifetime of the service
+    public int getHandle()
+    {
+        return mHandle;
+    }
+
+    //events for this device only, on the session's dispatch thread, batches on the main thread
+    public BLEEventBus getEventBus()
+    {
+        return mEventBus;
+    }
+
+    public boolean isConnected()
+    {
+        return mConnected;
+    }
+
+    void setConnected(boolean connected)
+    {
+        mConnected = connected;
+    }
+
+    //last mode written or read, -1 if not known yet
+    public int getMode()
+    {
+        return mMode;
+    }
+
+    void setMode(int mode)
+    {
+        mMode = mode;
+    }
+
+    /**
+     * Commands that put the module back the way a screen set it up, e.g. GPIO functions. They are
+     * sent as one batch after an automatic reconnect, in command mode.
+     */
+    public void setSetupCommands(List<Command> commands)
+    {
+        mSetupCommands = Collections.unmodifiableList(new ArrayList<>(commands));
+    }
+
+    public List<Command> getSetupCommands()
+    {
+        return mSetupCommands;
+    }
+
+    //flow controlled stream-mode writes, use instead of ZentriOSBLEManager.writeData()
+    public WriteQueue getWriteQueue()
+    {
+        return mWriteQueue;
+    }
+
+    //commands for this device, results are delivered as futures
+    public CommandClient getCommandClient()
+    {
+        return mCommandClient;
+    }
+
+    //cached get*/set* variable access, use instead of the manager's get* methods
+    public VariableCache getVariableCache()
+    {
+        return mVariableCache;
+    }
+
+    //periodic ADC/GPIO polling, main thread only
+    public SamplingScheduler getSamplingScheduler()
+    {
+        return mSamplingScheduler;
+    }
+
+    //connect, disconnect and command round trip times
+    public LatencyStats getLatencyStats()
+    {
+        return mLatencyStats;
+    }
+
+    ReceiveCoalescer getReceiveCoalescer()
+    {
+        return mReceiveCoalescer;
+    }
+
+    boolean hasListeners(int type)
+    {
+        return mGlobalBus.hasListeners(type) || mEventBus.hasListeners(type);
+    }
+
+    //events are owned by the global bus, see BLEEventBus.obtain() for the locking rules
+    BLEEvent obtain(int type)
+    {
+        return mGlobalBus.obtain(type);
+    }
+
+    //session bus data events dropped because a listener fell behind, also logged and traced
+    public long getDroppedEvents()
+    {
+        synchronized (mQueued)
+        {
+            return mDroppedEvents;
+        }
+    }
+
+    void publish(BLEEvent event)
+    {
+        if (BLETrace.ENABLED)
+        {
+            BLETrace.record(event.getType(), mHandle, event.getTraceLength());
+        }
+
+        mGlobalBus.publish(event);
+
+        int type = event.getType();
+        if (!mEventBus.hasListeners(type))
+        {
+            return;
+        }
+        if (type == BLEEvent.STRING_DATA_BATCH || type == BLEEvent.BINARY_DATA_BATCH)
+        {
+            mEventBus.publish(event);//main thread, and the text and buffer are reused after this
+        }
+        else
+        {
+            enqueue(event);
+        }
+    }
+
+    //stops the dispatch thread, queued events are dropped
+    void close()
+    {
+        Thread thread;
+        synchronized (mQueued)
+        {
+            mClosed = true;
+            thread = mDispatchThread;
+            mDispatchThread = null;
+        }
+
+        if (thread != null)
+        {
+            thread.interrupt();
+        }
+    }
+
+    private void enqueue(BLEEvent event)
+    {
+        int type = event.getType();
+        synchronized (mQueued)
+        {
+            if (mClosed)
+            {
+                return;
+            }
+
+            BLEEvent[] ring = mQueued[type];
+            if (ring == null)
+            {
+                ring = grow(type, QUEUE_DEPTH);
+            }
+            else if (mQueuedCounts[type] == ring.length)
+            {
+                if (isDroppable(type))
+                {
+                    mDroppedEvents++;
+                    mUnloggedDrops++;
+                    if (BLETrace.ENABLED)
+                    {
+                        BLETrace.record(BLETrace.EV_EVENT_DROPPED, mHandle, type);
+                    }
+                    return;
+                }
+                ring = grow(type, ring.length * 2);
+            }
+            if (mDispatchThread == null)
+            {
+                startDispatchThreadLocked();
+            }
+
+            //the oldest copy of this type, already delivered since not every copy is waiting
+            BLEEvent copy = ring[mQueuedNext[type]];
+            mQueuedNext[type] = (mQueuedNext[type] + 1) % ring.length;
+            mQueuedCounts[type]++;
+            copy.copyFrom(event);
+            mDispatchQueue.add(copy);
+            mQueued.notify();
+        }
+    }
+
+    //stream data comes fast and the next batch supersedes it, anything else has to arrive
+    private static boolean isDroppable(int type)
+    {
+        switch (type)
+        {
+            case BLEEvent.STRING_DATA_READ:
+            case BLEEvent.BINARY_DATA_READ:
+            case BLEEvent.STRING_DATA_WRITE:
+            case BLEEvent.BINARY_DATA_WRITE:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    //new ring for the type with the waiting copies first in order, they stay in mDispatchQueue
+    private BLEEvent[] grow(int type, int size)
+    {
+        BLEEvent[] old = mQueued[type];
+        BLEEvent[] ring = new BLEEvent[size];
+        int kept = 0;
+        if (old != null)
+        {
+            for (; kept < old.length; kept++)
+            {
+                ring[kept] = old[(mQueuedNext[type] + kept) % old.length];
+            }
+        }
+        for (int i = kept; i < size; i++)
+        {
+            ring[i] = new BLEEvent(type);
+        }
+
+        mQueued[type] = ring;
+        mQueuedNext[type] = kept;
+        return ring;
+    }
+
+    private void startDispatchThreadLocked()
+    {
+        mDispatchThread = new Thread("DeviceSession " + mName)
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    while (true)
+                    {
+                        BLEEvent event;
+                        synchronized (mQueued)
+                        {
+                            while (mDispatchQueue.isEmpty())
+                            {
+                                mQueued.wait();
+                            }
+                            event = mDispatchQueue.poll();
+                        }
+
+                        mEventBus.publish(event);
+
+                        int dropped;
+                        synchronized (mQueued)
+                        {
+                            mQueuedCounts[event.getType()]--;
+                            dropped = mUnloggedDrops;
+                            mUnloggedDrops = 0;
+                        }
+                        if (dropped > 0)
+                        {
+                            Log.w(TAG, mName + ": listeners fell behind, dropped " + dropped
+                                    + " data events");
+                        }
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    //closed
+                }
+            }
+        };
+        mDispatchThread.setDaemon(true);
+        mDispatchThread.start();
+    }
+}
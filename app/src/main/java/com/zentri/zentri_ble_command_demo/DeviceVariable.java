@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import com.zentri.zentri_ble_command.BLEBeaconFormat;
+import com.zentri.zentri_ble_command.BaudRate;
+import com.zentri.zentri_ble_command.BusInitMode;
+import com.zentri.zentri_ble_command.PrintLevel;
+import com.zentri.zentri_ble_command.SerialControl;
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+/**
+ * The module variables readable through the ZentriOSBLEManager get* commands.
+ *
+ * Each variable knows how to read itself and, where the manager has a matching set* command, how
+ * to write a value given as the string the module reports for it. The cache policy sets how long
+ * a read value may be served from a {@link VariableCache}.
+ */
+public enum DeviceVariable
+{
+    VERSION(CachePolicy.NO_EXPIRY),
+    BLUETOOTH_ADDRESS(CachePolicy.NO_EXPIRY),
+    SYSTEM_UUID(CachePolicy.NO_EXPIRY),
+    BLUETOOTH_CONNECTION_COUNT(CachePolicy.STATUS),
+    BLUETOOTH_ENCRYPTION_ENABLE(CachePolicy.CONFIG),
+    BLUETOOTH_ENCRYPTION_KEY(CachePolicy.CONFIG),
+    BLUETOOTH_SERVICE_UUID(CachePolicy.CONFIG),
+    BLUETOOTH_TX_POWER_ADV(CachePolicy.CONFIG),
+    BLUETOOTH_TX_POWER_CON(CachePolicy.CONFIG),
+    BLUETOOTH_ADV_MODE(CachePolicy.STATUS),
+    BLUETOOTH_ADV_BEACON_DATA(CachePolicy.CONFIG),
+    BLUETOOTH_ADV_BEACON_FORMAT(CachePolicy.CONFIG),
+    BLUETOOTH_ADV_BEACON_GPIO_MASK(CachePolicy.CONFIG),
+    BLUETOOTH_ADV_IBEACON_CONTENT(CachePolicy.CONFIG),
+    BLUETOOTH_ADV_HIGH_DUR(CachePolicy.CONFIG),
+    BLUETOOTH_ADV_HIGH_INT(CachePolicy.CONFIG),
+    BLUETOOTH_ADV_LOW_DUR(CachePolicy.CONFIG),
+    BLUETOOTH_ADV_LOW_INT(CachePolicy.CONFIG),
+    BUS_INIT_MODE(CachePolicy.CONFIG),
+    BUS_SERIAL_CONTROL(CachePolicy.CONFIG),
+    CENTRAL_AUTO_CONNECT_DEVICE(CachePolicy.CONFIG),
+    CENTRAL_CON_COUNT(CachePolicy.STATUS),
+    CENTRAL_CON_MODE(CachePolicy.STATUS),
+    CENTRAL_SCAN_HIGH_DUR(CachePolicy.CONFIG),
+    CENTRAL_SCAN_HIGH_INT(CachePolicy.CONFIG),
+    CENTRAL_SCAN_LOW_DUR(CachePolicy.CONFIG),
+    CENTRAL_SCAN_LOW_INT(CachePolicy.CONFIG),
+    CENTRAL_SCAN_MODE(CachePolicy.STATUS),
+    SYSTEM_ACTIVITY_TIMEOUT(CachePolicy.CONFIG),
+    SYSTEM_BOARD_NAME(CachePolicy.CONFIG),
+    SYSTEM_COMMAND_ECHO(CachePolicy.CONFIG),
+    SYSTEM_COMMAND_HEADER(CachePolicy.CONFIG),
+    SYSTEM_COMMAND_PROMPT(CachePolicy.CONFIG),
+    SYSTEM_DEVICE_NAME(CachePolicy.CONFIG),
+    SYSTEM_INDICATOR_STATUS(CachePolicy.STATUS),
+    SYSTEM_OTA_ENABLE(CachePolicy.CONFIG),
+    SYSTEM_PRINT_LEVEL(CachePolicy.CONFIG),
+    SYSTEM_REMOTE_ENABLE(CachePolicy.CONFIG),
+    SYSTEM_GO_TO_SLEEP_TIMEOUT(CachePolicy.CONFIG),
+    SYSTEM_WAKE_UP_TIMEOUT(CachePolicy.CONFIG),
+    UART_BAUD_RATE(CachePolicy.CONFIG),
+    UART_FLOW_CONTROL(CachePolicy.CONFIG),
+    USER_VARIABLE(CachePolicy.CONFIG);
+
+    public enum CachePolicy
+    {
+        //fixed for the lifetime of a connection
+        NO_EXPIRY(Long.MAX_VALUE),
+        //configuration, only changes when written, which the cache sees
+        CONFIG(60000),
+        //runtime state the module changes by itself
+        STATUS(1000);
+
+        private final long mMaxAgeMs;
+
+        CachePolicy(long maxAgeMs)
+        {
+            mMaxAgeMs = maxAgeMs;
+        }
+
+        public long getMaxAgeMs()
+        {
+            return mMaxAgeMs;
+        }
+    }
+
+    private final CachePolicy mCachePolicy;
+
+    DeviceVariable(CachePolicy cachePolicy)
+    {
+        mCachePolicy = cachePolicy;
+    }
+
+    public CachePolicy getCachePolicy()
+    {
+        return mCachePolicy;
+    }
+
+    public boolean isWritable()
+    {
+        switch (this)
+        {
+            case BLUETOOTH_ENCRYPTION_ENABLE:
+            case BLUETOOTH_ENCRYPTION_KEY:
+            case BLUETOOTH_SERVICE_UUID:
+            case BLUETOOTH_TX_POWER_ADV:
+            case BLUETOOTH_TX_POWER_CON:
+            case BLUETOOTH_ADV_BEACON_DATA:
+            case BLUETOOTH_ADV_BEACON_FORMAT:
+            case BLUETOOTH_ADV_BEACON_GPIO_MASK:
+            case BLUETOOTH_ADV_HIGH_DUR:
+            case BLUETOOTH_ADV_HIGH_INT:
+            case BLUETOOTH_ADV_LOW_DUR:
+            case BLUETOOTH_ADV_LOW_INT:
+            case BUS_INIT_MODE:
+            case BUS_SERIAL_CONTROL:
+            case CENTRAL_AUTO_CONNECT_DEVICE:
+            case CENTRAL_SCAN_HIGH_DUR:
+            case CENTRAL_SCAN_HIGH_INT:
+            case CENTRAL_SCAN_LOW_DUR:
+            case CENTRAL_SCAN_LOW_INT:
+            case SYSTEM_ACTIVITY_TIMEOUT:
+            case SYSTEM_BOARD_NAME:
+            case SYSTEM_COMMAND_ECHO:
+            case SYSTEM_COMMAND_HEADER:
+            case SYSTEM_COMMAND_PROMPT:
+            case SYSTEM_DEVICE_NAME:
+            case SYSTEM_OTA_ENABLE:
+            case SYSTEM_PRINT_LEVEL:
+            case SYSTEM_REMOTE_ENABLE:
+            case SYSTEM_GO_TO_SLEEP_TIMEOUT:
+            case SYSTEM_WAKE_UP_TIMEOUT:
+            case UART_BAUD_RATE:
+            case UART_FLOW_CONTROL:
+            case USER_VARIABLE:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    public Command readCommand()
+    {
+        return new Command("get " + name().toLowerCase())
+        {
+            @Override
+            protected int send(ZentriOSBLEManager manager, String deviceName)
+            {
+                return read(manager, deviceName);
+            }
+        };
+    }
+
+    /**
+     * @param value in the form the module reports it, e.g. "115200" for UART_BAUD_RATE or "1" for
+     *              flags
+     * @throws IllegalArgumentException if the variable is not writable or the value can't be parsed
+     */
+    public Command writeCommand(final String value)
+    {
+        if (!isWritable())
+        {
+            throw new IllegalArgumentException(name() + " is read only");
+        }
+
+        //parsed here rather than when sent, which may be on the BLE callback thread
+        final Object parsed = parse(value);
+        return new Command("set " + name().toLowerCase() + " " + value)
+        {
+            @Override
+            protected int send(ZentriOSBLEManager manager, String deviceName)
+            {
+                return write(manager, deviceName, parsed);
+            }
+        };
+    }
+
+    int read(ZentriOSBLEManager manager, String deviceName)
+    {
+        switch (this)
+        {
+            case VERSION:
+                return manager.getVersion(deviceName);
+            case BLUETOOTH_ADDRESS:
+                return manager.getBluetoothAddress(deviceName);
+            case SYSTEM_UUID:
+                return manager.getSystemUUID(deviceName);
+            case BLUETOOTH_CONNECTION_COUNT:
+                return manager.getBluetoothConnectionCount(deviceName);
+            case BLUETOOTH_ENCRYPTION_ENABLE:
+                return manager.getBluetoothEncryptionEnable(deviceName);
+            case BLUETOOTH_ENCRYPTION_KEY:
+                return manager.getBluetoothEncryptionKey(deviceName);
+            case BLUETOOTH_SERVICE_UUID:
+                return manager.getBluetoothServiceUUID(deviceName);
+            case BLUETOOTH_TX_POWER_ADV:
+                return manager.getBluetoothTxPowerAdv(deviceName);
+            case BLUETOOTH_TX_POWER_CON:
+                return manager.getBluetoothTxPowerCon(deviceName);
+            case BLUETOOTH_ADV_MODE:
+                return manager.getBluetoothAdvMode(deviceName);
+            case BLUETOOTH_ADV_BEACON_DATA:
+                return manager.getBluetoothAdvBeaconData(deviceName);
+            case BLUETOOTH_ADV_BEACON_FORMAT:
+                return manager.getBluetoothAdvBeaconFormat(deviceName);
+            case BLUETOOTH_ADV_BEACON_GPIO_MASK:
+                return manager.getBluetoothAdvBeaconGpioMask(deviceName);
+            case BLUETOOTH_ADV_IBEACON_CONTENT:
+                return manager.getBluetoothAdvIbeaconContent(deviceName);
+            case BLUETOOTH_ADV_HIGH_DUR:
+                return manager.getBluetoothAdvHighDur(deviceName);
+            case BLUETOOTH_ADV_HIGH_INT:
+                return manager.getBluetoothAdvHighInt(deviceName);
+            case BLUETOOTH_ADV_LOW_DUR:
+                return manager.getBluetoothAdvLowDur(deviceName);
+            case BLUETOOTH_ADV_LOW_INT:
+                return manager.getBluetoothAdvLowInt(deviceName);
+            case BUS_INIT_MODE:
+                return manager.getBusInitMode(deviceName);
+            case BUS_SERIAL_CONTROL:
+                return manager.getBusSerialControl(deviceName);
+            case CENTRAL_AUTO_CONNECT_DEVICE:
+                return manager.getCentralAutoConnectDevice(deviceName);
+            case CENTRAL_CON_COUNT:
+                return manager.getCentralConCount(deviceName);
+            case CENTRAL_CON_MODE:
+                return manager.getCentralConMode(deviceName);
+            case CENTRAL_SCAN_HIGH_DUR:
+                return manager.getCentralScanHighDur(deviceName);
+            case CENTRAL_SCAN_HIGH_INT:
+                return manager.getCentralScanHighInt(deviceName);
+            case CENTRAL_SCAN_LOW_DUR:
+                return manager.getCentralScanLowDur(deviceName);
+            case CENTRAL_SCAN_LOW_INT:
+                return manager.getCentralScanLowInt(deviceName);
+            case CENTRAL_SCAN_MODE:
+                return manager.getCentralScanMode(deviceName);
+            case SYSTEM_ACTIVITY_TIMEOUT:
+                return manager.getSystemActivityTimeout(deviceName);
+            case SYSTEM_BOARD_NAME:
+                return manager.getSystemBoardName(deviceName);
+            case SYSTEM_COMMAND_ECHO:
+                return manager.getSystemCommandEcho(deviceName);
+            case SYSTEM_COMMAND_HEADER:
+                return manager.getSystemCommandHeader(deviceName);
+            case SYSTEM_COMMAND_PROMPT:
+                return manager.getSystemCommandPrompt(deviceName);
+            case SYSTEM_DEVICE_NAME:
+                return manager.getSystemDeviceName(deviceName);
+            case SYSTEM_INDICATOR_STATUS:
+                return manager.getSystemIndicatorStatus(deviceName);
+            case SYSTEM_OTA_ENABLE:
+                return manager.getSystemOTAEnable(deviceName);
+            case SYSTEM_PRINT_LEVEL:
+                return manager.getSystemPrintLevel(deviceName);
+            case SYSTEM_REMOTE_ENABLE:
+                return manager.getSystemRemoteEnable(deviceName);
+            case SYSTEM_GO_TO_SLEEP_TIMEOUT:
+                return manager.getSystemGoToSleepTimeout(deviceName);
+            case SYSTEM_WAKE_UP_TIMEOUT:
+                return manager.getSystemWakeUpTimeout(deviceName);
+            case UART_BAUD_RATE:
+                return manager.getUARTBaudRate(deviceName);
+            case UART_FLOW_CONTROL:
+                return manager.getUARTFlowControl(deviceName);
+            case USER_VARIABLE:
+                return manager.getUserVariable(deviceName);
+
+            default:
+                return ZentriOSBLEManager.ID_INVALID;
+        }
+    }
+
+    //the value in the type write() passes to the manager
+    Object parse(String value)
+    {
+        switch (this)
+        {
+            case BLUETOOTH_ENCRYPTION_ENABLE:
+            case SYSTEM_COMMAND_ECHO:
+            case SYSTEM_COMMAND_HEADER:
+            case SYSTEM_COMMAND_PROMPT:
+            case SYSTEM_OTA_ENABLE:
+            case SYSTEM_REMOTE_ENABLE:
+            case UART_FLOW_CONTROL:
+                return parseBoolean(value);
+
+            case BLUETOOTH_TX_POWER_ADV:
+            case BLUETOOTH_TX_POWER_CON:
+            case BLUETOOTH_ADV_HIGH_DUR:
+            case BLUETOOTH_ADV_HIGH_INT:
+            case BLUETOOTH_ADV_LOW_DUR:
+            case BLUETOOTH_ADV_LOW_INT:
+            case CENTRAL_SCAN_HIGH_DUR:
+            case CENTRAL_SCAN_HIGH_INT:
+            case CENTRAL_SCAN_LOW_DUR:
+            case CENTRAL_SCAN_LOW_INT:
+            case SYSTEM_ACTIVITY_TIMEOUT:
+            case SYSTEM_GO_TO_SLEEP_TIMEOUT:
+            case SYSTEM_WAKE_UP_TIMEOUT:
+                return Integer.parseInt(value.trim());
+
+            case BLUETOOTH_ADV_BEACON_FORMAT:
+                return parseEnum(BLEBeaconFormat.class, value);
+            case BUS_INIT_MODE:
+                return parseEnum(BusInitMode.class, value);
+            case BUS_SERIAL_CONTROL:
+                return parseEnum(SerialControl.class, value);
+            case SYSTEM_PRINT_LEVEL:
+                return parseEnum(PrintLevel.class, value);
+            case UART_BAUD_RATE:
+                return parseEnum(BaudRate.class, value);
+
+            default:
+                return value;
+        }
+    }
+
+    //value as returned by parse()
+    int write(ZentriOSBLEManager manager, String deviceName, Object value)
+    {
+        switch (this)
+        {
+            case BLUETOOTH_ENCRYPTION_ENABLE:
+                return manager.setBluetoothEncryptionEnable(deviceName, (Boolean)value);
+            case BLUETOOTH_ENCRYPTION_KEY:
+                return manager.setBluetoothEncryptionKey(deviceName, (String)value);
+            case BLUETOOTH_SERVICE_UUID:
+                return manager.setBluetoothServiceUUID(deviceName, (String)value);
+            case BLUETOOTH_TX_POWER_ADV:
+                return manager.setBluetoothTxPowerAdv(deviceName, (Integer)value);
+            case BLUETOOTH_TX_POWER_CON:
+                return manager.setBluetoothTxPowerCon(deviceName, (Integer)value);
+            case BLUETOOTH_ADV_BEACON_DATA:
+                return manager.setBluetoothAdvBeaconData(deviceName, (String)value);
+            case BLUETOOTH_ADV_BEACON_FORMAT:
+                return manager.setBluetoothAdvBeaconFormat(deviceName, (BLEBeaconFormat)value);
+            case BLUETOOTH_ADV_BEACON_GPIO_MASK:
+                return manager.setBluetoothAdvBeaconGpioMask(deviceName, (String)value);
+            case BLUETOOTH_ADV_HIGH_DUR:
+                return manager.setBluetoothAdvHighDur(deviceName, (Integer)value);
+            case BLUETOOTH_ADV_HIGH_INT:
+                return manager.setBluetoothAdvHighInt(deviceName, (Integer)value);
+            case BLUETOOTH_ADV_LOW_DUR:
+                return manager.setBluetoothAdvLowDur(deviceName, (Integer)value);
+            case BLUETOOTH_ADV_LOW_INT:
+                return manager.setBluetoothAdvLowInt(deviceName, (Integer)value);
+            case BUS_INIT_MODE:
+                return manager.setBusInitMode(deviceName, (BusInitMode)value);
+            case BUS_SERIAL_CONTROL:
+                return manager.setBusSerialControl(deviceName, (SerialControl)value);
+            case CENTRAL_AUTO_CONNECT_DEVICE:
+                return manager.setCentralAutoConnectDevice(deviceName, (String)value);
+            case CENTRAL_SCAN_HIGH_DUR:
+                return manager.setCentralScanHighDur(deviceName, (Integer)value);
+            case CENTRAL_SCAN_HIGH_INT:
+                return manager.setCentralScanHighInt(deviceName, (Integer)value);
+            case CENTRAL_SCAN_LOW_DUR:
+                return manager.setCentralScanLowDur(deviceName, (Integer)value);
+            case CENTRAL_SCAN_LOW_INT:
+                return manager.setCentralScanLowInt(deviceName, (Integer)value);
+            case SYSTEM_ACTIVITY_TIMEOUT:
+                return manager.setActivityTimeout(deviceName, (Integer)value);
+            case SYSTEM_BOARD_NAME:
+                return manager.setSystemBoardName(deviceName, (String)value);
+            case SYSTEM_COMMAND_ECHO:
+                return manager.setSystemCommandEcho(deviceName, (Boolean)value);
+            case SYSTEM_COMMAND_HEADER:
+                return manager.setSystemCommandHeader(deviceName, (Boolean)value);
+            case SYSTEM_COMMAND_PROMPT:
+                return manager.setSystemCommandPrompt(deviceName, (Boolean)value);
+            case SYSTEM_DEVICE_NAME:
+                return manager.setSystemDeviceName(deviceName, (String)value);
+            case SYSTEM_OTA_ENABLE:
+                return manager.setSystemOTAEnable(deviceName, (Boolean)value);
+            case SYSTEM_PRINT_LEVEL:
+                return manager.setSystemPrintLevel(deviceName, (PrintLevel)value);
+            case SYSTEM_REMOTE_ENABLE:
+                return manager.setSystemRemoteCommandEnable(deviceName, (Boolean)value);
+            case SYSTEM_GO_TO_SLEEP_TIMEOUT:
+                return manager.setSystemGoToSleepTimeout(deviceName, (Integer)value);
+            case SYSTEM_WAKE_UP_TIMEOUT:
+                return manager.setSystemGoWakeUpTimeout(deviceName, (Integer)value);
+            case UART_BAUD_RATE:
+                return manager.setUARTBaudRate(deviceName, (BaudRate)value);
+            case UART_FLOW_CONTROL:
+                return manager.setUARTFlowControl(deviceName, (Boolean)value);
+            case USER_VARIABLE:
+                return manager.setUserVariable(deviceName, (String)value);
+
+            default:
+                return ZentriOSBLEManager.ID_INVALID;
+        }
+    }
+
+    private static boolean parseBoolean(String value)
+    {
+        String trimmed = value.trim();
+        if (trimmed.equals("1") || trimmed.equalsIgnoreCase("true"))
+        {
+            return true;
+        }
+        if (trimmed.equals("0") || trimmed.equalsIgnoreCase("false"))
+        {
+            return false;
+        }
+        throw new IllegalArgumentException("Invalid boolean: " + value);
+    }
+
+    //matches the enum's module representation (toString) or its constant name
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String value)
+    {
+        String trimmed = value.trim();
+        for (E constant : type.getEnumConstants())
+        {
+            if (constant.toString().equals(trimmed) || constant.name().equalsIgnoreCase(trimmed))
+            {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("Invalid " + type.getSimpleName() + ": " + value);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.content.Intent;
+import android.support.v4.content.LocalBroadcastManager;
+
+/**
+ * Re-publishes bus events as the ACTION_* local broadcasts the service has always sent, for
+ * receivers that have not moved to {@link BLEEventBus}.
+ */
+class IntentBroadcastAdapter implements BLEEventBus.Listener
+{
+    static final int[] EVENT_TYPES = {
+            BLEEvent.SCAN_RESULT,
+            BLEEvent.CONNECTED,
+            BLEEvent.DISCONNECTED,
+            BLEEvent.MODE_WRITE,
+            BLEEvent.MODE_READ,
+            BLEEvent.STRING_DATA_WRITE,
+            BLEEvent.STRING_DATA_READ,
+            BLEEvent.BINARY_DATA_WRITE,
+            BLEEvent.BINARY_DATA_READ,
+            BLEEvent.COMMAND_SENT,
+            BLEEvent.COMMAND_RESULT,
+            BLEEvent.ERROR
+    };
+
+    private final LocalBroadcastManager mBroadcastManager;
+
+    IntentBroadcastAdapter(LocalBroadcastManager broadcastManager)
+    {
+        mBroadcastManager = broadcastManager;
+    }
+
+    @Override
+    public void onEvent(BLEEvent event)
+    {
+        Intent intent = null;
+
+        switch (event.getType())
+        {
+            case BLEEvent.SCAN_RESULT:
+                intent = new Intent(BLEIntents.ACTION_SCAN_RESULT);
+                intent.putExtra(BLEIntents.EXTRA_DATA, event.getDeviceName());
+                break;
+
+            case BLEEvent.CONNECTED:
+                intent = new Intent(BLEIntents.ACTION_CONNECTED);
+                intent.putExtra(BLEIntents.EXTRA_DATA, event.getDeviceName());
+                break;
+
+            case BLEEvent.DISCONNECTED:
+                intent = new Intent(BLEIntents.ACTION_DISCONNECTED);
+                break;
+
+            case BLEEvent.MODE_WRITE:
+                intent = new Intent(BLEIntents.ACTION_MODE_WRITE);
+                intent.putExtra(BLEIntents.EXTRA_MODE, event.getMode());
+                break;
+
+            case BLEEvent.MODE_READ:
+                intent = new Intent(BLEIntents.ACTION_MODE_READ);
+                intent.putExtra(BLEIntents.EXTRA_MODE, event.getMode());
+                break;
+
+            case BLEEvent.STRING_DATA_WRITE:
+                intent = new Intent(BLEIntents.ACTION_STRING_DATA_WRITE);
+                intent.putExtra(BLEIntents.EXTRA_DATA, event.getStringData());
+                break;
+
+            case BLEEvent.STRING_DATA_READ:
+                intent = new Intent(BLEIntents.ACTION_STRING_DATA_READ);
+                intent.putExtra(BLEIntents.EXTRA_DATA, event.getStringData());
+                break;
+
+            case BLEEvent.BINARY_DATA_WRITE:
+                intent = new Intent(BLEIntents.ACTION_BINARY_DATA_WRITE);
+                intent.putExtra(BLEIntents.EXTRA_DATA, event.getBinaryData());
+                break;
+
+            case BLEEvent.BINARY_DATA_READ:
+                intent = new Intent(BLEIntents.ACTION_BINARY_DATA_READ);
+                intent.putExtra(BLEIntents.EXTRA_DATA, event.getBinaryData());
+                break;
+
+            case BLEEvent.COMMAND_SENT:
+                intent = new Intent(BLEIntents.ACTION_COMMAND_SENT);
+                intent.putExtra(BLEIntents.EXTRA_COMMAND, event.getCommand());
+                break;
+
+            case BLEEvent.COMMAND_RESULT:
+                intent = new Intent(BLEIntents.ACTION_COMMAND_RESULT);
+                intent.putExtra(BLEIntents.EXTRA_COMMAND, event.getCommand());
+                intent.putExtra(BLEIntents.EXTRA_ID, event.getCommandID());
+
+                if (event.getResponseCode() != -1)
+                {
+                    intent.putExtra(BLEIntents.EXTRA_RESPONSE_CODE, event.getResponseCode());
+                    intent.putExtra(BLEIntents.EXTRA_DATA, event.getStringData());
+                }
+                break;
+
+            case BLEEvent.ERROR:
+                intent = new Intent(BLEIntents.ACTION_ERROR);
+                intent.putExtra(BLEIntents.EXTRA_ERROR, event.getError());
+                break;
+        }
+
+        if (intent != null)
+        {
+            intent.putExtra(BLEIntents.EXTRA_DEVICE_NAME, event.getDeviceName());
+            mBroadcastManager.sendBroadcast(intent);
+        }
+    }
+}
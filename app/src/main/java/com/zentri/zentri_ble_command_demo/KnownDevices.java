@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Devices connected to recently, newest first, kept in shared preferences across launches.
+ *
+ * Holds what is needed to reconnect without the user picking the device again: its name,
+ * address, how long the last connect took and its firmware version. At most
+ * {@link #MAX_DEVICES} are kept. One instance per process, thread safe. Writes are applied in the
+ * background.
+ */
+public class KnownDevices
+{
+    private static final String TAG = KnownDevices.class.getSimpleName();
+
+    public static final int MAX_DEVICES = 8;
+
+    private static final String PREFS_NAME = "known_devices";
+    private static final String KEY_DEVICES = "devices";
+    private static final String KEY_RECONNECT_ON_LAUNCH = "reconnect_on_launch";
+
+    private static final String JSON_NAME = "name";
+    private static final String JSON_ADDRESS = "address";
+    private static final String JSON_LATENCY = "connectLatencyMs";
+    private static final String JSON_FIRMWARE = "firmwareVersion";
+    private static final String JSON_LAST_CONNECTED = "lastConnected";
+
+    private static KnownDevices sInstance;
+
+    public static class Entry
+    {
+        private final String mName;
+        private String mAddress;
+        private long mConnectLatencyMs = -1;
+        private String mFirmwareVersion;
+        private long mLastConnected;
+
+        Entry(String name)
+        {
+            mName = name;
+        }
+
+        Entry(Entry other)
+        {
+            mName = other.mName;
+            mAddress = other.mAddress;
+            mConnectLatencyMs = other.mConnectLatencyMs;
+            mFirmwareVersion = other.mFirmwareVersion;
+            mLastConnected = other.mLastConnected;
+        }
+
+        public String getName()
+        {
+            return mName;
+        }
+
+        //null if not known
+        public String getAddress()
+        {
+            return mAddress;
+        }
+
+        //ms from connect() to connected on the last connect, or -1
+        public long getConnectLatencyMs()
+        {
+            return mConnectLatencyMs;
+        }
+
+        //null until read after a connect
+        public String getFirmwareVersion()
+        {
+            return mFirmwareVersion;
+        }
+
+        //System.currentTimeMillis() of the last connect
+        public long getLastConnected()
+        {
+            return mLastConnected;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+
+    public static synchronized KnownDevices getInstance(Context context)
+    {
+        if (sInstance == null)
+        {
+            sInstance = new KnownDevices(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private KnownDevices(Context context)
+    {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    //null if nothing has been connected to yet
+    public synchronized Entry getMostRecent()
+    {
+        return mEntries.isEmpty() ? null : new Entry(mEntries.get(0));
+    }
+
+    public synchronized List<Entry> getAll()
+    {
+        ArrayList<Entry> all = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries)
+        {
+            all.add(new Entry(entry));
+        }
+        return all;
+    }
+
+    public synchronized Entry get(String name)
+    {
+        int index = indexOf(name);
+        return index >= 0 ? new Entry(mEntries.get(index)) : null;
+    }
+
+    /**
+     * Records a successful connect and moves the device to the front.
+     * @param address device address, or null to keep the one already known
+     * @param latencyMs time from connect() to connected, or -1 if not measured
+     */
+    public synchronized void onConnected(String name, String address, long latencyMs)
+    {
+        int index = indexOf(name);
+        Entry entry = index >= 0 ? mEntries.remove(index) : new Entry(name);
+
+        if (address != null)
+        {
+            entry.mAddress = address;
+        }
+        if (latencyMs >= 0)
+        {
+            entry.mConnectLatencyMs = latencyMs;
+        }
+        entry.mLastConnected = System.currentTimeMillis();
+        mEntries.add(0, entry);
+
+        while (mEntries.size() > MAX_DEVICES)
+        {
+            mEntries.remove(mEntries.size() - 1);
+        }
+        save();
+    }
+
+    //ignored for devices that aren't known
+    public synchronized void setFirmwareVersion(String name, String version)
+    {
+        int index = indexOf(name);
+        if (index >= 0 && version != null && !version.equals(mEntries.get(index).mFirmwareVersion))
+        {
+            mEntries.get(index).mFirmwareVersion = version;
+            save();
+        }
+    }
+
+    public synchronized void remove(String name)
+    {
+        int index = indexOf(name);
+        if (index >= 0)
+        {
+            mEntries.remove(index);
+            save();
+        }
+    }
+
+    public synchronized void clear()
+    {
+        mEntries.clear();
+        save();
+    }
+
+    //whether the app connects to the most recent device by itself when launched, off by default
+    public boolean isReconnectOnLaunch()
+    {
+        return mPrefs.getBoolean(KEY_RECONNECT_ON_LAUNCH, false);
+    }
+
+    public void setReconnectOnLaunch(boolean reconnect)
+    {
+        mPrefs.edit().putBoolean(KEY_RECONNECT_ON_LAUNCH, reconnect).apply();
+    }
+
+    private int indexOf(String name)
+    {
+        for (int i = 0; i < mEntries.size(); i++)
+        {
+            if (mEntries.get(i).mName.equals(name))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void load()
+    {
+        String json = mPrefs.getString(KEY_DEVICES, null);
+        if (json == null)
+        {
+            return;
+        }
+
+        try
+        {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length() && i < MAX_DEVICES; i++)
+            {
+                JSONObject object = array.getJSONObject(i);
+                Entry entry = new Entry(object.getString(JSON_NAME));
+                entry.mAddress = object.optString(JSON_ADDRESS, null);
+                entry.mConnectLatencyMs = object.optLong(JSON_LATENCY, -1);
+                entry.mFirmwareVersion = object.optString(JSON_FIRMWARE, null);
+                entry.mLastConnected = object.optLong(JSON_LAST_CONNECTED, 0);
+                mEntries.add(entry);
+            }
+        }
+        catch (JSONException e)
+        {
+            Log.e(TAG, "Discarding unreadable known devices", e);
+            mEntries.clear();
+        }
+    }
+
+    private void save()
+    {
+        JSONArray array = new JSONArray();
+        try
+        {
+            for (Entry entry : mEntries)
+            {
+                JSONObject object = new JSONObject();
+                object.put(JSON_NAME, entry.mName);
+                object.put(JSON_ADDRESS, entry.mAddress);//null values are left out
+                object.put(JSON_LATENCY, entry.mConnectLatencyMs);
+                object.put(JSON_FIRMWARE, entry.mFirmwareVersion);
+                object.put(JSON_LAST_CONNECTED, entry.mLastConnected);
+                array.put(object);
+            }
+        }
+        catch (JSONException e)
+        {
+            Log.e(TAG, "Failed to save known devices", e);
+            return;
+        }
+
+        mPrefs.edit().putString(KEY_DEVICES, array.toString()).apply();
+    }
+}
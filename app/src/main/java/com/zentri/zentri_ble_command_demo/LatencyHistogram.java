@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-memory latency histogram in microseconds, laid out like HdrHistogram.
+ *
+ * Values below 64us are counted exactly. Above that, each power of two range is split into 32
+ * linear sub-buckets, so a reported value is within about 3% of the recorded one. Values from one
+ * hour up all go into the last bucket. The counts are one array of about 3.5KB allocated up front.
+ *
+ * {@link #record(long)} is lock-free and allocation-free and may be called from any thread.
+ * Reads see a consistent enough picture for reporting while recording carries on, but percentiles
+ * of a histogram being written to are not exact.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_VALUE_BITS = 32;//2^32us is a little over an hour
+    public static final long MAX_VALUE_US = (1L << MAX_VALUE_BITS) - 1;
+
+    private static final int BUCKET_COUNT =
+            (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+
+    private final AtomicIntegerArray mCounts = new AtomicIntegerArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mTotalValue = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void recordNanos(long nanos)
+    {
+        record(nanos / 1000);
+    }
+
+    //negative values are counted as 0, anything above MAX_VALUE_US as MAX_VALUE_US
+    public void record(long valueUs)
+    {
+        long value = Math.min(Math.max(valueUs, 0), MAX_VALUE_US);
+
+        mCounts.incrementAndGet(indexOf(value));
+        mTotalCount.incrementAndGet();
+        mTotalValue.addAndGet(value);
+
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value))
+        {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount()
+    {
+        return mTotalCount.get();
+    }
+
+    public long getMax()
+    {
+        return mMax.get();
+    }
+
+    public long getMean()
+    {
+        long count = mTotalCount.get();
+        return count > 0 ? mTotalValue.get() / count : 0;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the highest value in the bucket holding the percentile, no more than the max, or 0
+     * if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            total += mCounts.get(i);
+        }
+        if (total == 0)
+        {
+            return 0;
+        }
+
+        //the count at or below which the percentile lies, at least one
+        long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += mCounts.get(i);
+            if (seen >= target)
+            {
+                return Math.min(highestValueAt(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    //adds other's counts to this one, e.g. to total several devices
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            int count = other.mCounts.get(i);
+            if (count != 0)
+            {
+                mCounts.addAndGet(i, count);
+            }
+        }
+        mTotalCount.addAndGet(other.mTotalCount.get());
+        mTotalValue.addAndGet(other.mTotalValue.get());
+
+        long otherMax = other.mMax.get();
+        long max = mMax.get();
+        while (otherMax > max && !mMax.compareAndSet(max, otherMax))
+        {
+            max = mMax.get();
+        }
+    }
+
+    //not atomic with respect to concurrent recording
+    public void reset()
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mTotalValue.set(0);
+        mMax.set(0);
+    }
+
+    //e.g. "n=120 p50=48.1ms p90=52.2ms p99=80.0ms max=81.3ms"
+    @Override
+    public String toString()
+    {
+        return String.format("n=%d p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms", getCount(),
+                             getValueAtPercentile(50) / 1000f, getValueAtPercentile(90) / 1000f,
+                             getValueAtPercentile(99) / 1000f, getMax() / 1000f);
+    }
+
+    /**
+     * Below 2 * SUB_BUCKET_COUNT the value is its own index. Above, shift drops all but the top
+     * SUB_BUCKET_BITS + 1 bits, whose value picks the sub-bucket within the range for that shift.
+     */
+    static int indexOf(long value)
+    {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int)(value >>> shift);
+    }
+
+    static long lowestValueAt(int index)
+    {
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        if (shift <= 0)
+        {
+            return index;
+        }
+        return (long)(index - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    static long highestValueAt(int index)
+    {
+        int shift = Math.max(0, (index >>> SUB_BUCKET_BITS) - 1);
+        return lowestValueAt(index) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Connect, disconnect and command round trip latencies for one device, each in a
+ * {@link LatencyHistogram}.
+ *
+ * The service timestamps the transitions: connect() to onConnected, disconnect() to
+ * onDisconnected, and onCommandSent to onCommandResult. Command latencies are split by type, taken
+ * from the first word of the command. Only requested disconnects are timed, and connects that fail
+ * are not counted. Recording is lock-free and allocation-free.
+ */
+public class LatencyStats
+{
+    public static final int TYPE_ADC = 0;
+    public static final int TYPE_GPIO_GET = 1;
+    public static final int TYPE_GPIO_SET = 2;
+    public static final int TYPE_GPIO_FUNCTION = 3;
+    public static final int TYPE_GPIO_DIRECTION = 4;
+    public static final int TYPE_GET = 5;
+    public static final int TYPE_SET = 6;
+    public static final int TYPE_SAVE = 7;
+    public static final int TYPE_REBOOT = 8;
+    public static final int TYPE_VERSION = 9;
+    public static final int TYPE_STREAM = 10;
+    public static final int TYPE_OTHER = 11;
+    public static final int TYPE_COUNT = 12;
+
+    //command words, indexed by type
+    private static final String[] TYPE_COMMANDS =
+            { "adc", "gge", "gse", "gfu", "gdi", "get", "set", "save", "reboot", "ver", "str" };
+    private static final String[] TYPE_NAMES =
+            { "adc", "gpio_get", "gpio_set", "gpio_function", "gpio_direction", "get", "set",
+              "save", "reboot", "version", "stream", "other" };
+
+    private static final long NONE = Long.MIN_VALUE;
+    private static final int SENT_SLOTS = 32;//commands in flight that can be timed, power of 2
+
+    private final LatencyHistogram mConnect = new LatencyHistogram();
+    private final LatencyHistogram mDisconnect = new LatencyHistogram();
+    private final LatencyHistogram[] mCommands = new LatencyHistogram[TYPE_COUNT];
+
+    private final AtomicLong mConnectStart = new AtomicLong(NONE);
+    private final AtomicLong mDisconnectStart = new AtomicLong(NONE);
+
+    //pairs of command id and send time, slot chosen by id
+    private final AtomicLongArray mSent = new AtomicLongArray(SENT_SLOTS * 2);
+
+    LatencyStats()
+    {
+        for (int i = 0; i < TYPE_COUNT; i++)
+        {
+            mCommands[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < SENT_SLOTS; i++)
+        {
+            mSent.set(i * 2, NONE);
+        }
+    }
+
+    public static String getTypeName(int type)
+    {
+        return TYPE_NAMES[type];
+    }
+
+    //type of a command as sent, e.g. "gge 9" is TYPE_GPIO_GET
+    public static int getType(String command)
+    {
+        if (command != null)
+        {
+            for (int type = 0; type < TYPE_COMMANDS.length; type++)
+            {
+                String word = TYPE_COMMANDS[type];
+                if (command.startsWith(word) && (command.length() == word.length()
+                        || !Character.isLetter(command.charAt(word.length()))))
+                {
+                    return type;
+                }
+            }
+        }
+        return TYPE_OTHER;
+    }
+
+    public LatencyHistogram getConnectLatency()
+    {
+        return mConnect;
+    }
+
+    public LatencyHistogram getDisconnectLatency()
+    {
+        return mDisconnect;
+    }
+
+    public LatencyHistogram getCommandLatency(int type)
+    {
+        return mCommands[type];
+    }
+
+    public void reset()
+    {
+        mConnect.reset();
+        mDisconnect.reset();
+        for (LatencyHistogram histogram : mCommands)
+        {
+            histogram.reset();
+        }
+    }
+
+    //one line per histogram with anything in it
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        append(builder, "connect", mConnect);
+        append(builder, "disconnect", mDisconnect);
+        for (int type = 0; type < TYPE_COUNT; type++)
+        {
+            append(builder, TYPE_NAMES[type], mCommands[type]);
+        }
+        return builder.toString();
+    }
+
+    void onConnectStarted()
+    {
+        mConnectStart.set(System.nanoTime());
+    }
+
+    void onConnected()
+    {
+        long start = mConnectStart.getAndSet(NONE);
+        if (start != NONE)
+        {
+            mConnect.recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    //failed or timed out
+    void onConnectAbandoned()
+    {
+        mConnectStart.set(NONE);
+    }
+
+    void onDisconnectStarted()
+    {
+        mDisconnectStart.set(System.nanoTime());
+    }
+
+    void onDisconnected()
+    {
+        long start = mDisconnectStart.getAndSet(NONE);
+        if (start != NONE)
+        {
+            mDisconnect.recordNanos(System.nanoTime() - start);
+        }
+        mConnectStart.set(NONE);
+    }
+
+    void onCommandSent(int id)
+    {
+        int slot = (id & (SENT_SLOTS - 1)) * 2;
+        mSent.set(slot + 1, System.nanoTime());
+        mSent.set(slot, id);//published after the time
+    }
+
+    void onCommandResult(int id, String command)
+    {
+        long now = System.nanoTime();
+        int slot = (id & (SENT_SLOTS - 1)) * 2;
+        if (mSent.get(slot) != id)
+        {
+            return;//not timed, or overwritten by a later command
+        }
+
+        long sent = mSent.get(slot + 1);
+        if (mSent.compareAndSet(slot, id, NONE))
+        {
+            mCommands[getType(command)].recordNanos(now - sent);
+        }
+    }
+
+    private static void append(StringBuilder builder, String name, LatencyHistogram histogram)
+    {
+        if (histogram.getCount() > 0)
+        {
+            builder.append(name).append(": ").append(histogram).append('\n');
+        }
+    }
+}
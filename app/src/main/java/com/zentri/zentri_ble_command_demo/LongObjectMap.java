@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+/**
+ * Open addressing hash map from primitive long keys to objects.
+ *
+ * Lookups, inserts and removes are O(1) and do not allocate once the table is big enough, there
+ * are no boxed keys or entry objects as with HashMap. Null values are not allowed. Not thread
+ * safe.
+ */
+class LongObjectMap<V>
+{
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mKeys;
+    private Object[] mValues;//null marks an empty slot
+    private int mMask;
+    private int mSize;
+
+    LongObjectMap()
+    {
+        this(MIN_CAPACITY);
+    }
+
+    LongObjectMap(int expectedSize)
+    {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2)
+        {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    int size()
+    {
+        return mSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key)
+    {
+        int slot = slotOf(key);
+        while (mValues[slot] != null)
+        {
+            if (mKeys[slot] == key)
+            {
+                return (V)mValues[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return null;
+    }
+
+    boolean containsKey(long key)
+    {
+        return get(key) != null;
+    }
+
+    //returns the previous value for the key, or null
+    @SuppressWarnings("unchecked")
+    V put(long key, V value)
+    {
+        if (value == null)
+        {
+            throw new NullPointerException("value");
+        }
+
+        int slot = slotOf(key);
+        while (mValues[slot] != null)
+        {
+            if (mKeys[slot] == key)
+            {
+                V previous = (V)mValues[slot];
+                mValues[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mMask;
+        }
+
+        mKeys[slot] = key;
+        mValues[slot] = value;
+        if (++mSize * 2 > mValues.length)
+        {
+            rehash(mValues.length << 1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key)
+    {
+        int slot = slotOf(key);
+        while (mValues[slot] != null)
+        {
+            if (mKeys[slot] == key)
+            {
+                V previous = (V)mValues[slot];
+                mValues[slot] = null;
+                mSize--;
+                shiftBack(slot);
+                return previous;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return null;
+    }
+
+    void clear()
+    {
+        for (int i = 0; i < mValues.length; i++)
+        {
+            mValues[i] = null;
+        }
+        mSize = 0;
+    }
+
+    /**
+     * Slots can be walked from 0 to capacity() - 1 with keyAt()/valueAt(), valueAt() returns
+     * null for empty slots. The map must not be modified during the walk.
+     */
+    int capacity()
+    {
+        return mValues.length;
+    }
+
+    long keyAt(int slot)
+    {
+        return mKeys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int slot)
+    {
+        return (V)mValues[slot];
+    }
+
+    private int slotOf(long key)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int)(hash ^ (hash >>> 32)) & mMask;
+    }
+
+    //closes the gap left by a remove so later lookups on the same probe chain still find entries
+    private void shiftBack(int gap)
+    {
+        int slot = (gap + 1) & mMask;
+        while (mValues[slot] != null)
+        {
+            int home = slotOf(mKeys[slot]);
+            //move the entry into the gap if the gap lies between its home slot and its slot
+            if (((slot - home) & mMask) >= ((slot - gap) & mMask))
+            {
+                mKeys[gap] = mKeys[slot];
+                mValues[gap] = mValues[slot];
+                mValues[slot] = null;
+                gap = slot;
+            }
+            slot = (slot + 1) & mMask;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity)
+    {
+        long[] keys = mKeys;
+        Object[] values = mValues;
+        allocate(capacity);
+        mSize = 0;
+
+        for (int i = 0; i < values.length; i++)
+        {
+            if (values[i] != null)
+            {
+                put(keys[i], (V)values[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        mMask = capacity - 1;
+    }
+}
@@ -24,38 +24,36 @@ import android.app.Dialog;
 
 import android.bluetooth.BluetoothAdapter;
 
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
-import android.support.v4.content.LocalBroadcastManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ListView;
 import android.widget.Toast;
 
-import com.zentri.zentri_ble_command.ErrorCode;
 import com.zentri.zentri_ble_command.ZentriOSBLEManager;
 
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import fr.castorflex.android.smoothprogressbar.SmoothProgressBar;
 
@@ -69,34 +67,37 @@ public class MainActivity extends AppCompatActivity
     private static final int BLE_ENABLE_REQ_CODE = 1;
     private static final int LOC_ENABLE_REQ_CODE = 2;
 
-    private static final long SCAN_PERIOD = 30000;
-    private static final long CONNECT_TIMEOUT_MS = 30000;
-
-    private static final String PATTERN_MAC_ADDRESS = "(\\p{XDigit}{2}:){5}\\p{XDigit}{2}";
+    private static final long EVICT_INTERVAL_MS = 1000;
 
     private SmoothProgressBar mScanProgressBar;
     private Dialog mConnectProgressDialog;
     private DeviceList mDeviceList;
+    private ScanRegistry mScanRegistry;
+    private ScanFilter mScanFilter;
+    private ExecutorService mScanExecutor;
+    private final ScanRegistry.ChangeSet mScanChanges = new ScanRegistry.ChangeSet();
+    private BLEEventBus.Listener mScanListener;
     private Button mScanButton;
 
     private Handler mHandler;
-    private Runnable mStopScanTask;
-    private Runnable mConnectTimeoutTask;
+    private ScanScheduler mScanScheduler;
+    private Choreographer.FrameCallback mApplyScanChangesFrame;
+    private Runnable mEvictTask;
 
     private ZentriOSBLEManager mZentriOSBLEManager;
-    private boolean mConnecting = false;
-    private boolean mConnected = false;
+    private ConnectionManager.Listener mConnectionListener;
 
     private String mCurrentDeviceName;
+    private String mCurrentDeviceAddress;
+    private long mConnectStartedAt;
+
+    private KnownDevices mKnownDevices;
+    private String mReconnectName;//known device to connect to as soon as a scan sees it
 
     private ServiceConnection mConnection;
     private ZentriOSBLEService mService;
     private boolean mBound = false;
 
-    private LocalBroadcastManager mLocalBroadcastManager;
-    private BroadcastReceiver mBroadcastReceiver;
-    private IntentFilter mReceiverIntentFilter;
-
     private Dialog mLocationEnableDialog;
     private Dialog mPermissionRationaleDialog;
 
@@ -114,44 +115,31 @@ public class MainActivity extends AppCompatActivity
         initProgressBar();
         initScanButton();
         initDeviceList();
-        initBroadcastManager();
+        initScanRegistry();
         initServiceConnection();
-        initBroadcastReceiver();
-        initReceiverIntentFilter();
+        initConnectionListener();
 
         startService(new Intent(this, ZentriOSBLEService.class));
 
         mHandler = new Handler();
+        initScanScheduler();
 
-        mStopScanTask = new Runnable()
+        //on a fresh launch go straight back to the last device, the list fills in meanwhile in
+        //case it isn't around
+        mKnownDevices = KnownDevices.getInstance(this);
+        KnownDevices.Entry recent = mKnownDevices.getMostRecent();
+        if (savedInstanceState == null && recent != null && mKnownDevices.isReconnectOnLaunch())
         {
-            @Override
-            public void run()
-            {
-                stopScan();
-            }
-        };
+            mReconnectName = recent.getName();
+        }
 
-        mConnectTimeoutTask = new Runnable()
+        mEvictTask = new Runnable()
         {
             @Override
             public void run()
             {
-                runOnUiThread(new Runnable()
-                {
-                    @Override
-                    public void run()
-                    {
-                        dismissDialog(mConnectProgressDialog);
-                        showErrorDialog(R.string.con_timeout_message, false);
-                        mConnecting = false;
-                        mConnected = false;
-                        if(mZentriOSBLEManager != null && mZentriOSBLEManager.isConnected(mCurrentDeviceName))
-                        {
-                            mZentriOSBLEManager.disconnect(mCurrentDeviceName, ZentriOSBLEService.DISABLE_TX_NOTIFY);
-                        }
-                    }
-                });
+                mScanRegistry.evictStale(SystemClock.elapsedRealtime());
+                mHandler.postDelayed(this, EVICT_INTERVAL_MS);
             }
         };
     }
@@ -161,6 +149,8 @@ public class MainActivity extends AppCompatActivity
     {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_reconnect_on_launch)
+                .setChecked(mKnownDevices.isReconnectOnLaunch());
         return true;
     }
 
@@ -173,6 +163,10 @@ public class MainActivity extends AppCompatActivity
             case R.id.action_about:
                 openAboutDialog();
                 return true;
+            case R.id.action_reconnect_on_launch:
+                item.setChecked(!item.isChecked());
+                mKnownDevices.setReconnectOnLaunch(item.isChecked());
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -183,14 +177,10 @@ public class MainActivity extends AppCompatActivity
     {
         super.onStart();
 
-        mDeviceList.clear();
-        mConnected = false;
-        mConnecting = false;
+        clearDeviceList();
 
         Intent intent = new Intent(this, ZentriOSBLEService.class);
         bindService(intent, mConnection, Context.BIND_AUTO_CREATE);
-
-        mLocalBroadcastManager.registerReceiver(mBroadcastReceiver, mReceiverIntentFilter);
     }
 
     @Override
@@ -208,7 +198,7 @@ public class MainActivity extends AppCompatActivity
     @Override
     protected void onStop()
     {
-        mHandler.removeCallbacks(mStopScanTask);
+        mScanScheduler.stop();
 
         //ensure dialogs are closed
         dismissDialog(mConnectProgressDialog);
@@ -217,7 +207,8 @@ public class MainActivity extends AppCompatActivity
 
         if (mBound)
         {
-            mLocalBroadcastManager.unregisterReceiver(mBroadcastReceiver);
+            mService.getConnectionManager().removeListener(mConnectionListener);
+            mService.getEventBus().removeListener(mScanListener);
             unbindService(mConnection);
             mBound = false;
         }
@@ -230,6 +221,7 @@ public class MainActivity extends AppCompatActivity
     {
         super.onDestroy();
 
+        mScanExecutor.shutdown();
         stopService(new Intent(this, ZentriOSBLEService.class));
     }
 
@@ -292,7 +284,7 @@ public class MainActivity extends AppCompatActivity
             @Override
             public void onClick(View v)
             {
-                mDeviceList.clear();
+                clearDeviceList();
                 startScan();
             }
         });
@@ -301,10 +293,78 @@ public class MainActivity extends AppCompatActivity
     private void initDeviceList()
     {
         ListView deviceListView = (ListView) findViewById(R.id.listView);
-        ArrayAdapter<String> adapter = new ArrayAdapter<String>(this, R.layout.listitem, R.id.textView);
 
         initialiseListviewListener(deviceListView);
-        mDeviceList = new DeviceList(adapter, deviceListView);
+        mDeviceList = new DeviceList(this, deviceListView);
+    }
+
+    private void initScanRegistry()
+    {
+        mScanRegistry = new ScanRegistry();
+        mScanFilter = new ScanFilter();//defaults drop unnamed devices, as the list always did
+        mScanExecutor = Executors.newSingleThreadExecutor();
+
+        //every advertisement is filtered off the BLE and main threads, the registry then
+        //coalesces them so the UI only hears about devices that are new, changed or gone
+        mScanListener = new BLEEventBus.Listener()
+        {
+            @Override
+            public void onEvent(BLEEvent event)
+            {
+                //copy out, the event is reused once this returns
+                final String address = event.getAddress();
+                final String name = event.getDeviceName();
+                final long now = SystemClock.elapsedRealtime();
+
+                //a device that is already listed changes nothing in the registry when seen
+                //again, so the target is checked on every sighting
+                if (mScanScheduler.isTarget(name))
+                {
+                    mHandler.post(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            mScanScheduler.onDeviceSeen(name);
+                        }
+                    });
+                }
+
+                mScanExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (mScanFilter.accept(ScanRegistry.parseAddress(address), name,
+                                               ScanRegistry.RSSI_UNKNOWN))
+                        {
+                            mScanRegistry.update(address, name, ScanRegistry.RSSI_UNKNOWN, now);
+                        }
+                    }
+                });
+            }
+        };
+
+        mApplyScanChangesFrame = new Choreographer.FrameCallback()
+        {
+            @Override
+            public void doFrame(long frameTimeNanos)
+            {
+                applyScanChanges();
+            }
+        };
+
+        //at most one batch per frame however fast results come in, the registry keeps
+        //coalescing until the callback drains it
+        final Choreographer choreographer = Choreographer.getInstance();
+        mScanRegistry.setListener(new ScanRegistry.Listener()
+        {
+            @Override
+            public void onChangesPending()
+            {
+                choreographer.postFrameCallback(mApplyScanChangesFrame);
+            }
+        });
     }
 
     private void initServiceConnection()
@@ -319,6 +379,8 @@ public class MainActivity extends AppCompatActivity
                 mBound = true;
 
                 mZentriOSBLEManager = mService.getManager();
+                mService.getEventBus().addListener(mScanListener, BLEEvent.SCAN_RESULT);
+                mService.getConnectionManager().addListener(mConnectionListener);
 
                 //if requirements not met, action will already be taken
                 if (requirementsMet())
@@ -335,81 +397,53 @@ public class MainActivity extends AppCompatActivity
         };
     }
 
-    private void initBroadcastReceiver()
+    private void initConnectionListener()
     {
-        mBroadcastReceiver = new BroadcastReceiver()
+        mConnectionListener = new ConnectionManager.Listener()
         {
             @Override
-            public void onReceive(Context context, Intent intent)
+            public void onStateChanged(String deviceName, int state, int reason)
             {
-                // Get extra data included in the Intent
-                String action = intent.getAction();
-
-                switch (action)
+                //other connected devices must not change our connection state
+                if (!deviceName.equals(mCurrentDeviceName))
                 {
-                    case ZentriOSBLEService.ACTION_SCAN_RESULT:
-                        String name = ZentriOSBLEService.getData(intent);
-
-                        //dont show devices with no name (mac addresses)
-                        if (name != null && !Pattern.matches(PATTERN_MAC_ADDRESS, name))
-                        {
-                            addDeviceToList(name);
-                        }
-                        break;
-
-                    case ZentriOSBLEService.ACTION_CONNECTED:
-                        String deviceName = ZentriOSBLEService.getData(intent);
+                    return;
+                }
 
-                        mConnected = true;
-                        mHandler.removeCallbacks(mConnectTimeoutTask);//cancel timeout timer
-                        dismissDialog(mConnectProgressDialog);
-                        showToast("Connected to " + deviceName, Toast.LENGTH_SHORT);
+                if (state == ConnectionManager.STATE_READY
+                        && reason == ConnectionManager.REASON_REQUESTED)
+                {
+                    mKnownDevices.onConnected(deviceName, mCurrentDeviceAddress,
+                            SystemClock.elapsedRealtime() - mConnectStartedAt);
+                    //the service stores it with the known device when it arrives
+                    mZentriOSBLEManager.readFirmwareVersion(deviceName);
+
+                    dismissDialog(mConnectProgressDialog);
+                    showToast("Connected to " + deviceName, Toast.LENGTH_SHORT);
+                    if (BLETrace.LOGCAT)
+                    {
                         Log.d(TAG, "Connected to " + deviceName);
+                    }
 
-                        startDeviceInfoActivity();
-                        break;
-
-                    case ZentriOSBLEService.ACTION_DISCONNECTED:
-                        mConnected = false;
-                        break;
-
-                    case ZentriOSBLEService.ACTION_ERROR:
-                        ErrorCode errorCode = ZentriOSBLEService.getErrorCode(intent);
-                        //handle errors
-                        if (errorCode == ErrorCode.CONNECT_FAILED)
-                        {
-                            if (!mConnected && mConnecting)
-                            {
-                                mConnecting = false;//allow another attempt to connect
-                                dismissDialog(mConnectProgressDialog);
-                            }
-                            else
-                            {
-                                mConnected = false;
-                            }
-
-                            showErrorDialog(R.string.con_err_message, false);
-                        }
-                        break;
+                    startDeviceInfoActivity();
+                }
+                else if (state == ConnectionManager.STATE_IDLE)
+                {
+                    if (reason == ConnectionManager.REASON_CONNECT_TIMEOUT)
+                    {
+                        dismissDialog(mConnectProgressDialog);
+                        showErrorDialog(R.string.con_timeout_message, false);
+                    }
+                    else if (reason == ConnectionManager.REASON_CONNECT_FAILED)
+                    {
+                        dismissDialog(mConnectProgressDialog);
+                        showErrorDialog(R.string.con_err_message, false);
+                    }
                 }
             }
         };
     }
 
-    public void initBroadcastManager()
-    {
-        mLocalBroadcastManager = LocalBroadcastManager.getInstance(getApplicationContext());
-    }
-
-    public void initReceiverIntentFilter()
-    {
-        mReceiverIntentFilter = new IntentFilter();
-        mReceiverIntentFilter.addAction(ZentriOSBLEService.ACTION_SCAN_RESULT);
-        mReceiverIntentFilter.addAction(ZentriOSBLEService.ACTION_CONNECTED);
-        mReceiverIntentFilter.addAction(ZentriOSBLEService.ACTION_DISCONNECTED);
-        mReceiverIntentFilter.addAction(ZentriOSBLEService.ACTION_ERROR);
-    }
-
     private void startBLEEnableIntent()
     {
         Intent enableBtIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
@@ -424,19 +458,116 @@ public class MainActivity extends AppCompatActivity
             public void onItemClick(AdapterView<?> parent, View view,
                                     int position, long id)
             {
-                mCurrentDeviceName = mDeviceList.get(position);
+                //row ids are the packed device addresses
+                connectToDevice(mDeviceList.get(position), ScanRegistry.formatAddress(id));
+            }
+        });
+    }
+
+    //address may be null if not known
+    private void connectToDevice(String deviceName, String address)
+    {
+        if (!isConnecting())
+        {
+            mCurrentDeviceName = deviceName;
+            mCurrentDeviceAddress = address;
+            mReconnectName = null;//the user picked a device, or we're already reconnecting
+
+            stopScan();
+            if (BLETrace.LOGCAT)
+            {
+                Log.d(TAG, "Connecting to BLE device " + mCurrentDeviceName);
+            }
+            if (BLETrace.ENABLED)
+            {
+                BLETrace.record(BLETrace.EV_CONNECT,
+                                mService.getSession(mCurrentDeviceName).getHandle(), 0);
+            }
+            mConnectStartedAt = SystemClock.elapsedRealtime();
+            if (!mService.getConnectionManager().connect(mCurrentDeviceName))
+            {
+                //connection limit reached or the stack refused
+                showErrorDialog(R.string.con_err_message, false);
+                return;
+            }
+
+            showConnectingDialog();//the connection manager times the attempt out
+        }
+    }
+
+    private boolean isConnecting()
+    {
+        return mCurrentDeviceName != null && mService.getConnectionManager()
+                .getState(mCurrentDeviceName) == ConnectionManager.STATE_CONNECTING;
+    }
+
+    private void initScanScheduler()
+    {
+        mScanScheduler = new ScanScheduler(new ScanScheduler.Scanner()
+        {
+            @Override
+            public boolean startScan()
+            {
+                if (BLETrace.ENABLED)
+                {
+                    BLETrace.record(BLETrace.EV_SCAN_START, 0, 0);
+                }
+                return mZentriOSBLEManager != null && mZentriOSBLEManager.startScan();
+            }
 
-                if (!mConnecting)
+            @Override
+            public boolean stopScan()
+            {
+                if (BLETrace.ENABLED)
                 {
-                    mConnecting = true;
+                    BLETrace.record(BLETrace.EV_SCAN_STOP, 0, 0);
+                }
+                return mZentriOSBLEManager != null && mZentriOSBLEManager.stopScan();
+            }
+        }, mHandler);
 
-                    stopScan();
-                    Log.d(TAG, "Connecting to BLE device " + mCurrentDeviceName);
-                    mZentriOSBLEManager.connect(mCurrentDeviceName);
+        //the user is looking at the list, so scan flat out until it settles
+        mScanScheduler.setProfile(ScanScheduler.Profile.BURST);
+        mScanScheduler.setListener(new ScanScheduler.Listener()
+        {
+            @Override
+            public void onSessionStarted()
+            {
+                mScanFilter.resetCounters();
+                startProgressBar();
+                disableScanButton();
+            }
 
-                    showConnectingDialog();
+            @Override
+            public void onScanningChanged(boolean scanning)
+            {
+                //devices stop being seen while the radio is off, keep the list as it is
+                mHandler.removeCallbacks(mEvictTask);
+                if (scanning)
+                {
+                    mHandler.postDelayed(mEvictTask, EVICT_INTERVAL_MS);
+                }
+            }
 
-                    mHandler.postDelayed(mConnectTimeoutTask, CONNECT_TIMEOUT_MS);
+            @Override
+            public void onSessionEnded(int reason)
+            {
+                if (BLETrace.LOGCAT)
+                {
+                    Log.d(TAG, "Scan session ended, reason " + reason
+                            + ", first result " + mScanScheduler.getTimeToFirstResult() + "ms"
+                            + ", target " + mScanScheduler.getTimeToTarget() + "ms");
+                    Log.d(TAG, "Scan filter: " + mScanFilter);
+                }
+                stopProgressBar();
+                enableScanButton();
+
+                //the library can only connect to devices its scan has seen, so a known device
+                //is connected to the moment it turns up
+                if (reason == ScanScheduler.END_TARGET_FOUND && mReconnectName != null)
+                {
+                    KnownDevices.Entry known = mKnownDevices.get(mReconnectName);
+                    connectToDevice(mReconnectName, known != null ? known.getAddress() : null);
                 }
             }
         });
@@ -446,27 +577,14 @@ public class MainActivity extends AppCompatActivity
     {
         if (mZentriOSBLEManager != null)
         {
-            runOnUiThread(new Runnable()
-              {
-                  @Override
-                  public void run()
-                  {
-                      mZentriOSBLEManager.startScan();
-                  }
-              });
-            startProgressBar();
-            disableScanButton();
-            mHandler.postDelayed(mStopScanTask, SCAN_PERIOD);
+            mScanScheduler.setTarget(mReconnectName);
+            mScanScheduler.start();
         }
     }
 
     private void stopScan()
     {
-        if (mZentriOSBLEManager != null && mZentriOSBLEManager.stopScan())
-        {
-            stopProgressBar();
-            enableScanButton();
-        }
+        mScanScheduler.stop();
     }
 
     private void showConnectingDialog()
@@ -691,17 +809,24 @@ public class MainActivity extends AppCompatActivity
         });
     }
 
-    //Only adds to the list if not already in it
-    private void addDeviceToList(final String name)
+    private void clearDeviceList()
     {
-        runOnUiThread(new Runnable()
+        mScanRegistry.clear();
+        mDeviceList.clear();
+    }
+
+    //main thread only
+    private void applyScanChanges()
+    {
+        if (mScanRegistry.drainChanges(mScanChanges))
         {
-            @Override
-            public void run()
+            mDeviceList.apply(mScanChanges);
+            for (ScanRegistry.Entry entry : mScanChanges.getAdded())
             {
-                mDeviceList.add(name);
+                mScanScheduler.onNewDevice(entry.getName());
             }
-        });
+            mScanChanges.clear();
+        }
     }
 
     private void updateProgressBar(final boolean start)
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted slice of a {@link BufferPool}.
+ *
+ * A buffer is acquired with one reference held by the caller. Anyone keeping the buffer past the
+ * call it was handed to must {@link #retain()} it and {@link #release()} it when done, the slice
+ * goes back to the pool when the last reference is released. The buffer must not be touched after
+ * the caller's own reference has been released.
+ */
+public final class PooledBuffer
+{
+    private final BufferPool mPool;//null for overflow buffers that are not pooled
+    private final ByteBuffer mBuffer;
+    private final ByteBuffer mView;
+    private final AtomicInteger mRefCount = new AtomicInteger();
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer)
+    {
+        mPool = pool;
+        mBuffer = buffer;
+        mView = buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * The writable buffer. Producers put their data and flip() it before handing the buffer on,
+     * the data between position and limit is what gets written or delivered.
+     */
+    public ByteBuffer buffer()
+    {
+        return mBuffer;
+    }
+
+    /**
+     * Read-only view of the data between the buffer's position and limit. The view is shared by
+     * everyone holding the buffer, use absolute gets or duplicate() it if more than one reader may
+     * move its position.
+     */
+    public ByteBuffer view()
+    {
+        mView.limit(mBuffer.limit());
+        mView.position(mBuffer.position());
+        return mView;
+    }
+
+    public int length()
+    {
+        return mBuffer.remaining();
+    }
+
+    public boolean isPooled()
+    {
+        return mPool != null;
+    }
+
+    public PooledBuffer retain()
+    {
+        int count;
+        do
+        {
+            count = mRefCount.get();
+            if (count <= 0)
+            {
+                throw new IllegalStateException("Buffer already released");
+            }
+        }
+        while (!mRefCount.compareAndSet(count, count + 1));
+
+        return this;
+    }
+
+    public void release()
+    {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0)
+        {
+            if (mPool != null)
+            {
+                mPool.recycle(this);
+            }
+        }
+        else if (count < 0)
+        {
+            mRefCount.incrementAndGet();
+            throw new IllegalStateException("Buffer already released");
+        }
+    }
+
+    //called by the pool when the buffer is handed out
+    void reset()
+    {
+        mBuffer.clear();
+        mRefCount.set(1);
+    }
+}
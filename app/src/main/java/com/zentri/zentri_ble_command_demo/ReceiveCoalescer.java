@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.os.Handler;
+import android.view.Choreographer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffers received stream data for one device and delivers it to the event buses in batches.
+ *
+ * Chunks from the BLE thread are copied into growable ring buffers. A flush is run on the main
+ * thread on the next display frame, or earlier if the pending size reaches the size threshold, or
+ * once the latency threshold expires when no frames are being drawn. Each flush publishes at most
+ * one {@link BLEEvent#STRING_DATA_BATCH} and one {@link BLEEvent#BINARY_DATA_BATCH}.
+ *
+ * Binary batches are drained straight into a {@link PooledBuffer} which listeners can retain, so
+ * nobody has to copy the data out of a reused array.
+ */
+class ReceiveCoalescer
+{
+    static final int DEFAULT_MAX_PENDING_BYTES = 4096;
+    static final long DEFAULT_MAX_LATENCY_MS = 50;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final DeviceSession mSession;
+    private final Handler mHandler;
+    private final Choreographer mChoreographer;
+    private final BufferPool mBufferPool;
+
+    private int mMaxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+    private long mMaxLatencyMs = DEFAULT_MAX_LATENCY_MS;
+    private boolean mFramePaced = true;
+
+    //rings, guarded by this
+    private char[] mChars = new char[INITIAL_CAPACITY];
+    private int mCharHead, mCharSize;
+    private byte[] mBytes = new byte[INITIAL_CAPACITY];
+    private int mByteHead, mByteSize;
+    private int mPendingStringChunks, mPendingBinaryChunks;
+    private boolean mFlushScheduled;
+    private boolean mUrgentFlushPosted;
+
+    //flush output, only touched on the main thread
+    private final StringBuilder mTextOut = new StringBuilder(INITIAL_CAPACITY);
+    private long mStringBatches, mStringChunks;
+    private long mBinaryBatches, mBinaryChunks;
+
+    private final Runnable mFlushTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            flush();
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback()
+    {
+        @Override
+        public void doFrame(long frameTimeNanos)
+        {
+            flush();
+        }
+    };
+
+    /**
+     * @param handler main thread handler, flushes and batch events run on its looper
+     * @param choreographer the main thread choreographer
+     * @param bufferPool binary batches are delivered in buffers from this pool
+     */
+    ReceiveCoalescer(DeviceSession session, Handler handler, Choreographer choreographer,
+                     BufferPool bufferPool)
+    {
+        mSession = session;
+        mHandler = handler;
+        mChoreographer = choreographer;
+        mBufferPool = bufferPool;
+    }
+
+    synchronized void setThresholds(int maxPendingBytes, long maxLatencyMs)
+    {
+        mMaxPendingBytes = maxPendingBytes;
+        mMaxLatencyMs = maxLatencyMs;
+    }
+
+    synchronized void setFramePaced(boolean framePaced)
+    {
+        mFramePaced = framePaced;
+    }
+
+    //called on the BLE thread
+    synchronized void appendString(String data)
+    {
+        int length = data.length();
+        if (mCharSize + length > mChars.length)
+        {
+            growChars(mCharSize + length);
+        }
+
+        int tail = (mCharHead + mCharSize) % mChars.length;
+        int first = Math.min(length, mChars.length - tail);
+        data.getChars(0, first, mChars, tail);
+        data.getChars(first, length, mChars, 0);
+        mCharSize += length;
+        mPendingStringChunks++;
+
+        scheduleFlushLocked();
+    }
+
+    //called on the BLE thread
+    synchronized void appendBinary(byte[] data)
+    {
+        int length = data.length;
+        if (mByteSize + length > mBytes.length)
+        {
+            growBytes(mByteSize + length);
+        }
+
+        int tail = (mByteHead + mByteSize) % mBytes.length;
+        int first = Math.min(length, mBytes.length - tail);
+        System.arraycopy(data, 0, mBytes, tail, first);
+        System.arraycopy(data, first, mBytes, 0, length - first);
+        mByteSize += length;
+        mPendingBinaryChunks++;
+
+        scheduleFlushLocked();
+    }
+
+    //drops anything pending and cancels scheduled flushes, e.g. when the device disconnects
+    synchronized void clear()
+    {
+        cancelFlushLocked();
+        mCharHead = mCharSize = 0;
+        mByteHead = mByteSize = 0;
+        mPendingStringChunks = mPendingBinaryChunks = 0;
+    }
+
+    //must be called on the main thread
+    void flush()
+    {
+        int stringChunks, binaryChunks;
+        PooledBuffer bytesOut = null;
+
+        synchronized (this)
+        {
+            cancelFlushLocked();
+
+            stringChunks = mPendingStringChunks;
+            binaryChunks = mPendingBinaryChunks;
+            mPendingStringChunks = mPendingBinaryChunks = 0;
+
+            if (stringChunks > 0)
+            {
+                mTextOut.setLength(0);
+                int first = Math.min(mCharSize, mChars.length - mCharHead);
+                mTextOut.append(mChars, mCharHead, first);
+                mTextOut.append(mChars, 0, mCharSize - first);
+                mCharHead = mCharSize = 0;
+            }
+
+            if (binaryChunks > 0)
+            {
+                bytesOut = mBufferPool.acquire(mByteSize);
+                ByteBuffer out = bytesOut.buffer();
+                int first = Math.min(mByteSize, mBytes.length - mByteHead);
+                out.put(mBytes, mByteHead, first);
+                out.put(mBytes, 0, mByteSize - first);
+                out.flip();
+                mByteHead = mByteSize = 0;
+            }
+        }
+
+        if (stringChunks > 0)
+        {
+            mStringBatches++;
+            mStringChunks += stringChunks;
+
+            BLEEvent event = mSession.obtain(BLEEvent.STRING_DATA_BATCH);
+            synchronized (event)
+            {
+                event.begin(mSession.getName());
+                event.setText(mTextOut);
+                event.setBatchCounters(stringChunks, mStringBatches, mStringChunks);
+                mSession.publish(event);
+            }
+        }
+
+        if (binaryChunks > 0)
+        {
+            mBinaryBatches++;
+            mBinaryChunks += binaryChunks;
+
+            BLEEvent event = mSession.obtain(BLEEvent.BINARY_DATA_BATCH);
+            synchronized (event)
+            {
+                event.begin(mSession.getName());
+                event.setBuffer(bytesOut);
+                event.setBatchCounters(binaryChunks, mBinaryBatches, mBinaryChunks);
+                mSession.publish(event);
+            }
+
+            //listeners that kept the buffer have retained it
+            bytesOut.release();
+        }
+    }
+
+    private void scheduleFlushLocked()
+    {
+        if (!mFlushScheduled)
+        {
+            mFlushScheduled = true;
+            if (mFramePaced)
+            {
+                mChoreographer.postFrameCallback(mFrameCallback);
+            }
+            //backstop for when no frames are being drawn (e.g. activity in background)
+            mHandler.postDelayed(mFlushTask, mMaxLatencyMs);
+        }
+
+        if (!mUrgentFlushPosted && mCharSize + mByteSize >= mMaxPendingBytes)
+        {
+            mUrgentFlushPosted = true;
+            mHandler.postAtFrontOfQueue(mFlushTask);
+        }
+    }
+
+    private void cancelFlushLocked()
+    {
+        if (mFlushScheduled)
+        {
+            mChoreographer.removeFrameCallback(mFrameCallback);
+            mHandler.removeCallbacks(mFlushTask);
+            mFlushScheduled = false;
+        }
+        mUrgentFlushPosted = false;
+    }
+
+    private void growChars(int minCapacity)
+    {
+        char[] grown = new char[capacityFor(minCapacity, mChars.length)];
+        int first = Math.min(mCharSize, mChars.length - mCharHead);
+        System.arraycopy(mChars, mCharHead, grown, 0, first);
+        System.arraycopy(mChars, 0, grown, first, mCharSize - first);
+        mChars = grown;
+        mCharHead = 0;
+    }
+
+    private void growBytes(int minCapacity)
+    {
+        byte[] grown = new byte[capacityFor(minCapacity, mBytes.length)];
+        int first = Math.min(mByteSize, mBytes.length - mByteHead);
+        System.arraycopy(mBytes, mByteHead, grown, 0, first);
+        System.arraycopy(mBytes, 0, grown, first, mByteSize - first);
+        mBytes = grown;
+        mByteHead = 0;
+    }
+
+    private static int capacityFor(int minCapacity, int current)
+    {
+        int capacity = current;
+        while (capacity < minCapacity)
+        {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
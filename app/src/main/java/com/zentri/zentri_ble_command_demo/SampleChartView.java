@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Line chart of the last {@link #WINDOW_MS} of a sampled channel.
+ *
+ * Samples go through a {@link Decimator} with one bucket per pixel column, so drawing costs at
+ * most two points per column however long the window or fast the sampling. Main thread only.
+ */
+public class SampleChartView extends View
+{
+    public static final long WINDOW_MS = 60000;
+
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private Decimator mDecimator;
+    private long mLatestTimestamp;
+
+    //points and line segments, sized with the decimator so drawing doesn't allocate
+    private long[] mTimestamps = new long[0];
+    private int[] mValues = new int[0];
+    private float[] mLines = new float[0];
+
+    public SampleChartView(Context context, AttributeSet attrs)
+    {
+        super(context, attrs);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeWidth(2 * getResources().getDisplayMetrics().density);
+        mPaint.setColor(getResources().getColor(R.color.zentri_orange));
+    }
+
+    //a batch as delivered by SamplingScheduler.Listener
+    public void append(long[] timestamps, int[] values, int count)
+    {
+        if (count == 0)
+        {
+            return;
+        }
+
+        if (mDecimator != null)
+        {
+            mDecimator.append(timestamps, values, count);
+        }
+        mLatestTimestamp = Math.max(mLatestTimestamp, timestamps[count - 1]);
+        invalidate();
+    }
+
+    public void clear()
+    {
+        if (mDecimator != null)
+        {
+            mDecimator.clear();
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh)
+    {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        //samples from before a resize are dropped, the chart refills as new ones arrive
+        int columns = w - getPaddingLeft() - getPaddingRight();
+        mDecimator = columns > 0 ? new Decimator(columns, WINDOW_MS) : null;
+        if (mDecimator != null)
+        {
+            int points = mDecimator.getMaxPoints();
+            mTimestamps = new long[points];
+            mValues = new int[points];
+            mLines = new float[(points - 1) * 4];
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas)
+    {
+        super.onDraw(canvas);
+        if (mDecimator == null)
+        {
+            return;
+        }
+
+        int count = mDecimator.getPoints(mTimestamps, mValues);
+        if (count < 2)
+        {
+            return;
+        }
+
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++)
+        {
+            min = Math.min(min, mValues[i]);
+            max = Math.max(max, mValues[i]);
+        }
+        float range = Math.max(1, max - min);
+
+        float left = getPaddingLeft();
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float bottom = getHeight() - getPaddingBottom();
+        float height = bottom - getPaddingTop();
+        long start = mLatestTimestamp - WINDOW_MS;
+
+        int lines = 0;
+        float lastX = 0, lastY = 0;
+        for (int i = 0; i < count; i++)
+        {
+            float x = left + width * (mTimestamps[i] - start) / WINDOW_MS;
+            float y = bottom - height * (mValues[i] - min) / range;
+            if (i > 0)
+            {
+                mLines[lines++] = lastX;
+                mLines[lines++] = lastY;
+                mLines[lines++] = x;
+                mLines[lines++] = y;
+            }
+            lastX = x;
+            lastY = y;
+        }
+        canvas.drawLines(mLines, 0, lines, mPaint);
+    }
+}
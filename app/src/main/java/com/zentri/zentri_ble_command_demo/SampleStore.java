@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Time-series storage for sampled sensor data, one append-only series per device channel.
+ *
+ * Series live in root/device/channel/ as memory-mapped segment files, see {@link SeriesWriter}
+ * and {@link SeriesReader}.
+ */
+public class SampleStore
+{
+    public static final int DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+
+    private final File mRoot;
+    private final int mSegmentBytes;
+    private final HashMap<String, SeriesWriter> mWriters = new HashMap<>();
+
+    public SampleStore(File root)
+    {
+        this(root, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public SampleStore(File root, int segmentBytes)
+    {
+        mRoot = root;
+        mSegmentBytes = segmentBytes;
+    }
+
+    //the writer for a series, created on first use and kept open until close()
+    public synchronized SeriesWriter getWriter(String deviceName, int channel) throws IOException
+    {
+        String key = seriesPath(deviceName, channel);
+        SeriesWriter writer = mWriters.get(key);
+        if (writer == null)
+        {
+            writer = new SeriesWriter(new File(mRoot, key), mSegmentBytes);
+            mWriters.put(key, writer);
+        }
+        return writer;
+    }
+
+    public SeriesReader getReader(String deviceName, int channel)
+    {
+        return new SeriesReader(new File(mRoot, seriesPath(deviceName, channel)));
+    }
+
+    public synchronized void flush()
+    {
+        for (SeriesWriter writer : mWriters.values())
+        {
+            writer.flush();
+        }
+    }
+
+    public synchronized void close()
+    {
+        for (SeriesWriter writer : mWriters.values())
+        {
+            writer.close();
+        }
+        mWriters.clear();
+    }
+
+    private static String seriesPath(String deviceName, int channel)
+    {
+        //device names are user set, keep them to safe file name characters
+        return deviceName.replaceAll("[^A-Za-z0-9._-]", "_") + File.separator + channel;
+    }
+}
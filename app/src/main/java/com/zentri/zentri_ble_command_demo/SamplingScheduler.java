@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Polls ADC and GPIO pins on one device at a target rate.
+ *
+ * Every tick sends one read per channel through the session's {@link CommandClient}, with at most
+ * {@link #getMaxOutstanding()} reads outstanding at once, ticks that would exceed this are
+ * skipped. The rate adapts between the min and max rate: it rises above the target while the
+ * signal is changing and is capped by what the measured round-trip time allows, so it drops when
+ * the link slows down.
+ *
+ * Samples are delivered in per-channel batches of primitive (timestamp, value) arrays, and can
+ * also be appended to a {@link SampleStore} as they arrive. All methods and listener calls run on
+ * the main thread.
+ */
+public class SamplingScheduler
+{
+    public interface Listener
+    {
+        /**
+         * The arrays are reused, only the first count entries are valid and only during the call.
+         * Timestamps are System.currentTimeMillis() at the estimated time of the reading, wall
+         * clock time so they stay comparable with stored samples from before a reboot.
+         */
+        void onSamples(int channel, long[] timestamps, int[] values, int count);
+    }
+
+    public static final int TYPE_ADC = 0;
+    public static final int TYPE_GPIO = 1;
+
+    public static final float DEFAULT_TARGET_HZ = 2;
+    public static final float DEFAULT_MIN_HZ = 0.5f;
+    public static final float DEFAULT_MAX_HZ = 20;
+    public static final int DEFAULT_MAX_OUTSTANDING = 4;
+    public static final long DEFAULT_DELIVERY_INTERVAL_MS = 100;
+
+    private static final int MAX_CHANNELS = 16;
+    private static final int BATCH_CAPACITY = 64;
+    private static final float EWMA_WEIGHT = 0.2f;
+
+    private static final String TAG = SamplingScheduler.class.getSimpleName();
+
+    private final String mDeviceName;
+    private final CommandClient mClient;
+    private final Handler mHandler;
+    private Listener mListener;
+
+    private float mTargetHz = DEFAULT_TARGET_HZ;
+    private float mMinHz = DEFAULT_MIN_HZ;
+    private float mMaxHz = DEFAULT_MAX_HZ;
+    private int mMaxOutstanding = DEFAULT_MAX_OUTSTANDING;
+    private long mDeliveryIntervalMs = DEFAULT_DELIVERY_INTERVAL_MS;
+    private int mChangeThreshold = 1;
+
+    //channels
+    private final Command[] mCommands = new Command[MAX_CHANNELS];
+    private final int[] mLastValues = new int[MAX_CHANNELS];
+    private final boolean[] mHasValue = new boolean[MAX_CHANNELS];
+    private final long[][] mTimestamps = new long[MAX_CHANNELS][];
+    private final int[][] mValues = new int[MAX_CHANNELS][];
+    private final int[] mCounts = new int[MAX_CHANNELS];
+    private final SeriesWriter[] mWriters = new SeriesWriter[MAX_CHANNELS];
+    private int mChannelCount;
+    private SampleStore mSampleStore;
+
+    //adaptation
+    private float mRttMs;//ewma, 0 until the first sample
+    private float mActivity;//ewma of the share of samples that changed, 0..1
+    private float mCurrentHz = DEFAULT_TARGET_HZ;
+
+    private boolean mRunning;
+    private long mNextTick;//uptimeMillis, ticks are scheduled at a fixed rate rather than delay
+    private int mOutstanding;
+    private long mSkippedTicks;
+    private long mSamples;
+
+    private final Runnable mTickTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            tick();
+        }
+    };
+
+    private final Runnable mDeliverTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            deliver();
+            if (mRunning)
+            {
+                mHandler.postDelayed(this, mDeliveryIntervalMs);
+            }
+        }
+    };
+
+    SamplingScheduler(String deviceName, CommandClient client, Handler handler)
+    {
+        mDeviceName = deviceName;
+        mClient = client;
+        mHandler = handler;
+    }
+
+    //null for none, e.g. once the screen showing the samples has gone
+    public void setListener(Listener listener)
+    {
+        mListener = listener;
+    }
+
+    //every sample is also appended to the store, under this device and the channel number
+    public void setSampleStore(SampleStore store)
+    {
+        mSampleStore = store;
+        for (int channel = 0; channel < mChannelCount; channel++)
+        {
+            openWriter(channel);
+        }
+    }
+
+    /**
+     * @param type TYPE_ADC or TYPE_GPIO
+     * @return the channel number passed to the listener
+     */
+    public int addChannel(int type, int gpio)
+    {
+        if (mChannelCount == MAX_CHANNELS)
+        {
+            throw new IllegalStateException("Too many channels");
+        }
+
+        int channel = mChannelCount++;
+        mCommands[channel] = type == TYPE_ADC ? Command.adc(gpio) : Command.gpioGet(gpio);
+        mTimestamps[channel] = new long[BATCH_CAPACITY];
+        mValues[channel] = new int[BATCH_CAPACITY];
+        openWriter(channel);
+        return channel;
+    }
+
+    public void clearChannels()
+    {
+        stop();
+        for (int i = 0; i < mChannelCount; i++)
+        {
+            mCommands[i] = null;
+            mWriters[i] = null;
+            mHasValue[i] = false;
+            mCounts[i] = 0;
+        }
+        mChannelCount = 0;
+    }
+
+    /**
+     * @param targetHz rate while the signal is steady
+     * @param minHz lowest rate when round trips are slow
+     * @param maxHz highest rate when the signal is changing
+     */
+    public void setRates(float targetHz, float minHz, float maxHz)
+    {
+        mMinHz = minHz;
+        mMaxHz = Math.max(minHz, maxHz);
+        mTargetHz = Math.max(mMinHz, Math.min(mMaxHz, targetHz));
+        mCurrentHz = mTargetHz;
+    }
+
+    public void setMaxOutstanding(int maxOutstanding)
+    {
+        mMaxOutstanding = Math.max(1, maxOutstanding);
+    }
+
+    public int getMaxOutstanding()
+    {
+        return mMaxOutstanding;
+    }
+
+    //smallest change between two samples that counts as the signal changing
+    public void setChangeThreshold(int changeThreshold)
+    {
+        mChangeThreshold = changeThreshold;
+    }
+
+    public void setDeliveryInterval(long deliveryIntervalMs)
+    {
+        mDeliveryIntervalMs = deliveryIntervalMs;
+    }
+
+    public void start()
+    {
+        if (!mRunning && mChannelCount > 0)
+        {
+            mRunning = true;
+            mNextTick = SystemClock.uptimeMillis();
+            mHandler.post(mTickTask);
+            mHandler.postDelayed(mDeliverTask, mDeliveryIntervalMs);
+        }
+    }
+
+    //pending samples are delivered, reads still outstanding are ignored when they complete
+    public void stop()
+    {
+        if (mRunning)
+        {
+            mRunning = false;
+            mHandler.removeCallbacks(mTickTask);
+            mHandler.removeCallbacks(mDeliverTask);
+            deliver();
+        }
+    }
+
+    public boolean isRunning()
+    {
+        return mRunning;
+    }
+
+    public float getCurrentRate()
+    {
+        return mCurrentHz;
+    }
+
+    public float getRoundTripTime()
+    {
+        return mRttMs;
+    }
+
+    public long getSampleCount()
+    {
+        return mSamples;
+    }
+
+    //ticks skipped because the outstanding limit was reached
+    public long getSkippedTicks()
+    {
+        return mSkippedTicks;
+    }
+
+    private void tick()
+    {
+        if (!mRunning)
+        {
+            return;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+
+        if (mOutstanding + mChannelCount <= Math.max(mMaxOutstanding, mChannelCount))
+        {
+            for (int channel = 0; channel < mChannelCount; channel++)
+            {
+                sample(channel, start);
+            }
+        }
+        else
+        {
+            mSkippedTicks++;
+        }
+
+        //fixed rate, but don't try to catch up on ticks missed while the main thread was busy
+        mNextTick = Math.max(mNextTick + (long)(1000 / mCurrentHz), SystemClock.uptimeMillis());
+        mHandler.postAtTime(mTickTask, mNextTick);
+    }
+
+    private void sample(final int channel, final long sent)
+    {
+        mOutstanding++;
+        final Command command = mCommands[channel];
+
+        mClient.submit(command).addCallback(new CommandFuture.Callback()
+        {
+            @Override
+            public void onComplete(CommandFuture future)
+            {
+                mOutstanding--;
+                if (!mRunning || mCommands[channel] != command)
+                {
+                    return;
+                }
+
+                long now = SystemClock.elapsedRealtime();
+                long rtt = now - sent;
+                mRttMs = mRttMs == 0 ? rtt : mRttMs + EWMA_WEIGHT * (rtt - mRttMs);
+
+                if (future.isSuccess())
+                {
+                    try
+                    {
+                        record(channel, System.currentTimeMillis() - rtt / 2,
+                               parseValue(future.getData()));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        //unexpected response, drop the sample
+                    }
+                }
+
+                adaptRate();
+            }
+        });
+    }
+
+    private void record(int channel, long timestamp, int value)
+    {
+        if (mHasValue[channel])
+        {
+            float changed = Math.abs(value - mLastValues[channel]) >= mChangeThreshold ? 1 : 0;
+            mActivity += EWMA_WEIGHT * (changed - mActivity);
+        }
+        mLastValues[channel] = value;
+        mHasValue[channel] = true;
+
+        int count = mCounts[channel];
+        mTimestamps[channel][count] = timestamp;
+        mValues[channel][count] = value;
+        mCounts[channel] = ++count;
+        mSamples++;
+
+        if (mWriters[channel] != null)
+        {
+            try
+            {
+                mWriters[channel].append(timestamp, value);
+            }
+            catch (IOException e)
+            {
+                Log.e(TAG, "Failed to store sample, storage stopped for channel " + channel, e);
+                mWriters[channel] = null;
+            }
+        }
+
+        if (count == BATCH_CAPACITY)
+        {
+            deliver(channel);
+        }
+    }
+
+    private void openWriter(int channel)
+    {
+        mWriters[channel] = null;
+        if (mSampleStore != null)
+        {
+            try
+            {
+                mWriters[channel] = mSampleStore.getWriter(mDeviceName, channel);
+            }
+            catch (IOException e)
+            {
+                Log.e(TAG, "Unable to open sample store for channel " + channel, e);
+            }
+        }
+    }
+
+    private void adaptRate()
+    {
+        //steady signals run at the target, a constantly changing one at the max
+        float wanted = mTargetHz + (mMaxHz - mTargetHz) * mActivity;
+
+        //each tick is one read per channel, and only mMaxOutstanding reads fit in one round trip
+        if (mRttMs > 0)
+        {
+            float supported = 1000f * Math.max(mMaxOutstanding, mChannelCount)
+                              / (mRttMs * mChannelCount);
+            wanted = Math.min(wanted, supported);
+        }
+
+        mCurrentHz = Math.max(mMinHz, Math.min(mMaxHz, wanted));
+    }
+
+    private void deliver()
+    {
+        for (int channel = 0; channel < mChannelCount; channel++)
+        {
+            deliver(channel);
+        }
+    }
+
+    private void deliver(int channel)
+    {
+        int count = mCounts[channel];
+        if (count > 0)
+        {
+            mCounts[channel] = 0;
+            if (mListener != null)
+            {
+                mListener.onSamples(channel, mTimestamps[channel], mValues[channel], count);
+            }
+        }
+    }
+
+    //responses are decimal, or hex with a 0x prefix
+    private static int parseValue(String data)
+    {
+        if (data == null)
+        {
+            throw new NumberFormatException("no data");
+        }
+
+        String trimmed = data.trim();
+        if (trimmed.startsWith("0x") || trimmed.startsWith("0X"))
+        {
+            return (int)Long.parseLong(trimmed.substring(2), 16);
+        }
+        return Integer.parseInt(trimmed);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chain of checks a scan result has to pass before it is recorded, cheapest first: address
+ * deny/allow lists, RSSI floor, unnamed devices, name prefix, then name pattern. Each stage
+ * counts the results it dropped.
+ *
+ * Everything is prepared when configured, the name pattern is compiled once and address lists
+ * are kept as sorted packed addresses, so {@link #accept(long, String, int)} doesn't allocate.
+ * Thread safe, but meant to be called from a single background thread.
+ */
+public class ScanFilter
+{
+    public static final int STAGE_DENIED = 0;
+    public static final int STAGE_NOT_ALLOWED = 1;
+    public static final int STAGE_RSSI = 2;
+    public static final int STAGE_UNNAMED = 3;
+    public static final int STAGE_NAME_PREFIX = 4;
+    public static final int STAGE_NAME_PATTERN = 5;
+    public static final int STAGE_COUNT = 6;
+
+    private static final String[] STAGE_NAMES = {
+            "denied", "not allowed", "rssi", "unnamed", "name prefix", "name pattern"
+    };
+
+    private static final long[] NO_ADDRESSES = new long[0];
+
+    private long[] mDenied = NO_ADDRESSES;
+    private long[] mAllowed;//null allows every address
+    private int mMinRssi = Integer.MIN_VALUE;
+    private boolean mRejectUnnamed = true;
+    private String mNamePrefix;
+    private Matcher mNameMatcher;//reset for each name instead of allocating
+
+    private final long[] mDropped = new long[STAGE_COUNT];
+    private long mPassed;
+
+    public synchronized void setDeniedAddresses(Collection<String> addresses)
+    {
+        mDenied = addresses != null ? toSortedKeys(addresses) : NO_ADDRESSES;
+    }
+
+    //only these addresses pass, null to allow all
+    public synchronized void setAllowedAddresses(Collection<String> addresses)
+    {
+        mAllowed = addresses != null ? toSortedKeys(addresses) : null;
+    }
+
+    //results weaker than minRssi dBm are dropped, results with unknown RSSI always pass
+    public synchronized void setMinRssi(int minRssi)
+    {
+        mMinRssi = minRssi;
+    }
+
+    //drop results with no name, or with the address as name, on by default
+    public synchronized void setRejectUnnamed(boolean reject)
+    {
+        mRejectUnnamed = reject;
+    }
+
+    //case sensitive, null for any name
+    public synchronized void setNamePrefix(String prefix)
+    {
+        mNamePrefix = prefix;
+    }
+
+    /**
+     * Names must match regex as a whole, null for any name.
+     * @throws java.util.regex.PatternSyntaxException if regex is invalid
+     */
+    public synchronized void setNamePattern(String regex)
+    {
+        mNameMatcher = regex != null ? Pattern.compile(regex).matcher("") : null;
+    }
+
+    /**
+     * @param address packed address from {@link ScanRegistry#parseAddress(String)}
+     * @param rssi signal strength in dBm, or {@link ScanRegistry#RSSI_UNKNOWN}
+     * @return true if the result passed every stage
+     */
+    public synchronized boolean accept(long address, String name, int rssi)
+    {
+        int stage = check(address, name, rssi);
+
+        if (stage < 0)
+        {
+            mPassed++;
+            return true;
+        }
+        mDropped[stage]++;
+        return false;
+    }
+
+    public synchronized long getDropped(int stage)
+    {
+        return mDropped[stage];
+    }
+
+    public synchronized long getPassed()
+    {
+        return mPassed;
+    }
+
+    public synchronized void resetCounters()
+    {
+        Arrays.fill(mDropped, 0);
+        mPassed = 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder sb = new StringBuilder("passed ").append(mPassed);
+        for (int i = 0; i < STAGE_COUNT; i++)
+        {
+            sb.append(", ").append(STAGE_NAMES[i]).append(' ').append(mDropped[i]);
+        }
+        return sb.toString();
+    }
+
+    //names the module didn't set show up as the address
+    static boolean isMacAddress(String name)
+    {
+        return ScanRegistry.parseAddress(name) >= 0;
+    }
+
+    //returns the stage that dropped the result, or -1
+    private int check(long address, String name, int rssi)
+    {
+        if (Arrays.binarySearch(mDenied, address) >= 0)
+        {
+            return STAGE_DENIED;
+        }
+        if (mAllowed != null && Arrays.binarySearch(mAllowed, address) < 0)
+        {
+            return STAGE_NOT_ALLOWED;
+        }
+        if (rssi != ScanRegistry.RSSI_UNKNOWN && rssi < mMinRssi)
+        {
+            return STAGE_RSSI;
+        }
+        if (mRejectUnnamed && (name == null || isMacAddress(name)))
+        {
+            return STAGE_UNNAMED;
+        }
+        if (mNamePrefix != null && (name == null || !name.startsWith(mNamePrefix)))
+        {
+            return STAGE_NAME_PREFIX;
+        }
+        if (mNameMatcher != null && (name == null || !mNameMatcher.reset(name).matches()))
+        {
+            return STAGE_NAME_PATTERN;
+        }
+        return -1;
+    }
+
+    private static long[] toSortedKeys(Collection<String> addresses)
+    {
+        long[] keys = new long[addresses.size()];
+        int count = 0;
+        for (String address : addresses)
+        {
+            long key = ScanRegistry.parseAddress(address);
+            if (key >= 0)
+            {
+                keys[count++] = key;
+            }
+        }
+        keys = Arrays.copyOf(keys, count);
+        Arrays.sort(keys);
+        return keys;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every device seen while scanning, keyed by its MAC address packed into a long.
+ *
+ * A repeated advertisement is one hash lookup with no allocation. Changes are not pushed per
+ * advertisement, they collect until the UI takes them with {@link #drainChanges(ChangeSet)}, so a
+ * device advertising many times between two drains is reported once. Devices not seen for the
+ * TTL are dropped by {@link #evictStale(long)}. Thread safe, updates normally come from the BLE
+ * thread and drains from the main thread.
+ */
+public class ScanRegistry
+{
+    //no RSSI known, same value Android uses in ScanResult
+    public static final int RSSI_UNKNOWN = 127;
+    public static final long DEFAULT_TTL_MS = 10000;
+
+    private static final int CHANGE_NONE = 0;
+    private static final int CHANGE_ADDED = 1;
+    private static final int CHANGE_UPDATED = 2;
+    private static final int CHANGE_EVICTED = 3;//still in mChanged, skipped by the drain
+
+    public interface Listener
+    {
+        //called once when changes become pending after a drain, on the thread that made them
+        void onChangesPending();
+    }
+
+    public static class Entry
+    {
+        private final long mKey;
+        private final String mAddress;
+        private String mName;
+        private int mRssi;
+        private final long mFirstSeen;
+        private long mLastSeen;
+        private int mSeenCount;
+        private int mChange;
+
+        Entry(long key, String address, long now)
+        {
+            mKey = key;
+            mAddress = address;
+            mFirstSeen = now;
+        }
+
+        //snapshot handed out in change sets, the registry keeps updating the original
+        Entry(Entry other)
+        {
+            mKey = other.mKey;
+            mAddress = other.mAddress;
+            mName = other.mName;
+            mRssi = other.mRssi;
+            mFirstSeen = other.mFirstSeen;
+            mLastSeen = other.mLastSeen;
+            mSeenCount = other.mSeenCount;
+        }
+
+        public long getKey()
+        {
+            return mKey;
+        }
+
+        public String getAddress()
+        {
+            return mAddress;
+        }
+
+        //null until the device advertises a name
+        public String getName()
+        {
+            return mName;
+        }
+
+        public int getRssi()
+        {
+            return mRssi;
+        }
+
+        public long getFirstSeen()
+        {
+            return mFirstSeen;
+        }
+
+        public long getLastSeen()
+        {
+            return mLastSeen;
+        }
+
+        public int getSeenCount()
+        {
+            return mSeenCount;
+        }
+    }
+
+    /**
+     * Changes since the previous drain. Added entries were not reported before, updated entries
+     * changed name or RSSI and removed entries were evicted. Reusable, drains clear it first.
+     */
+    public static class ChangeSet
+    {
+        private final ArrayList<Entry> mAdded = new ArrayList<>();
+        private final ArrayList<Entry> mUpdated = new ArrayList<>();
+        private final ArrayList<Entry> mRemoved = new ArrayList<>();
+
+        public List<Entry> getAdded()
+        {
+            return mAdded;
+        }
+
+        public List<Entry> getUpdated()
+        {
+            return mUpdated;
+        }
+
+        public List<Entry> getRemoved()
+        {
+            return mRemoved;
+        }
+
+        public boolean isEmpty()
+        {
+            return mAdded.isEmpty() && mUpdated.isEmpty() && mRemoved.isEmpty();
+        }
+
+        public void clear()
+        {
+            mAdded.clear();
+            mUpdated.clear();
+            mRemoved.clear();
+        }
+    }
+
+    private final LongObjectMap<Entry> mEntries;
+    private final long mTtlMs;
+    private final ArrayList<Entry> mChanged = new ArrayList<>();//entries with mChange set
+    private final ArrayList<Entry> mRemoved = new ArrayList<>();
+    private long[] mStaleKeys = new long[16];
+    private Listener mListener;
+    private boolean mPending;
+
+    public ScanRegistry()
+    {
+        this(DEFAULT_TTL_MS, 64);
+    }
+
+    public ScanRegistry(long ttlMs, int expectedDevices)
+    {
+        mTtlMs = ttlMs;
+        mEntries = new LongObjectMap<>(expectedDevices);
+    }
+
+    public synchronized void setListener(Listener listener)
+    {
+        mListener = listener;
+    }
+
+    /**
+     * Records one scan result. Results without a valid address are ignored.
+     * @param rssi signal strength in dBm, or RSSI_UNKNOWN
+     * @param now time in ms, from the same clock as evictStale()
+     */
+    public void update(String address, String name, int rssi, long now)
+    {
+        long key = parseAddress(address);
+        if (key < 0)
+        {
+            return;
+        }
+
+        Listener listener;
+        synchronized (this)
+        {
+            Entry entry = mEntries.get(key);
+            if (entry == null)
+            {
+                entry = new Entry(key, address, now);
+                entry.mName = name;
+                entry.mRssi = rssi;
+                entry.mChange = CHANGE_ADDED;
+                mEntries.put(key, entry);
+                mChanged.add(entry);
+                //evicted and back before the drain, the list still shows it so don't remove it
+                if (!mRemoved.isEmpty())
+                {
+                    removeStaleLocked(key);
+                }
+            }
+            else
+            {
+                //a scan result without a name doesn't clear one seen earlier
+                boolean nameChanged = name != null && !name.equals(entry.mName);
+                boolean rssiChanged = rssi != RSSI_UNKNOWN && rssi != entry.mRssi;
+                if (nameChanged)
+                {
+                    entry.mName = name;
+                }
+                if (rssiChanged)
+                {
+                    entry.mRssi = rssi;
+                }
+                if ((nameChanged || rssiChanged) && entry.mChange == CHANGE_NONE)
+                {
+                    entry.mChange = CHANGE_UPDATED;
+                    mChanged.add(entry);
+                }
+            }
+            entry.mLastSeen = now;
+            entry.mSeenCount++;
+
+            listener = markPending();
+        }
+
+        if (listener != null)
+        {
+            listener.onChangesPending();
+        }
+    }
+
+    /**
+     * Removes devices last seen more than the TTL before now. Only call while scanning, otherwise
+     * every device ages out.
+     * @return number of devices removed
+     */
+    public int evictStale(long now)
+    {
+        Listener listener;
+        int count = 0;
+        synchronized (this)
+        {
+            //collect first, the map can't be modified while walking its slots
+            long oldest = now - mTtlMs;
+            for (int slot = 0; slot < mEntries.capacity(); slot++)
+            {
+                Entry entry = mEntries.valueAt(slot);
+                if (entry != null && entry.mLastSeen < oldest)
+                {
+                    if (count == mStaleKeys.length)
+                    {
+                        long[] keys = new long[count * 2];
+                        System.arraycopy(mStaleKeys, 0, keys, 0, count);
+                        mStaleKeys = keys;
+                    }
+                    mStaleKeys[count++] = mEntries.keyAt(slot);
+                }
+            }
+
+            for (int i = 0; i < count; i++)
+            {
+                Entry entry = mEntries.remove(mStaleKeys[i]);
+                //never reported, so nothing to take back
+                if (entry.mChange != CHANGE_ADDED)
+                {
+                    mRemoved.add(entry);
+                }
+                entry.mChange = CHANGE_EVICTED;
+            }
+
+            listener = count > 0 ? markPending() : null;
+        }
+
+        if (listener != null)
+        {
+            listener.onChangesPending();
+        }
+        return count;
+    }
+
+    //moves the pending changes into out, returns false if there were none
+    public synchronized boolean drainChanges(ChangeSet out)
+    {
+        out.clear();
+        for (Entry entry : mChanged)
+        {
+            if (entry.mChange == CHANGE_ADDED)
+            {
+                out.mAdded.add(new Entry(entry));
+                entry.mChange = CHANGE_NONE;
+            }
+            else if (entry.mChange == CHANGE_UPDATED)
+            {
+                out.mUpdated.add(new Entry(entry));
+                entry.mChange = CHANGE_NONE;
+            }
+        }
+        out.mRemoved.addAll(mRemoved);
+
+        mChanged.clear();
+        mRemoved.clear();
+        mPending = false;
+        return !out.isEmpty();
+    }
+
+    //forgets every device without reporting removals, for when the list is cleared as well
+    public synchronized void clear()
+    {
+        mEntries.clear();
+        mChanged.clear();
+        mRemoved.clear();
+        mPending = false;
+    }
+
+    public synchronized int size()
+    {
+        return mEntries.size();
+    }
+
+    public synchronized Entry get(String address)
+    {
+        Entry entry = mEntries.get(parseAddress(address));
+        return entry != null ? new Entry(entry) : null;
+    }
+
+    /**
+     * Packs an address of the form 01:23:45:67:89:AB into the low 48 bits of a long.
+     * @return the packed address or -1 if it is null or malformed
+     */
+    public static long parseAddress(String address)
+    {
+        if (address == null || address.length() != 17)
+        {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = 0; i < 17; i++)
+        {
+            char c = address.charAt(i);
+            if (i % 3 == 2)
+            {
+                if (c != ':')
+                {
+                    return -1;
+                }
+            }
+            else
+            {
+                int digit = Character.digit(c, 16);
+                if (digit < 0)
+                {
+                    return -1;
+                }
+                value = (value << 4) | digit;
+            }
+        }
+        return value;
+    }
+
+    //inverse of parseAddress(), upper case hex
+    public static String formatAddress(long key)
+    {
+        StringBuilder sb = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8)
+        {
+            int octet = (int)(key >>> shift) & 0xFF;
+            sb.append(Character.toUpperCase(Character.forDigit(octet >> 4, 16)));
+            sb.append(Character.toUpperCase(Character.forDigit(octet & 0xF, 16)));
+            if (shift > 0)
+            {
+                sb.append(':');
+            }
+        }
+        return sb.toString();
+    }
+
+    private void removeStaleLocked(long key)
+    {
+        for (int i = 0; i < mRemoved.size(); i++)
+        {
+            if (mRemoved.get(i).mKey == key)
+            {
+                mRemoved.remove(i);
+                return;
+            }
+        }
+    }
+
+    private Listener markPending()
+    {
+        if (mPending || (mChanged.isEmpty() && mRemoved.isEmpty()))
+        {
+            return null;
+        }
+        mPending = true;
+        return mListener;
+    }
+}
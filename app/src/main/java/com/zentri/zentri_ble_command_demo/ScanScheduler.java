@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Runs scans as sessions instead of for a fixed period.
+ *
+ * A session scans in windows set by its {@link Profile}, with the radio off between windows for
+ * duty cycled profiles. It ends early once no new device has turned up for the profile's stable
+ * time, or as soon as the target device is seen, and at the latest after the profile's maximum
+ * session time. Sessions that ended stable or timed out are resumed automatically, the delay
+ * doubling each time nothing new was found, up to {@link #MAX_RESUME_DELAY_MS}.
+ *
+ * Each session measures the time to the first new device and to the target. All methods and
+ * listener calls run on the main thread, except {@link #isTarget(String)}.
+ */
+public class ScanScheduler
+{
+    public interface Scanner
+    {
+        //return false if the scan could not be started or stopped
+        boolean startScan();
+        boolean stopScan();
+    }
+
+    public interface Listener
+    {
+        void onSessionStarted();
+
+        //radio on or off, several times per session with duty cycled profiles
+        void onScanningChanged(boolean scanning);
+
+        void onSessionEnded(int reason);
+    }
+
+    public static final int END_STOPPED = 0;
+    public static final int END_STABLE = 1;
+    public static final int END_TARGET_FOUND = 2;
+    public static final int END_TIMEOUT = 3;
+    public static final int END_FAILED = 4;
+
+    public static final long MAX_RESUME_DELAY_MS = 5 * 60 * 1000;
+
+    public static class Profile
+    {
+        //scan all the time, stop quickly once the list settles, for when the user is waiting
+        public static final Profile BURST =
+                new Profile("burst", 1000, 1000, 3000, 15000, 10000);
+        //radio on two thirds of the time
+        public static final Profile BALANCED =
+                new Profile("balanced", 4000, 6000, 6000, 30000, 30000);
+        //radio on a fifth of the time, for watching a slowly changing area
+        public static final Profile LOW_POWER =
+                new Profile("low power", 2000, 10000, 20000, 60000, 120000);
+
+        private final String mName;
+        private final long mWindowMs;
+        private final long mIntervalMs;
+        private final long mStableMs;
+        private final long mMaxSessionMs;
+        private final long mResumeDelayMs;
+
+        /**
+         * @param windowMs radio on time in every interval, equal to intervalMs to scan continuously
+         * @param stableMs session ends once no new device was seen for this long
+         * @param resumeDelayMs first delay before an automatic resume, 0 to never resume
+         */
+        public Profile(String name, long windowMs, long intervalMs, long stableMs,
+                       long maxSessionMs, long resumeDelayMs)
+        {
+            mName = name;
+            mWindowMs = windowMs;
+            mIntervalMs = Math.max(windowMs, intervalMs);
+            mStableMs = stableMs;
+            mMaxSessionMs = maxSessionMs;
+            mResumeDelayMs = resumeDelayMs;
+        }
+
+        public String getName()
+        {
+            return mName;
+        }
+
+        public long getWindowMs()
+        {
+            return mWindowMs;
+        }
+
+        public long getIntervalMs()
+        {
+            return mIntervalMs;
+        }
+
+        public long getStableMs()
+        {
+            return mStableMs;
+        }
+
+        public long getMaxSessionMs()
+        {
+            return mMaxSessionMs;
+        }
+
+        public long getResumeDelayMs()
+        {
+            return mResumeDelayMs;
+        }
+
+        public boolean isContinuous()
+        {
+            return mWindowMs >= mIntervalMs;
+        }
+    }
+
+    private final Scanner mScanner;
+    private final Handler mHandler;
+    private Listener mListener;
+    private Profile mProfile = Profile.BALANCED;
+    private volatile String mTarget;
+
+    private boolean mActive;//in a session, whether or not the radio is on right now
+    private boolean mScanning;
+    private long mSessionStart;
+    private long mLastNewDevice;
+    private int mSessionNewDevices;
+    private long mResumeDelayMs;
+
+    //metrics, ms from session start, -1 if it didn't happen
+    private long mTimeToFirstResult = -1;
+    private long mTimeToTarget = -1;
+    private int mSessionCount;
+
+    private final Runnable mWindowTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            onWindowTick();
+        }
+    };
+
+    private final Runnable mResumeTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            startSession();
+        }
+    };
+
+    public ScanScheduler(Scanner scanner, Handler handler)
+    {
+        mScanner = scanner;
+        mHandler = handler;
+    }
+
+    public void setListener(Listener listener)
+    {
+        mListener = listener;
+    }
+
+    //takes effect from the next session
+    public void setProfile(Profile profile)
+    {
+        mProfile = profile;
+    }
+
+    public Profile getProfile()
+    {
+        return mProfile;
+    }
+
+    //device name that ends a session as soon as it is seen, null for none
+    public void setTarget(String deviceName)
+    {
+        mTarget = deviceName;
+    }
+
+    public String getTarget()
+    {
+        return mTarget;
+    }
+
+    //any thread, e.g. to only post the sightings that matter to the main thread
+    public boolean isTarget(String deviceName)
+    {
+        String target = mTarget;
+        return target != null && target.equals(deviceName);
+    }
+
+    //starts a session now, restarting any running one, and resets the resume back-off
+    public void start()
+    {
+        mResumeDelayMs = mProfile.getResumeDelayMs();
+        if (mActive)
+        {
+            endSession(END_STOPPED);
+        }
+        mHandler.removeCallbacks(mResumeTask);
+        startSession();
+    }
+
+    //ends the session and cancels any automatic resume, e.g. while connecting
+    public void stop()
+    {
+        mHandler.removeCallbacks(mResumeTask);
+        if (mActive)
+        {
+            endSession(END_STOPPED);
+        }
+    }
+
+    public boolean isActive()
+    {
+        return mActive;
+    }
+
+    public boolean isScanning()
+    {
+        return mScanning;
+    }
+
+    /**
+     * Call for each device not seen before in the session, i.e. added to the scan registry. The
+     * target is checked by {@link #onDeviceSeen(String)} instead, it may be listed already.
+     */
+    public void onNewDevice(String deviceName)
+    {
+        if (!mActive)
+        {
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        mLastNewDevice = now;
+        mSessionNewDevices++;
+        if (mTimeToFirstResult < 0)
+        {
+            mTimeToFirstResult = now - mSessionStart;
+        }
+    }
+
+    //call for every scan result, whether or not the device was new, ends the session on the target
+    public void onDeviceSeen(String deviceName)
+    {
+        if (mActive && isTarget(deviceName))
+        {
+            mTimeToTarget = SystemClock.uptimeMillis() - mSessionStart;
+            endSession(END_TARGET_FOUND);
+        }
+    }
+
+    //time from the start of the current or last session to its first new device, or -1
+    public long getTimeToFirstResult()
+    {
+        return mTimeToFirstResult;
+    }
+
+    //time from the start of the current or last session to the target being seen, or -1
+    public long getTimeToTarget()
+    {
+        return mTimeToTarget;
+    }
+
+    public int getSessionCount()
+    {
+        return mSessionCount;
+    }
+
+    private void startSession()
+    {
+        mActive = true;
+        mSessionStart = SystemClock.uptimeMillis();
+        mLastNewDevice = mSessionStart;
+        mSessionNewDevices = 0;
+        mTimeToFirstResult = -1;
+        mTimeToTarget = -1;
+        mSessionCount++;
+
+        if (mListener != null)
+        {
+            mListener.onSessionStarted();
+        }
+
+        if (!setScanning(true))
+        {
+            endSession(END_FAILED);
+            return;
+        }
+        mHandler.postDelayed(mWindowTask, nextCheckDelay());
+    }
+
+    private void onWindowTick()
+    {
+        long now = SystemClock.uptimeMillis();
+
+        if (now - mSessionStart >= mProfile.getMaxSessionMs())
+        {
+            endSession(END_TIMEOUT);
+            return;
+        }
+        if (now - mLastNewDevice >= mProfile.getStableMs())
+        {
+            endSession(END_STABLE);
+            return;
+        }
+
+        //duty cycle: position within the current interval decides whether the radio is on
+        if (!mProfile.isContinuous())
+        {
+            long phase = (now - mSessionStart) % mProfile.getIntervalMs();
+            boolean inWindow = phase < mProfile.getWindowMs();
+            if (inWindow != mScanning && !setScanning(inWindow))
+            {
+                endSession(END_FAILED);
+                return;
+            }
+        }
+        mHandler.postDelayed(mWindowTask, nextCheckDelay());
+    }
+
+    //next window edge or stable check, whichever comes first
+    private long nextCheckDelay()
+    {
+        long now = SystemClock.uptimeMillis();
+        long delay = mProfile.getStableMs() - (now - mLastNewDevice);
+
+        if (!mProfile.isContinuous())
+        {
+            long phase = (now - mSessionStart) % mProfile.getIntervalMs();
+            long edge = phase < mProfile.getWindowMs() ? mProfile.getWindowMs() - phase
+                                                       : mProfile.getIntervalMs() - phase;
+            delay = Math.min(delay, edge);
+        }
+
+        delay = Math.min(delay, mProfile.getMaxSessionMs() - (now - mSessionStart));
+        return Math.max(delay, 1);
+    }
+
+    private void endSession(int reason)
+    {
+        mHandler.removeCallbacks(mWindowTask);
+        if (mScanning)
+        {
+            setScanning(false);
+        }
+        mActive = false;
+
+        if (mListener != null)
+        {
+            mListener.onSessionEnded(reason);
+        }
+
+        if ((reason == END_STABLE || reason == END_TIMEOUT) && mProfile.getResumeDelayMs() > 0)
+        {
+            //new devices mean things are changing, look again soon
+            if (mSessionNewDevices > 0 || mResumeDelayMs == 0)
+            {
+                mResumeDelayMs = mProfile.getResumeDelayMs();
+            }
+            mHandler.postDelayed(mResumeTask, mResumeDelayMs);
+            mResumeDelayMs = Math.min(mResumeDelayMs * 2, MAX_RESUME_DELAY_MS);
+        }
+    }
+
+    private boolean setScanning(boolean scanning)
+    {
+        boolean ok = scanning ? mScanner.startScan() : mScanner.stopScan();
+        if (ok || !scanning)
+        {
+            mScanning = scanning;
+            if (mListener != null)
+            {
+                mListener.onScanningChanged(scanning);
+            }
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a time range of samples written by {@link SeriesWriter}.
+ *
+ * Only segments that can overlap the range are mapped, and the first record in range is found by
+ * binary search, so the cost depends on the size of the range rather than of the series. Safe to
+ * use while the writer is still appending, records appended during a scan may or may not be seen.
+ */
+public class SeriesReader
+{
+    public interface Visitor
+    {
+        //return false to stop the scan
+        boolean onSample(long timestamp, int value);
+    }
+
+    private final File mDir;
+
+    SeriesReader(File dir)
+    {
+        mDir = dir;
+    }
+
+    /**
+     * Calls the visitor for every sample with from <= timestamp <= to, oldest first.
+     * @return number of samples visited
+     */
+    public int scan(long from, long to, Visitor visitor) throws IOException
+    {
+        File[] segments = SeriesWriter.listSegments(mDir);
+        int visited = 0;
+
+        for (int i = 0; i < segments.length; i++)
+        {
+            if (SeriesWriter.firstTimestampOf(segments[i]) > to)
+            {
+                break;
+            }
+            //everything in this segment is at or before the next one's first timestamp
+            if (i + 1 < segments.length && SeriesWriter.firstTimestampOf(segments[i + 1]) < from)
+            {
+                continue;
+            }
+
+            MappedByteBuffer segment = SeriesWriter.map(segments[i], FileChannel.MapMode.READ_ONLY,
+                                                        segments[i].length());
+            if (segment.getInt(0) != SeriesWriter.MAGIC)
+            {
+                continue;
+            }
+
+            int count = segment.getInt(SeriesWriter.COUNT_OFFSET);
+            for (int index = firstAtOrAfter(segment, count, from); index < count; index++)
+            {
+                int position = SeriesWriter.HEADER_SIZE + index * SeriesWriter.RECORD_SIZE;
+                long timestamp = segment.getLong(position);
+                if (timestamp > to)
+                {
+                    return visited;
+                }
+
+                visited++;
+                if (!visitor.onSample(timestamp, segment.getInt(position + 8)))
+                {
+                    return visited;
+                }
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * Copies samples with from <= timestamp <= to into the arrays, oldest first, until they are
+     * full.
+     * @return number of samples copied
+     */
+    public int read(long from, long to, final long[] timestamps, final int[] values)
+            throws IOException
+    {
+        if (timestamps.length == 0)
+        {
+            return 0;
+        }
+
+        final int[] count = new int[1];
+
+        scan(from, to, new Visitor()
+        {
+            @Override
+            public boolean onSample(long timestamp, int value)
+            {
+                timestamps[count[0]] = timestamp;
+                values[count[0]] = value;
+                return ++count[0] < timestamps.length;
+            }
+        });
+
+        return count[0];
+    }
+
+    private static int firstAtOrAfter(MappedByteBuffer segment, int count, long from)
+    {
+        int low = 0, high = count;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            long timestamp = segment.getLong(SeriesWriter.HEADER_SIZE + mid * SeriesWriter.RECORD_SIZE);
+            if (timestamp < from)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
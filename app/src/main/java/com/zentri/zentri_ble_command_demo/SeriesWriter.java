@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Appends (timestamp, value) samples for one device channel to memory-mapped segment files.
+ *
+ * Each segment is a fixed-size file with a 16 byte header (magic, version, record count) followed
+ * by 12 byte records (long timestamp, int value). A segment is mapped once when it is created,
+ * after that an append is two absolute puts and a header update with no allocation or system
+ * call. When a segment is full the next append rolls over to a new one, named after its first
+ * timestamp.
+ *
+ * Segments outlive the process and reboots, so timestamps should be wall clock time rather than
+ * SystemClock.elapsedRealtime(), which restarts at 0. They must not go backwards, earlier ones
+ * (e.g. after the clock is set back) are stored as the last timestamp written so the segments
+ * stay sorted for {@link SeriesReader}. Not thread safe.
+ */
+public class SeriesWriter
+{
+    static final int MAGIC = 0x5A534547;//"ZSEG"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int COUNT_OFFSET = 8;
+    static final int RECORD_SIZE = 12;
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File mDir;
+    private final int mSegmentBytes;
+    private final int mCapacity;//records per segment
+
+    private MappedByteBuffer mSegment;
+    private int mCount;
+    private long mLastTimestamp = Long.MIN_VALUE;
+    private long mAppended;
+
+    /**
+     * Continues the newest segment in dir if it has room left.
+     * @param segmentBytes size of each segment file, including the header
+     */
+    SeriesWriter(File dir, int segmentBytes) throws IOException
+    {
+        mDir = dir;
+        mSegmentBytes = segmentBytes;
+        mCapacity = (segmentBytes - HEADER_SIZE) / RECORD_SIZE;
+
+        if (!dir.isDirectory() && !dir.mkdirs())
+        {
+            throw new IOException("Unable to create " + dir);
+        }
+
+        File[] segments = listSegments(dir);
+        if (segments.length > 0)
+        {
+            File last = segments[segments.length - 1];
+            MappedByteBuffer segment = map(last, FileChannel.MapMode.READ_WRITE, last.length());
+            int count = segment.getInt(COUNT_OFFSET);
+
+            if (segment.getInt(0) == MAGIC && count > 0)
+            {
+                mLastTimestamp = segment.getLong(HEADER_SIZE + (count - 1) * RECORD_SIZE);
+                if (count < (segment.capacity() - HEADER_SIZE) / RECORD_SIZE)
+                {
+                    mSegment = segment;
+                    mCount = count;
+                }
+            }
+        }
+    }
+
+    public void append(long timestamp, int value) throws IOException
+    {
+        if (timestamp < mLastTimestamp)
+        {
+            timestamp = mLastTimestamp;
+        }
+
+        if (mSegment == null || mCount == mCapacity)
+        {
+            roll(timestamp);
+        }
+
+        int position = HEADER_SIZE + mCount * RECORD_SIZE;
+        mSegment.putLong(position, timestamp);
+        mSegment.putInt(position + 8, value);
+        mSegment.putInt(COUNT_OFFSET, ++mCount);//after the record so readers never see a partial one
+
+        mLastTimestamp = timestamp;
+        mAppended++;
+    }
+
+    //samples appended through this writer
+    public long getAppendedCount()
+    {
+        return mAppended;
+    }
+
+    //writes the current segment out to storage, the OS does this by itself eventually
+    public void flush()
+    {
+        if (mSegment != null)
+        {
+            mSegment.force();
+        }
+    }
+
+    public void close()
+    {
+        flush();
+        mSegment = null;//the mapping is released once collected
+    }
+
+    private void roll(long firstTimestamp) throws IOException
+    {
+        flush();
+
+        File file = new File(mDir, firstTimestamp + SEGMENT_SUFFIX);
+        if (file.exists())
+        {
+            //several segments starting in the same millisecond
+            file = new File(mDir, firstTimestamp + "_" + System.nanoTime() + SEGMENT_SUFFIX);
+        }
+
+        mSegment = map(file, FileChannel.MapMode.READ_WRITE, mSegmentBytes);
+        mSegment.putInt(0, MAGIC);
+        mSegment.putInt(4, VERSION);
+        mSegment.putInt(COUNT_OFFSET, 0);
+        mCount = 0;
+    }
+
+    static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file,
+                                                    mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try
+        {
+            if (mode != FileChannel.MapMode.READ_ONLY && raf.length() < size)
+            {
+                raf.setLength(size);
+            }
+            return raf.getChannel().map(mode, 0, size);//stays valid after the file is closed
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    //segments sorted by first timestamp
+    static File[] listSegments(File dir)
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+        {
+            return new File[0];
+        }
+
+        int count = 0;
+        for (File file : files)
+        {
+            if (file.getName().endsWith(SEGMENT_SUFFIX))
+            {
+                files[count++] = file;
+            }
+        }
+
+        File[] segments = Arrays.copyOf(files, count);
+        Arrays.sort(segments, new Comparator<File>()
+        {
+            @Override
+            public int compare(File lhs, File rhs)
+            {
+                long l = firstTimestampOf(lhs), r = firstTimestampOf(rhs);
+                return l < r ? -1 : (l == r ? lhs.getName().compareTo(rhs.getName()) : 1);
+            }
+        });
+        return segments;
+    }
+
+    static long firstTimestampOf(File segment)
+    {
+        String name = segment.getName();
+        int end = name.indexOf('_');
+        if (end < 0)
+        {
+            end = name.length() - SEGMENT_SUFFIX.length();
+        }
+        return Long.parseLong(name.substring(0, end));
+    }
+}
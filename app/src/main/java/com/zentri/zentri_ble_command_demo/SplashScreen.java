@@ -29,6 +29,7 @@ import android.widget.TextView;
 public class SplashScreen extends Activity
 {
     private static final long SPLASH_SCREEN_TIMEOUT_MS = 3000;
+    private static final long RECONNECT_SPLASH_SCREEN_TIMEOUT_MS = 500;
 
     private Handler mHandler;
     private Runnable mTimeoutTask;
@@ -91,7 +92,12 @@ public class SplashScreen extends Activity
     {
         super.onStart();
 
-        mHandler.postDelayed(mTimeoutTask, SPLASH_SCREEN_TIMEOUT_MS);
+        //don't hold up reconnecting to the last device
+        KnownDevices knownDevices = KnownDevices.getInstance(this);
+        boolean reconnect = knownDevices.isReconnectOnLaunch()
+                && knownDevices.getMostRecent() != null;
+        mHandler.postDelayed(mTimeoutTask, reconnect ? RECONNECT_SPLASH_SCREEN_TIMEOUT_MS
+                                                     : SPLASH_SCREEN_TIMEOUT_MS);
     }
 
     @Override
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.os.SystemClock;
+
+/**
+ * Per-device cache of {@link DeviceVariable} values in front of a {@link CommandClient}.
+ *
+ * A read that hits returns an already completed future without talking to the module, a miss is
+ * sent to the module and concurrent reads of the same variable share the one request. Writes
+ * through {@link #set(DeviceVariable, String)} invalidate the entry while in flight and store the
+ * written value once the module has accepted it. Reboot, factory reset and disconnect clear the
+ * whole cache.
+ */
+public class VariableCache
+{
+    private static final int COUNT = DeviceVariable.values().length;
+
+    private final CommandClient mClient;
+
+    //indexed by variable ordinal, guarded by this
+    private final String[] mValues = new String[COUNT];
+    private final long[] mReadTimes = new long[COUNT];
+    private final CommandFuture[] mReads = new CommandFuture[COUNT];
+    //bumped on every invalidation so a read sent before it can't store a stale value
+    private final int[] mGenerations = new int[COUNT];
+
+    private long mHits, mMisses;
+
+    VariableCache(CommandClient client)
+    {
+        mClient = client;
+    }
+
+    public CommandFuture get(final DeviceVariable variable)
+    {
+        final int index = variable.ordinal();
+        final int generation;
+
+        synchronized (this)
+        {
+            String cached = peekLocked(variable);
+            if (cached != null)
+            {
+                mHits++;
+                return mClient.completed(variable.readCommand().getName(), cached);
+            }
+
+            mMisses++;
+            if (mReads[index] != null)
+            {
+                return mReads[index];//already being read
+            }
+            generation = mGenerations[index];
+        }
+
+        CommandFuture read = mClient.submit(variable.readCommand());
+
+        synchronized (this)
+        {
+            if (mGenerations[index] == generation)
+            {
+                mReads[index] = read;
+            }
+        }
+
+        return read.addCallback(new CommandFuture.Callback()
+        {
+            @Override
+            public void onComplete(CommandFuture future)
+            {
+                synchronized (VariableCache.this)
+                {
+                    if (mReads[index] == future)
+                    {
+                        mReads[index] = null;
+                    }
+                    if (future.isSuccess() && mGenerations[index] == generation)
+                    {
+                        mValues[index] = future.getData();
+                        mReadTimes[index] = SystemClock.elapsedRealtime();
+                    }
+                }
+            }
+        });
+    }
+
+    //cached value if it is still fresh, null otherwise, never talks to the module
+    public synchronized String peek(DeviceVariable variable)
+    {
+        return peekLocked(variable);
+    }
+
+    /**
+     * Writes a variable. The entry is invalidated straight away and set to value once the module
+     * has accepted the write.
+     * @throws IllegalArgumentException if the variable is read only or the value is invalid
+     */
+    public CommandFuture set(final DeviceVariable variable, final String value)
+    {
+        Command command = variable.writeCommand(value);
+        final int index = variable.ordinal();
+        final int generation;
+
+        synchronized (this)
+        {
+            invalidateLocked(index);
+            generation = mGenerations[index];
+        }
+
+        return mClient.submit(command).addCallback(new CommandFuture.Callback()
+        {
+            @Override
+            public void onComplete(CommandFuture future)
+            {
+                synchronized (VariableCache.this)
+                {
+                    if (future.isSuccess() && mGenerations[index] == generation)
+                    {
+                        mValues[index] = value;
+                        mReadTimes[index] = SystemClock.elapsedRealtime();
+                    }
+                }
+            }
+        });
+    }
+
+    public CommandFuture reboot()
+    {
+        clear();
+        return mClient.submit(Command.reboot());
+    }
+
+    public CommandFuture factoryReset(String address)
+    {
+        clear();
+        return mClient.submit(Command.factoryReset(address));
+    }
+
+    public synchronized void invalidate(DeviceVariable variable)
+    {
+        invalidateLocked(variable.ordinal());
+    }
+
+    public synchronized void clear()
+    {
+        for (int i = 0; i < COUNT; i++)
+        {
+            invalidateLocked(i);
+        }
+    }
+
+    public synchronized long getHits()
+    {
+        return mHits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return mMisses;
+    }
+
+    private String peekLocked(DeviceVariable variable)
+    {
+        int index = variable.ordinal();
+        String value = mValues[index];
+
+        if (value != null
+                && SystemClock.elapsedRealtime() - mReadTimes[index]
+                   > variable.getCachePolicy().getMaxAgeMs())
+        {
+            value = mValues[index] = null;
+        }
+        return value;
+    }
+
+    private void invalidateLocked(int index)
+    {
+        mValues[index] = null;
+        mReads[index] = null;
+        mGenerations[index]++;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.zentri.zentri_ble.BLEHandlerAPI;
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Outbound stream-mode write queue for one device with credit based flow control.
+ *
+ * At most {@link #getWindow()} writes are handed to the library at a time; each
+ * onStringDataWritten/onBinaryDataWritten completion returns credit and the next queued write is
+ * sent. Producers use the non-blocking offer() methods, which return false when the queue is full,
+ * and can register a {@link Listener} to be told when there is room again.
+ *
+ * String data is accounted in chars, which matches bytes on the wire for the ASCII data the
+ * modules expect.
+ *
+ * {@link PooledBuffer}s are passed to the transport as they are, without copying into a byte
+ * array, and released once their write has completed.
+ */
+public class WriteQueue
+{
+    public interface Listener
+    {
+        //called once space is available again after an offer was rejected
+        void onWritable(WriteQueue queue);
+    }
+
+    public static final int DEFAULT_WINDOW = 4;
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final long RETRY_DELAY_MS = 20;
+
+    private final String mDeviceName;
+    private final int mHandle;
+    private final ZentriOSBLEManager mManager;
+    private final BLEHandlerAPI mTransport;
+    private final Handler mHandler;
+
+    private int mWindow = DEFAULT_WINDOW;
+    private int mCapacity = DEFAULT_CAPACITY;
+    private Listener mListener;
+
+    //String, byte[] or PooledBuffer
+    private final ArrayDeque<Object> mPending = new ArrayDeque<>();
+    private int mPendingBytes;
+
+    //lengths and data of the writes handed to the library, oldest first
+    private int[] mInFlight = new int[DEFAULT_WINDOW];
+    private Object[] mInFlightData = new Object[DEFAULT_WINDOW];
+    private int mInFlightHead, mInFlightCount;
+    private int mBytesInFlight;
+    private int mCompletedCarry;//completion bytes not yet matched to a whole write
+
+    private boolean mRejected;
+    private boolean mRetryPosted;
+
+    private long mBytesWritten;
+    private long mWritesCompleted;
+    private long mFirstWriteTime;
+    private long mLastCompleteTime;
+
+    private final Runnable mRetryTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            synchronized (WriteQueue.this)
+            {
+                mRetryPosted = false;
+                pumpLocked();
+            }
+        }
+    };
+
+    WriteQueue(String deviceName, int handle, ZentriOSBLEManager manager, BLEHandlerAPI transport,
+               Handler handler)
+    {
+        mDeviceName = deviceName;
+        mHandle = handle;
+        mManager = manager;
+        mTransport = transport;
+        mHandler = handler;
+    }
+
+    /**
+     * @param window max writes in flight in the library at once
+     * @param capacity max writes queued here before offer() starts rejecting
+     */
+    public synchronized void configure(int window, int capacity)
+    {
+        if (window > mInFlight.length)
+        {
+            int[] grown = new int[window];
+            Object[] grownData = new Object[window];
+            for (int i = 0; i < mInFlightCount; i++)
+            {
+                int index = (mInFlightHead + i) % mInFlight.length;
+                grown[i] = mInFlight[index];
+                grownData[i] = mInFlightData[index];
+            }
+            mInFlight = grown;
+            mInFlightData = grownData;
+            mInFlightHead = 0;
+        }
+
+        mWindow = window;
+        mCapacity = capacity;
+        pumpLocked();
+    }
+
+    public synchronized void setListener(Listener listener)
+    {
+        mListener = listener;
+    }
+
+    public synchronized boolean offer(String data)
+    {
+        return offerLocked(data, data.length());
+    }
+
+    public synchronized boolean offer(byte[] data)
+    {
+        return offerLocked(data, data.length);
+    }
+
+    /**
+     * Queues the data between the buffer's position and limit. On success the queue takes over the
+     * caller's reference and releases it once the write completes, on failure the caller keeps it.
+     */
+    public synchronized boolean offer(PooledBuffer data)
+    {
+        return offerLocked(data, data.length());
+    }
+
+    public synchronized int getWindow()
+    {
+        return mWindow;
+    }
+
+    //writes queued and not yet handed to the library
+    public synchronized int getQueueDepth()
+    {
+        return mPending.size();
+    }
+
+    public synchronized int getQueuedBytes()
+    {
+        return mPendingBytes;
+    }
+
+    public synchronized int getWritesInFlight()
+    {
+        return mInFlightCount;
+    }
+
+    public synchronized int getBytesInFlight()
+    {
+        return mBytesInFlight;
+    }
+
+    public synchronized long getBytesWritten()
+    {
+        return mBytesWritten;
+    }
+
+    public synchronized long getWritesCompleted()
+    {
+        return mWritesCompleted;
+    }
+
+    //completed bytes per second, from the first write sent to the last completion
+    public synchronized double getThroughput()
+    {
+        long elapsed = mLastCompleteTime - mFirstWriteTime;
+        return elapsed > 0 ? mBytesWritten * 1000.0 / elapsed : 0;
+    }
+
+    //called from the data written callbacks
+    void onWritten(int length)
+    {
+        Listener notify = null;
+
+        synchronized (this)
+        {
+            mBytesWritten += length;
+            mLastCompleteTime = SystemClock.elapsedRealtime();
+
+            //the library may report a write in several pieces, only return credit for whole writes
+            mCompletedCarry += length;
+            while (mInFlightCount > 0 && mCompletedCarry >= mInFlight[mInFlightHead])
+            {
+                int done = mInFlight[mInFlightHead];
+                releaseData(mInFlightData[mInFlightHead]);
+                mInFlightData[mInFlightHead] = null;
+                mCompletedCarry -= done;
+                mBytesInFlight -= done;
+                mInFlightHead = (mInFlightHead + 1) % mInFlight.length;
+                mInFlightCount--;
+                mWritesCompleted++;
+            }
+            if (mInFlightCount == 0)
+            {
+                mCompletedCarry = 0;
+            }
+
+            pumpLocked();
+
+            if (mRejected && mPending.size() < mCapacity)
+            {
+                mRejected = false;
+                notify = mListener;
+            }
+        }
+
+        if (notify != null)
+        {
+            notify.onWritable(this);
+        }
+    }
+
+    //drops queued and in-flight writes, e.g. when the device disconnects
+    synchronized void clear()
+    {
+        mHandler.removeCallbacks(mRetryTask);
+        mRetryPosted = false;
+        for (Object data : mPending)
+        {
+            releaseData(data);
+        }
+        mPending.clear();
+        mPendingBytes = 0;
+        for (int i = 0; i < mInFlightCount; i++)
+        {
+            int index = (mInFlightHead + i) % mInFlight.length;
+            releaseData(mInFlightData[index]);
+            mInFlightData[index] = null;
+        }
+        mInFlightHead = mInFlightCount = 0;
+        mBytesInFlight = 0;
+        mCompletedCarry = 0;
+    }
+
+    private boolean offerLocked(Object data, int length)
+    {
+        if (mPending.size() >= mCapacity)
+        {
+            mRejected = true;
+            return false;
+        }
+
+        mPending.addLast(data);
+        mPendingBytes += length;
+        pumpLocked();
+        return true;
+    }
+
+    private void pumpLocked()
+    {
+        while (mInFlightCount < mWindow && !mPending.isEmpty())
+        {
+            Object data = mPending.pollFirst();
+            int length = lengthOf(data);
+
+            int slot = (mInFlightHead + mInFlightCount) % mInFlight.length;
+            mInFlight[slot] = length;
+            mInFlightData[slot] = data;
+            mInFlightCount++;
+            mBytesInFlight += length;
+            mPendingBytes -= length;
+
+            if (mFirstWriteTime == 0)
+            {
+                mFirstWriteTime = SystemClock.elapsedRealtime();
+            }
+
+            if (BLETrace.ENABLED)
+            {
+                BLETrace.record(BLETrace.EV_WRITE, mHandle, length);
+            }
+
+            if (!write(data))
+            {
+                //library refused, put it back and try again shortly
+                mInFlightData[slot] = null;
+                mInFlightCount--;
+                mBytesInFlight -= length;
+                mPendingBytes += length;
+                mPending.addFirst(data);
+
+                if (!mRetryPosted)
+                {
+                    mRetryPosted = true;
+                    mHandler.postDelayed(mRetryTask, RETRY_DELAY_MS);
+                }
+                break;
+            }
+        }
+    }
+
+    private boolean write(Object data)
+    {
+        if (data instanceof String)
+        {
+            return mManager.writeData(mDeviceName, (String)data);
+        }
+        else if (data instanceof byte[])
+        {
+            return mManager.writeData(mDeviceName, (byte[])data);
+        }
+        else
+        {
+            //straight to the transport, the manager would only wrap a byte[] in a ByteBuffer
+            ByteBuffer buffer = ((PooledBuffer)data).buffer();
+            int position = buffer.position();
+            boolean sent = mTransport.writeData(mDeviceName, buffer);
+            if (!sent)
+            {
+                buffer.position(position);//rewind anything read before the refusal
+            }
+            return sent;
+        }
+    }
+
+    private static int lengthOf(Object data)
+    {
+        if (data instanceof String)
+        {
+            return ((String)data).length();
+        }
+        else if (data instanceof byte[])
+        {
+            return ((byte[])data).length;
+        }
+        else
+        {
+            return ((PooledBuffer)data).length();
+        }
+    }
+
+    private static void releaseData(Object data)
+    {
+        if (data instanceof PooledBuffer)
+        {
+            ((PooledBuffer)data).release();
+        }
+    }
+}
@@ -23,50 +23,54 @@ import android.content.Intent;
 import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
+import android.view.Choreographer;
 
+import com.zentri.zentri_ble.BLEHandlerAPI;
+import com.zentri.zentri_ble.BLEHandlerSingleton;
 import com.zentri.zentri_ble_command.BLECallbacks;
 import com.zentri.zentri_ble_command.ErrorCode;
 import com.zentri.zentri_ble_command.ZentriOSBLEManager;
 import com.zentri.zentri_ble_command.Result;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.UUID;
 
 public class ZentriOSBLEService extends Service
 {
-    public static final String ACTION_SCAN_RESULT = "ACTION_SCAN_RESULT";
-    public static final String ACTION_CONNECTED = "ACTION_CONNECTED";
-    public static final String ACTION_DISCONNECTED = "ACTION_DISCONNECTED";
-    public static final String ACTION_MODE_WRITE = "ACTION_MODE_WRITE";
-    public static final String ACTION_MODE_READ = "ACTION_MODE_READ";
-    public static final String ACTION_STRING_DATA_WRITE = "ACTION_STRING_DATA_WRITE";
-    public static final String ACTION_STRING_DATA_READ = "ACTION_STRING_DATA_READ";
-    public static final String ACTION_BINARY_DATA_WRITE = "ACTION_BINARY_DATA_WRITE";
-    public static final String ACTION_BINARY_DATA_READ = "ACTION_BINARY_DATA_READ";
-    public static final String ACTION_COMMAND_SENT = "ACTION_COMMAND_SENT";
-    public static final String ACTION_COMMAND_RESULT = "ACTION_COMMAND_RESULT";
-    public static final String ACTION_ERROR = "ACTION_ERROR";
-
-
-    public static final String EXTRA_MODE = "EXTRA_MODE";
-    public static final String EXTRA_DATA = "EXTRA_DATA";
-    public static final String EXTRA_COMMAND = "EXTRA_COMMAND";
-    public static final String EXTRA_ID = "EXTRA_ID";
-    public static final String EXTRA_RESPONSE_CODE = "EXTRA_RESPONSE_CODE";
-    public static final String EXTRA_ERROR = "EXTRA_ERROR";
-
     static final boolean DISABLE_TX_NOTIFY = true;
 
     private static final String TAG = ZentriOSBLEService.class.getSimpleName();
 
+    private static ZentriOSBLEManager sTestManager;//set by tests, see setTransport()
+    private static BLEHandlerAPI sTestTransport;
+
     private final int mStartMode = START_NOT_STICKY;
     private final IBinder mBinder = new LocalBinder();
     boolean mAllowRebind = true;
     private ZentriOSBLEManager mZentriOSBLEManager;
+    private BLEHandlerAPI mTransport;
+    private BufferPool mBufferPool;
+    private SampleStore mSampleStore;
+    private KnownDevices mKnownDevices;
 
     private BLECallbacks mCallbacks;
-    private LocalBroadcastManager mBroadcastManager;
+    private BLEEventBus mEventBus;
+    private IntentBroadcastAdapter mBroadcastAdapter;
+    private boolean mBroadcastsEnabled = false;
+
+    private Handler mMainHandler;
+    private Choreographer mChoreographer;
+    private final HashMap<String, DeviceSession> mSessions = new HashMap<>();
+    private int mMaxPendingBytes = ReceiveCoalescer.DEFAULT_MAX_PENDING_BYTES;
+    private long mMaxLatencyMs = ReceiveCoalescer.DEFAULT_MAX_LATENCY_MS;
+    private boolean mFramePaced = true;
+    private CommandScheduler mCommandScheduler;
+    private ConnectionManager mConnectionManager;
 
     public class LocalBinder extends Binder
     {
@@ -83,8 +87,26 @@ public class ZentriOSBLEService extends Service
         // The service is being created
         Log.d(TAG, "Creating service");
 
-        mZentriOSBLEManager = new ZentriOSBLEManager();
-        mBroadcastManager = LocalBroadcastManager.getInstance(this);
+        synchronized (ZentriOSBLEService.class)
+        {
+            mZentriOSBLEManager = sTestManager;
+            mTransport = sTestTransport;
+        }
+        if (mZentriOSBLEManager == null)
+        {
+            mZentriOSBLEManager = new ZentriOSBLEManager();
+            mTransport = BLEHandlerSingleton.getInstance();//the handler the manager sends through
+        }
+        mBufferPool = new BufferPool(BufferPool.DEFAULT_SLICE_SIZE, BufferPool.DEFAULT_SLICE_COUNT);
+        mKnownDevices = KnownDevices.getInstance(this);
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mChoreographer = Choreographer.getInstance();//onCreate runs on the main thread
+        mEventBus = new BLEEventBus();
+        mCommandScheduler = new CommandScheduler();
+        mConnectionManager = new ConnectionManager(this, mZentriOSBLEManager, mCommandScheduler,
+                                                   mMainHandler);
+        mBroadcastAdapter = new IntentBroadcastAdapter(LocalBroadcastManager.getInstance(this));
+        setBroadcastsEnabled(true);
 
         initCallbacks();
         initTruconnectManager();
@@ -130,6 +152,37 @@ public class ZentriOSBLEService extends Service
 //            mZentriOSBLEManager.disconnect(!DISABLE_TX_NOTIFY);//ensure all connections are terminated
             mZentriOSBLEManager.deinit();
         }
+
+        //samplers hold the store's writers, release them before they are closed
+        synchronized (mSessions)
+        {
+            for (DeviceSession session : mSessions.values())
+            {
+                SamplingScheduler sampler = session.getSamplingScheduler();
+                sampler.stop();
+                sampler.setSampleStore(null);
+                session.close();
+            }
+        }
+
+        synchronized (this)
+        {
+            if (mSampleStore != null)
+            {
+                mSampleStore.close();
+            }
+        }
+    }
+
+    /**
+     * For tests: services created after this call use the given manager, and write stream data
+     * through the given handler, which must be the one the manager sends through. Null for both
+     * goes back to the BLE stack.
+     */
+    static synchronized void setTransport(ZentriOSBLEManager manager, BLEHandlerAPI transport)
+    {
+        sTestManager = manager;
+        sTestTransport = transport;
     }
 
     public ZentriOSBLEManager getManager()
@@ -137,6 +190,192 @@ public class ZentriOSBLEService extends Service
         return mZentriOSBLEManager;
     }
 
+    public BLEEventBus getEventBus()
+    {
+        return mEventBus;
+    }
+
+    //connect and disconnect devices through here, it tracks their state and reconnects them
+    public ConnectionManager getConnectionManager()
+    {
+        return mConnectionManager;
+    }
+
+    /**
+     * Enables or disables the ACTION_* local broadcasts. These are on by default for compatibility,
+     * receivers that only use {@link BLEEventBus} can turn them off to avoid the per-event Intent.
+     */
+    public void setBroadcastsEnabled(boolean enabled)
+    {
+        if (enabled && !mBroadcastsEnabled)
+        {
+            mEventBus.addListener(mBroadcastAdapter, IntentBroadcastAdapter.EVENT_TYPES);
+        }
+        else if (!enabled && mBroadcastsEnabled)
+        {
+            mEventBus.removeListener(mBroadcastAdapter);
+        }
+
+        mBroadcastsEnabled = enabled;
+    }
+
+    /**
+     * Returns the session for a device, creating it if this is the first time the device has been
+     * seen. Sessions live as long as the service so listeners can be added before connecting.
+     */
+    public DeviceSession getSession(String deviceName)
+    {
+        synchronized (mSessions)
+        {
+            DeviceSession session = mSessions.get(deviceName);
+            if (session == null)
+            {
+                session = new DeviceSession(deviceName, mEventBus, mZentriOSBLEManager, mTransport,
+                                            mBufferPool, mMainHandler, mChoreographer,
+                                            mCommandScheduler);
+                session.getReceiveCoalescer().setThresholds(mMaxPendingBytes, mMaxLatencyMs);
+                session.getReceiveCoalescer().setFramePaced(mFramePaced);
+                mSessions.put(deviceName, session);
+            }
+            return session;
+        }
+    }
+
+    //the connection manager runs on the main thread
+    private void forwardConnectionError(final String deviceName, final ErrorCode error)
+    {
+        switch (error)
+        {
+            case CONNECT_FAILED:
+            case DISCONNECT_FAILED:
+            case DEVICE_ERROR:
+                break;
+
+            default:
+                return;
+        }
+
+        mMainHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                switch (error)
+                {
+                    case CONNECT_FAILED:
+                        mConnectionManager.onConnectFailed(deviceName);
+                        break;
+
+                    case DISCONNECT_FAILED:
+                        mConnectionManager.onDisconnectFailed(deviceName);
+                        break;
+
+                    case DEVICE_ERROR:
+                        mConnectionManager.onDeviceError(deviceName);
+                        break;
+                }
+            }
+        });
+    }
+
+    //latency histograms of every device seen, e.g. for logging
+    public String getLatencyReport()
+    {
+        StringBuilder report = new StringBuilder();
+        synchronized (mSessions)
+        {
+            for (DeviceSession session : mSessions.values())
+            {
+                String stats = session.getLatencyStats().toString();
+                if (!stats.isEmpty())
+                {
+                    report.append(session.getName()).append('\n').append(stats);
+                }
+            }
+        }
+        return report.toString();
+    }
+
+    //direct buffers for writeBinary(), binary batches are delivered in buffers from here too
+    public BufferPool getBufferPool()
+    {
+        return mBufferPool;
+    }
+
+    /**
+     * Queues binary stream data for a device without copying it. Acquire the buffer from
+     * {@link #getBufferPool()}, put the data and flip it.
+     * @return true if queued, the queue then owns the buffer and releases it once written. If
+     * false the queue is full and the caller still owns the buffer.
+     */
+    public boolean writeBinary(String deviceName, PooledBuffer data)
+    {
+        return getSession(deviceName).getWriteQueue().offer(data);
+    }
+
+    //sampled sensor data, kept in the app's files directory
+    public synchronized SampleStore getSampleStore()
+    {
+        if (mSampleStore == null)
+        {
+            mSampleStore = new SampleStore(new File(getFilesDir(), "samples"));
+        }
+        return mSampleStore;
+    }
+
+    /**
+     * Sets when coalesced receive data is flushed to STRING_DATA_BATCH/BINARY_DATA_BATCH listeners.
+     * @param maxPendingBytes flush immediately once this much data is pending
+     * @param maxLatencyMs flush at the latest this long after the first pending chunk arrived
+     */
+    public void setReceiveFlushThresholds(int maxPendingBytes, long maxLatencyMs)
+    {
+        synchronized (mSessions)
+        {
+            mMaxPendingBytes = maxPendingBytes;
+            mMaxLatencyMs = maxLatencyMs;
+            for (DeviceSession session : mSessions.values())
+            {
+                session.getReceiveCoalescer().setThresholds(maxPendingBytes, maxLatencyMs);
+            }
+        }
+    }
+
+    //when disabled batches are only flushed by the size and latency thresholds
+    public void setReceiveFramePaced(boolean framePaced)
+    {
+        synchronized (mSessions)
+        {
+            mFramePaced = framePaced;
+            for (DeviceSession session : mSessions.values())
+            {
+                session.getReceiveCoalescer().setFramePaced(framePaced);
+            }
+        }
+    }
+
+    /**
+     * Writes the BLE trace ring to a new file in the app's files directory.
+     * @return the file written, or null if it could not be written
+     */
+    public File dumpTrace()
+    {
+        File file = new File(getFilesDir(), "ble_trace_" + System.currentTimeMillis() + ".bin");
+
+        try
+        {
+            int count = BLETrace.dump(file);
+            Log.d(TAG, "Wrote " + count + " trace records to " + file);
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "Failed to write trace", e);
+            file = null;
+        }
+
+        return file;
+    }
+
     public boolean initTruconnectManager()
     {
         return mZentriOSBLEManager.init(ZentriOSBLEService.this, mCallbacks);
@@ -149,135 +388,258 @@ public class ZentriOSBLEService extends Service
             @Override
             public void onScanResult(String deviceName, String address)
             {
-                Log.d(TAG, "onScanResult: " + deviceName + " " + address);
+                if (BLETrace.ENABLED)
+                {
+                    BLETrace.record(BLEEvent.SCAN_RESULT, 0, 0);
+                }
 
-                Intent intent = new Intent(ACTION_SCAN_RESULT);
-                intent.putExtra(EXTRA_DATA, deviceName);
-                mBroadcastManager.sendBroadcast(intent);
+                //no session per advertiser, only connected devices need one
+                BLEEvent event = mEventBus.obtain(BLEEvent.SCAN_RESULT);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    event.setAddress(address);
+                    mEventBus.publish(event);
+                }
             }
 
             @Override
             public void onFirmwareVersionRead(String deviceName, String version)
             {
-                Log.d(TAG, "onFirmwareVersionRead: " + deviceName + " version: " + version);
+                mKnownDevices.setFirmwareVersion(deviceName, version);
+
+                DeviceSession session = getSession(deviceName);
+                BLEEvent event = session.obtain(BLEEvent.FIRMWARE_VERSION_READ);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    event.setStringData(version);
+                    session.publish(event);
+                }
             }
 
             @Override
-            public void onConnected(String deviceName, int services)
+            public void onConnected(final String deviceName, int services)
             {
-                Log.d(TAG, "onConnected");
-
-                Intent intent = new Intent(ACTION_CONNECTED);
-                intent.putExtra(EXTRA_DATA, deviceName);
-                mBroadcastManager.sendBroadcast(intent);
+                DeviceSession session = getSession(deviceName);
+                session.setConnected(true);
+                session.getLatencyStats().onConnected();
+                mMainHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        mConnectionManager.onConnected(deviceName);
+                    }
+                });
+
+                BLEEvent event = session.obtain(BLEEvent.CONNECTED);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    session.publish(event);
+                }
             }
 
             @Override
-            public void onDisconnected(String deviceName)
+            public void onDisconnected(final String deviceName)
             {
-                Log.d(TAG, "onDisconnected");
-
-                Intent intent = new Intent(ACTION_DISCONNECTED);
-                mBroadcastManager.sendBroadcast(intent);
+                final DeviceSession session = getSession(deviceName);
+                session.setConnected(false);
+                session.getLatencyStats().onDisconnected();
+                session.getReceiveCoalescer().clear();
+                session.getWriteQueue().clear();
+                session.getCommandClient().failAll(ErrorCode.CONNECTION_LOST);
+                session.getVariableCache().clear();
+                mMainHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        session.getSamplingScheduler().stop();
+                        mConnectionManager.onDisconnected(deviceName);//may start reconnecting
+                    }
+                });
+
+                BLEEvent event = session.obtain(BLEEvent.DISCONNECTED);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    session.publish(event);
+                }
             }
 
             @Override
             public void onModeWritten(String deviceName, int mode)
             {
-                Log.d(TAG, "onModeWritten");
+                DeviceSession session = getSession(deviceName);
+                session.setMode(mode);
 
-                Intent intent = new Intent(ACTION_MODE_WRITE);
-                intent.putExtra(EXTRA_MODE, mode);
-                mBroadcastManager.sendBroadcast(intent);
+                BLEEvent event = session.obtain(BLEEvent.MODE_WRITE);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    event.setMode(mode);
+                    session.publish(event);
+                }
             }
 
             @Override
             public void onModeRead(String deviceName, int mode)
             {
-                Log.d(TAG, "onModeRead");
+                DeviceSession session = getSession(deviceName);
+                session.setMode(mode);
 
-                Intent intent = new Intent(ACTION_MODE_READ);
-                intent.putExtra(EXTRA_MODE, mode);
-                mBroadcastManager.sendBroadcast(intent);
+                BLEEvent event = session.obtain(BLEEvent.MODE_READ);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    event.setMode(mode);
+                    session.publish(event);
+                }
             }
 
             @Override
             public void onStringDataWritten(String deviceName, String data)
             {
-                Log.d(TAG, "onStringDataWritten");
+                DeviceSession session = getSession(deviceName);
+                session.getWriteQueue().onWritten(data != null ? data.length() : 0);
 
-                Intent intent = new Intent(ACTION_STRING_DATA_WRITE);
-                intent.putExtra(EXTRA_DATA, data);
-                mBroadcastManager.sendBroadcast(intent);
+                BLEEvent event = session.obtain(BLEEvent.STRING_DATA_WRITE);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    event.setStringData(data);
+                    session.publish(event);
+                }
             }
 
             @Override
             public void onStringDataRead(String deviceName, String data)
             {
-                Log.d(TAG, "onStringDataRead");
+                DeviceSession session = getSession(deviceName);
+                BLEEvent event = session.obtain(BLEEvent.STRING_DATA_READ);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    event.setStringData(data);
+                    session.publish(event);
+                }
 
-                Intent intent = new Intent(ACTION_STRING_DATA_READ);
-                intent.putExtra(EXTRA_DATA, data);
-                mBroadcastManager.sendBroadcast(intent);
+                if (session.hasListeners(BLEEvent.STRING_DATA_BATCH))
+                {
+                    session.getReceiveCoalescer().appendString(data);
+                }
             }
 
             @Override
             public void onBinaryDataWritten(String deviceName, byte[] data)
             {
-                Log.d(TAG, "onBinaryDataWritten");
+                DeviceSession session = getSession(deviceName);
+                session.getWriteQueue().onWritten(data != null ? data.length : 0);
 
-                Intent intent = new Intent(ACTION_BINARY_DATA_WRITE);
-                intent.putExtra(EXTRA_DATA, data);
-                mBroadcastManager.sendBroadcast(intent);
+                BLEEvent event = session.obtain(BLEEvent.BINARY_DATA_WRITE);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    event.setBinaryData(data);
+                    session.publish(event);
+                }
             }
 
             @Override
             public void onBinaryDataRead(String deviceName, byte[] data)
             {
-                Log.d(TAG, "onBinaryDataRead");
+                DeviceSession session = getSession(deviceName);
+                BLEEvent event = session.obtain(BLEEvent.BINARY_DATA_READ);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    event.setBinaryData(data);
+                    session.publish(event);
+                }
 
-                Intent intent = new Intent(ACTION_BINARY_DATA_READ);
-                intent.putExtra(EXTRA_DATA, data);
-                mBroadcastManager.sendBroadcast(intent);
+                if (session.hasListeners(BLEEvent.BINARY_DATA_BATCH))
+                {
+                    session.getReceiveCoalescer().appendBinary(data);
+                }
             }
 
             @Override
             public void onCommandSent(String deviceName, int id, String command)
             {
-                Log.d(TAG, "onCommandSent");
-
-                Intent intent = new Intent(ACTION_COMMAND_SENT);
-                intent.putExtra(EXTRA_COMMAND, command);
-                mBroadcastManager.sendBroadcast(intent);
+                DeviceSession session = getSession(deviceName);
+                session.getLatencyStats().onCommandSent(id);
+                BLEEvent event = session.obtain(BLEEvent.COMMAND_SENT);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    event.setCommandID(id);
+                    event.setCommand(command);
+                    session.publish(event);
+                }
             }
 
             @Override
             public void onCommandResult(String deviceName, int id, String command, Result result)
             {
-                Log.d(TAG, "onCommandResult");
-
-                Intent intent = new Intent(ACTION_COMMAND_RESULT);
-                intent.putExtra(EXTRA_COMMAND, command);
-                intent.putExtra(EXTRA_ID, id);
-
+                DeviceSession session = getSession(deviceName);
+                session.getLatencyStats().onCommandResult(id, command);
                 if (result != null)
                 {
-                    intent.putExtra(EXTRA_RESPONSE_CODE, result.getResponseCode());
-                    intent.putExtra(EXTRA_DATA, result.getData());
+                    session.getCommandClient().onCommandResult(id, result.getResponseCode(),
+                                                               result.getData());
                 }
+                else
+                {
+                    session.getCommandClient().onCommandResult(id, -1, null);
+                }
+
+                BLEEvent event = session.obtain(BLEEvent.COMMAND_RESULT);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    event.setCommandID(id);
+                    event.setCommand(command);
 
-                mBroadcastManager.sendBroadcast(intent);
+                    if (result != null)
+                    {
+                        event.setResponseCode(result.getResponseCode());
+                        event.setStringData(result.getData());
+                    }
+
+                    session.publish(event);
+                }
             }
 
             @Override
             public void onError(String deviceName, ErrorCode error)
             {
-                Intent intent = new Intent(ACTION_ERROR);
-                intent.putExtra(EXTRA_ERROR, error);
-                mBroadcastManager.sendBroadcast(intent);
-
-                Log.d(TAG, "onError - " + error);
-
+                BLEEvent event = mEventBus.obtain(BLEEvent.ERROR);
+                synchronized (event)
+                {
+                    event.begin(deviceName);
+                    event.setError(error);
+
+                    //some errors are not tied to a device
+                    if (deviceName != null)
+                    {
+                        DeviceSession session = getSession(deviceName);
+                        if (error == ErrorCode.COMMAND_TIMEOUT)
+                        {
+                            session.getCommandClient().onCommandTimeout();
+                        }
+                        else
+                        {
+                            forwardConnectionError(deviceName, error);
+                        }
+                        session.publish(event);
+                    }
+                    else
+                    {
+                        mEventBus.publish(event);
+                    }
+                }
             }
 
             @Override
@@ -296,31 +658,36 @@ public class ZentriOSBLEService extends Service
 
     public static int getMode(Intent intent)
     {
-        return intent.getIntExtra(EXTRA_MODE, 0);
+        return intent.getIntExtra(BLEIntents.EXTRA_MODE, 0);
     }
 
     public static String getData(Intent intent)
     {
-        return intent.getStringExtra(EXTRA_DATA);
+        return intent.getStringExtra(BLEIntents.EXTRA_DATA);
+    }
+
+    public static String getDeviceName(Intent intent)
+    {
+        return intent.getStringExtra(BLEIntents.EXTRA_DEVICE_NAME);
     }
 
     public static String getCommand(Intent intent)
     {
-        return intent.getStringExtra(EXTRA_COMMAND);
+        return intent.getStringExtra(BLEIntents.EXTRA_COMMAND);
     }
 
     public static int getResponseCode(Intent intent)
     {
-        return intent.getIntExtra(EXTRA_RESPONSE_CODE, -1);
+        return intent.getIntExtra(BLEIntents.EXTRA_RESPONSE_CODE, -1);
     }
 
     public static int getCommandID(Intent intent)
     {
-        return intent.getIntExtra(EXTRA_ID, 0);
+        return intent.getIntExtra(BLEIntents.EXTRA_ID, 0);
     }
 
     public static ErrorCode getErrorCode(Intent intent)
     {
-        return (ErrorCode)intent.getSerializableExtra(EXTRA_ERROR);
+        return (ErrorCode)intent.getSerializableExtra(BLEIntents.EXTRA_ERROR);
     }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanRegistryTest
+{
+    private static final String ADDRESS = "00:11:22:33:44:55";
+    private static final long TTL_MS = 1000;
+
+    private ScanRegistry mRegistry;
+    private ScanRegistry.ChangeSet mChanges;
+
+    @Before
+    public void setUp()
+    {
+        mRegistry = new ScanRegistry(TTL_MS, 16);
+        mChanges = new ScanRegistry.ChangeSet();
+
+        mRegistry.update(ADDRESS, "Module", ScanRegistry.RSSI_UNKNOWN, 0);
+        assertTrue(mRegistry.drainChanges(mChanges));
+        assertEquals(1, mChanges.getAdded().size());
+    }
+
+    @Test
+    public void evictedDeviceIsRemoved()
+    {
+        assertEquals(1, mRegistry.evictStale(TTL_MS + 1));
+        assertTrue(mRegistry.drainChanges(mChanges));
+
+        assertTrue(mChanges.getAdded().isEmpty());
+        assertEquals(1, mChanges.getRemoved().size());
+        assertEquals(ADDRESS, mChanges.getRemoved().get(0).getAddress());
+        assertEquals(0, mRegistry.size());
+    }
+
+    //a device evicted and seen again before the drain stays listed, it isn't removed as well
+    @Test
+    public void evictedDeviceSeenAgainIsNotRemoved()
+    {
+        assertEquals(1, mRegistry.evictStale(TTL_MS + 1));
+        mRegistry.update(ADDRESS, "Module", ScanRegistry.RSSI_UNKNOWN, TTL_MS + 2);
+        assertTrue(mRegistry.drainChanges(mChanges));
+
+        assertEquals(1, mChanges.getAdded().size());
+        assertEquals(ADDRESS, mChanges.getAdded().get(0).getAddress());
+        assertTrue(mChanges.getRemoved().isEmpty());
+        assertEquals(1, mRegistry.size());
+
+        //and it ages out again as normal
+        assertEquals(1, mRegistry.evictStale(2 * TTL_MS + 3));
+        assertTrue(mRegistry.drainChanges(mChanges));
+        assertEquals(1, mChanges.getRemoved().size());
+        assertFalse(mRegistry.drainChanges(mChanges));
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import com.zentri.zentri_ble_command.BLECallbacks;
+import com.zentri.zentri_ble_command.ErrorCode;
+import com.zentri.zentri_ble_command.Result;
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SimulatedZentriOSBLEManagerTest
+{
+    private static final String DEVICE = "Module";
+    private static final long MAX_RUN_MS = 60000;
+
+    //records what the manager reports, everything runs on the test thread
+    private static class Recorder implements BLECallbacks
+    {
+        final ArrayList<String> mConnected = new ArrayList<>();
+        final ArrayList<String> mDisconnected = new ArrayList<>();
+        final ArrayList<ErrorCode> mErrors = new ArrayList<>();
+        final ArrayList<Integer> mSentIDs = new ArrayList<>();
+        final ArrayList<Integer> mResultIDs = new ArrayList<>();
+        final ArrayList<Result> mResults = new ArrayList<>();
+        final StringBuilder mData = new StringBuilder();
+        int mMode = -1;
+
+        @Override
+        public void onScanResult(String deviceName, String address)
+        {
+        }
+
+        @Override
+        public void onConnected(String deviceName, int services)
+        {
+            mConnected.add(deviceName);
+        }
+
+        @Override
+        public void onDisconnected(String deviceName)
+        {
+            mDisconnected.add(deviceName);
+        }
+
+        @Override
+        public void onStringDataWritten(String deviceName, String data)
+        {
+        }
+
+        @Override
+        public void onBinaryDataWritten(String deviceName, byte[] data)
+        {
+        }
+
+        @Override
+        public void onStringDataRead(String deviceName, String data)
+        {
+            mData.append(data);
+        }
+
+        @Override
+        public void onBinaryDataRead(String deviceName, byte[] data)
+        {
+            mData.append(new String(data, SimulatedModule.CHARSET));
+        }
+
+        @Override
+        public void onModeWritten(String deviceName, int mode)
+        {
+            mMode = mode;
+        }
+
+        @Override
+        public void onModeRead(String deviceName, int mode)
+        {
+            mMode = mode;
+        }
+
+        @Override
+        public void onCommandSent(String deviceName, int id, String command)
+        {
+            mSentIDs.add(id);
+        }
+
+        @Override
+        public void onCommandResult(String deviceName, int id, String command, Result result)
+        {
+            mResultIDs.add(id);
+            mResults.add(result);
+        }
+
+        @Override
+        public void onFirmwareVersionRead(String deviceName, String version)
+        {
+        }
+
+        @Override
+        public void onError(String deviceName, ErrorCode error)
+        {
+            mErrors.add(error);
+        }
+
+        @Override
+        public void onCharacteristicRead(String deviceName, UUID service, UUID characteristic,
+                                         byte[] value)
+        {
+        }
+
+        @Override
+        public void onCharacteristicWritten(String deviceName, UUID service, UUID characteristic,
+                                            byte[] value)
+        {
+        }
+
+        Result resultFor(int id)
+        {
+            int index = mResultIDs.indexOf(id);
+            return index < 0 ? null : mResults.get(index);
+        }
+    }
+
+    private SimClock mClock;
+    private SimulatedBLEHandler mHandler;
+    private SimulatedModule mModule;
+    private SimulatedZentriOSBLEManager mManager;
+    private Recorder mRecorder;
+
+    @Before
+    public void setUp()
+    {
+        mClock = new SimClock();
+        mHandler = new SimulatedBLEHandler(mClock, 1);
+        mModule = new SimulatedModule(DEVICE, "00:00:00:00:00:01");
+        mHandler.addModule(mModule);
+        mManager = new SimulatedZentriOSBLEManager(mHandler);
+        mRecorder = new Recorder();
+
+        assertFalse(mManager.isInitialised());
+        assertTrue(mManager.init(null, mRecorder));
+        assertTrue(mManager.isInitialised());
+    }
+
+    private void connect(int mode)
+    {
+        assertTrue(mManager.connect(DEVICE));
+        mClock.runUntilIdle(MAX_RUN_MS);
+        assertEquals(1, mRecorder.mConnected.size());
+        assertTrue(mManager.isConnected(DEVICE));
+
+        assertTrue(mManager.setMode(DEVICE, mode));
+        mClock.runUntilIdle(MAX_RUN_MS);
+        assertEquals(mode, mRecorder.mMode);
+    }
+
+    @Test
+    public void deinit()
+    {
+        mManager.deinit();
+        assertFalse(mManager.isInitialised());
+    }
+
+    @Test
+    public void commandRoundTrip()
+    {
+        connect(ZentriOSBLEManager.MODE_COMMAND_REMOTE);
+        mModule.setAdc(12, 0x1A2);
+
+        int adc = mManager.adc(DEVICE, 12);
+        int version = mManager.getVersion(DEVICE);
+        assertTrue(adc != ZentriOSBLEManager.ID_INVALID && version != adc);
+        mClock.runUntilIdle(MAX_RUN_MS);
+
+        assertEquals(2, mRecorder.mSentIDs.size());
+        assertEquals(Integer.valueOf(adc), mRecorder.mResultIDs.get(0));//in the order sent
+        assertEquals(Result.SUCCESS, mRecorder.resultFor(adc).getResponseCode());
+        assertEquals("0x1A2", mRecorder.resultFor(adc).getData());
+        assertTrue(mRecorder.resultFor(version).getData()
+                           .contains(SimulatedModule.DEFAULT_FIRMWARE_VERSION));
+        assertEquals(2, mModule.getCommandCount());
+        assertEquals(0, mRecorder.mData.length());//responses aren't passed on as data
+    }
+
+    @Test
+    public void setAndGetVariable()
+    {
+        connect(ZentriOSBLEManager.MODE_COMMAND_REMOTE);
+
+        int set = mManager.setSystemDeviceName(DEVICE, "Renamed");
+        int get = mManager.getSystemDeviceName(DEVICE);
+        mClock.runUntilIdle(MAX_RUN_MS);
+
+        assertEquals(Result.SUCCESS, mRecorder.resultFor(set).getResponseCode());
+        assertEquals("Renamed", mRecorder.resultFor(get).getData());
+    }
+
+    @Test
+    public void streamEcho()
+    {
+        connect(ZentriOSBLEManager.MODE_STREAM);
+        mModule.setLoopback(true);
+
+        //longer than the MTU so it is split into several packets
+        String message = "The quick brown fox jumps over the lazy dog 0123456789\r\n";
+        assertTrue(mManager.writeData(DEVICE, message));
+        mClock.runUntilIdle(MAX_RUN_MS);
+
+        assertEquals(message, mRecorder.mData.toString());
+        assertEquals(0, mModule.getCommandCount());
+        assertTrue(mRecorder.mResults.isEmpty());
+    }
+
+    @Test
+    public void linkDrop()
+    {
+        connect(ZentriOSBLEManager.MODE_COMMAND_REMOTE);
+        mModule.setCommandDelay(1000);
+        int id = mManager.adc(DEVICE, 12);
+        mClock.advance(100);//sent, no response yet
+
+        assertTrue(mHandler.dropConnection(DEVICE));
+        mClock.runUntilIdle(MAX_RUN_MS);
+
+        assertEquals(1, mRecorder.mDisconnected.size());
+        assertEquals(1, mRecorder.mErrors.size());
+        assertEquals(ErrorCode.CONNECTION_LOST, mRecorder.mErrors.get(0));
+        assertNull(mRecorder.resultFor(id));
+        assertFalse(mManager.isConnected(DEVICE));
+        assertEquals(ZentriOSBLEManager.ID_INVALID, mManager.adc(DEVICE, 12));
+    }
+
+    @Test
+    public void requestedDisconnectIsNotAnError()
+    {
+        connect(ZentriOSBLEManager.MODE_STREAM);
+
+        assertTrue(mManager.disconnect(DEVICE, true));
+        mClock.runUntilIdle(MAX_RUN_MS);
+
+        assertEquals(1, mRecorder.mDisconnected.size());
+        assertTrue(mRecorder.mErrors.isEmpty());
+    }
+
+    @Test
+    public void commandTimeout()
+    {
+        connect(ZentriOSBLEManager.MODE_COMMAND_REMOTE);
+        mManager.setCommandTimeout(1000);
+        mModule.setCommandDelay(2000);
+
+        int late = mManager.adc(DEVICE, 12);
+        mClock.advance(1500);
+        assertEquals(1, mRecorder.mErrors.size());
+        assertEquals(ErrorCode.COMMAND_TIMEOUT, mRecorder.mErrors.get(0));
+
+        //the queue moves on, and the next command gets its own response
+        mModule.setCommandDelay(0);
+        int next = mManager.adc(DEVICE, 12);
+        mClock.runUntilIdle(MAX_RUN_MS);
+
+        assertEquals(Result.SUCCESS, mRecorder.resultFor(next).getResponseCode());
+        assertNull(mRecorder.resultFor(late));
+        assertEquals(1, mRecorder.mErrors.size());
+    }
+}
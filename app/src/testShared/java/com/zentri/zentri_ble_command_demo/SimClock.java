@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Virtual millisecond clock for the simulated BLE stack, see {@link SimulatedBLEHandler}.
+ *
+ * Scheduled tasks only run when the clock is advanced, so tests step through connection, command
+ * and stream timing without sleeping and get the same ordering on every run. Tasks due at the
+ * same time run in the order they were scheduled. Tasks run on the thread advancing the clock
+ * and may schedule further tasks.
+ *
+ * {@link #startRealtime()} instead advances the clock with the system clock on a background
+ * thread, for running the simulator inside the app. Don't advance the clock by hand while it is
+ * running in real time.
+ */
+public class SimClock
+{
+    private static final class Task implements Comparable<Task>
+    {
+        final long mTime;
+        final long mSeq;
+        final Runnable mRunnable;
+
+        Task(long time, long seq, Runnable runnable)
+        {
+            mTime = time;
+            mSeq = seq;
+            mRunnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other)
+        {
+            if (mTime != other.mTime)
+            {
+                return mTime < other.mTime ? -1 : 1;
+            }
+            return mSeq < other.mSeq ? -1 : (mSeq == other.mSeq ? 0 : 1);
+        }
+    }
+
+    private final PriorityQueue<Task> mTasks = new PriorityQueue<>();
+    private long mNow;
+    private long mNextSeq;
+    private Thread mRealtimeThread;
+
+    public synchronized long now()
+    {
+        return mNow;
+    }
+
+    public synchronized void schedule(long delayMs, Runnable task)
+    {
+        scheduleAt(mNow + Math.max(0, delayMs), task);
+    }
+
+    //times in the past run on the next advance
+    public synchronized void scheduleAt(long time, Runnable task)
+    {
+        mTasks.add(new Task(Math.max(time, mNow), mNextSeq++, task));
+        notifyAll();//wake the realtime thread if this is now the earliest task
+    }
+
+    //removes every pending run of the task, returns true if there was one
+    public synchronized boolean cancel(Runnable task)
+    {
+        boolean removed = false;
+        Iterator<Task> it = mTasks.iterator();
+        while (it.hasNext())
+        {
+            if (it.next().mRunnable == task)
+            {
+                it.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    public synchronized int getPendingCount()
+    {
+        return mTasks.size();
+    }
+
+    /**
+     * Moves the clock forward, running every task that falls due on the way.
+     * @return number of tasks run
+     */
+    public int advance(long ms)
+    {
+        long target;
+        synchronized (this)
+        {
+            target = mNow + ms;
+        }
+        return advanceTo(target);
+    }
+
+    public int advanceTo(long time)
+    {
+        int count = 0;
+
+        while (true)
+        {
+            Task task;
+            synchronized (this)
+            {
+                task = mTasks.peek();
+                if (task == null || task.mTime > time)
+                {
+                    mNow = Math.max(mNow, time);
+                    return count;
+                }
+                mTasks.poll();
+                mNow = task.mTime;
+            }
+
+            //outside the lock so tasks can schedule
+            task.mRunnable.run();
+            count++;
+        }
+    }
+
+    /**
+     * Runs tasks until none are left or the next one is more than maxMs away from now. Periodic
+     * tasks such as scanning never go idle, so the limit bounds the run.
+     * @return number of tasks run
+     */
+    public int runUntilIdle(long maxMs)
+    {
+        long limit;
+        synchronized (this)
+        {
+            limit = mNow + maxMs;
+        }
+
+        int count = 0;
+        while (true)
+        {
+            long next;
+            synchronized (this)
+            {
+                Task task = mTasks.peek();
+                if (task == null || task.mTime > limit)
+                {
+                    return count;
+                }
+                next = task.mTime;
+            }
+            count += advanceTo(next);
+        }
+    }
+
+    //advances the clock in step with SystemClock on a daemon thread until stopRealtime()
+    public synchronized void startRealtime()
+    {
+        if (mRealtimeThread != null)
+        {
+            return;
+        }
+
+        mRealtimeThread = new Thread("SimClock")
+        {
+            @Override
+            public void run()
+            {
+                runRealtime();
+            }
+        };
+        mRealtimeThread.setDaemon(true);
+        mRealtimeThread.start();
+    }
+
+    public void stopRealtime()
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            thread = mRealtimeThread;
+            mRealtimeThread = null;
+        }
+
+        if (thread != null)
+        {
+            thread.interrupt();
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runRealtime()
+    {
+        long offset;
+        synchronized (this)
+        {
+            offset = System.nanoTime() / 1000000 - mNow;
+        }
+
+        try
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                advanceTo(System.nanoTime() / 1000000 - offset);
+
+                synchronized (this)
+                {
+                    Task next = mTasks.peek();
+                    if (next == null)
+                    {
+                        wait();
+                    }
+                    else
+                    {
+                        long delay = next.mTime - (System.nanoTime() / 1000000 - offset);
+                        if (delay > 0)
+                        {
+                            wait(delay);
+                        }
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            //stopped
+        }
+    }
+}
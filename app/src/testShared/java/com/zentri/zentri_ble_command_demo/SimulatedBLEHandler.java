@@ -0,0 +1,733 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.content.Context;
+
+import com.zentri.zentri_ble.BLECallbacks;
+import com.zentri.zentri_ble.BLECallbacks.ReceiveMode;
+import com.zentri.zentri_ble.BLEHandlerAPI;
+import com.zentri.zentri_ble.OTACallbacks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * In-process stand-in for the Zentri BLE handler, serving {@link SimulatedModule}s over a
+ * simulated link.
+ *
+ * Everything happens on a {@link SimClock}: scan results, connects, mode changes, writes and
+ * notifications are scheduled with the configured latency and delivered to the callbacks when the
+ * clock reaches them. Data is split into MTU sized packets and each direction of a link sends one
+ * packet at a time at the configured throughput, so queueing delay builds up like on a real
+ * connection. Notifications can be dropped at a configured rate, writes are acknowledged so a lost
+ * write is retransmitted instead, which costs another round trip. Links can be dropped on demand
+ * or at random.
+ *
+ * Nothing here uses Android APIs, the context passed to init() is ignored, so the handler runs in
+ * plain JVM tests. Use it with {@link SimulatedZentriOSBLEManager} for the command layer. OTA and
+ * raw characteristic access are not simulated.
+ */
+public class SimulatedBLEHandler implements BLEHandlerAPI
+{
+    public static final int DEFAULT_MTU = 20;
+    public static final long DEFAULT_LATENCY_MS = 15;
+    public static final long DEFAULT_CONNECT_DELAY_MS = 200;
+    public static final long DEFAULT_SCAN_INTERVAL_MS = 100;
+
+    private static final class Link
+    {
+        final SimulatedModule mModule;
+        double mTxFreeAt;//when each direction can start its next packet, fractional ms
+        double mRxFreeAt;
+        long mLastTxDelivery;//deliveries stay in order even with jitter
+        long mLastRxDelivery;
+
+        Link(SimulatedModule module)
+        {
+            mModule = module;
+        }
+    }
+
+    private final SimClock mClock;
+    private final Random mRandom;
+    private final LinkedHashMap<String, SimulatedModule> mModules = new LinkedHashMap<>();
+    private final HashMap<String, Link> mLinks = new HashMap<>();
+    private final ArrayList<String> mConnecting = new ArrayList<>();
+
+    private BLECallbacks mCallbacks;
+    private ReceiveMode mReceiveMode = ReceiveMode.STRING;
+    private boolean mScanning;
+    private int mScanGeneration;
+
+    private int mMtu = DEFAULT_MTU;
+    private long mLatencyMs = DEFAULT_LATENCY_MS;
+    private long mJitterMs;
+    private long mConnectDelayMs = DEFAULT_CONNECT_DELAY_MS;
+    private long mScanIntervalMs = DEFAULT_SCAN_INTERVAL_MS;
+    private int mBytesPerSecond;//0 for no limit
+    private double mLossRate;
+    private double mDisconnectRate;
+
+    private long mPacketsSent;
+    private long mPacketsLost;
+
+    public SimulatedBLEHandler(SimClock clock, long seed)
+    {
+        mClock = clock;
+        mRandom = new Random(seed);
+    }
+
+    public SimClock getClock()
+    {
+        return mClock;
+    }
+
+    public synchronized void addModule(SimulatedModule module)
+    {
+        mModules.put(module.getName(), module);
+        module.attach(this);
+    }
+
+    public synchronized SimulatedModule getModule(String deviceName)
+    {
+        return mModules.get(deviceName);
+    }
+
+    //max payload bytes per packet
+    public synchronized void setMtu(int mtu)
+    {
+        mMtu = mtu;
+    }
+
+    //one way delay, plus up to jitterMs extra per packet
+    public synchronized void setLatency(long latencyMs, long jitterMs)
+    {
+        mLatencyMs = latencyMs;
+        mJitterMs = jitterMs;
+    }
+
+    //payload bytes per second in each direction of a link, 0 for no limit
+    public synchronized void setThroughput(int bytesPerSecond)
+    {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    //share of packets lost, 0..1
+    public synchronized void setLossRate(double lossRate)
+    {
+        mLossRate = lossRate;
+    }
+
+    //chance per packet that the link drops, 0..1
+    public synchronized void setDisconnectRate(double disconnectRate)
+    {
+        mDisconnectRate = disconnectRate;
+    }
+
+    public synchronized void setConnectDelay(long ms)
+    {
+        mConnectDelayMs = ms;
+    }
+
+    public synchronized void setScanInterval(long ms)
+    {
+        mScanIntervalMs = ms;
+    }
+
+    public synchronized long getPacketsSent()
+    {
+        return mPacketsSent;
+    }
+
+    public synchronized long getPacketsLost()
+    {
+        return mPacketsLost;
+    }
+
+    /**
+     * Drops the link to a device as if it went out of range. The central gets onDisconnect without
+     * having asked for it.
+     * @return false if the device wasn't connected
+     */
+    public boolean dropConnection(String deviceName)
+    {
+        Link link;
+        BLECallbacks callbacks;
+        synchronized (this)
+        {
+            link = mLinks.remove(deviceName);
+            callbacks = mCallbacks;
+        }
+
+        if (link == null)
+        {
+            return false;
+        }
+
+        link.mModule.onDisconnected();
+        if (callbacks != null)
+        {
+            callbacks.onDisconnect(deviceName);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean init(Context context, BLECallbacks callbacks)
+    {
+        mCallbacks = callbacks;
+        return true;
+    }
+
+    @Override
+    public void deinit()
+    {
+        ArrayList<Link> links;
+        synchronized (this)
+        {
+            mScanning = false;
+            mScanGeneration++;
+            mCallbacks = null;
+            links = new ArrayList<>(mLinks.values());
+            mLinks.clear();
+        }
+
+        for (Link link : links)
+        {
+            link.mModule.onDisconnected();
+        }
+    }
+
+    @Override
+    public void setOTACallbacks(OTACallbacks callbacks)
+    {
+    }
+
+    @Override
+    public synchronized boolean isConnected(String deviceName)
+    {
+        return mLinks.containsKey(deviceName);
+    }
+
+    @Override
+    public boolean isBLEEnabled()
+    {
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isScanning()
+    {
+        return mScanning;
+    }
+
+    @Override
+    public synchronized boolean startBLEScan()
+    {
+        if (mScanning)
+        {
+            return false;
+        }
+
+        mScanning = true;
+        final int generation = ++mScanGeneration;
+        mClock.schedule(0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                scanTick(generation, this);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized boolean stopBLEScan()
+    {
+        if (!mScanning)
+        {
+            return false;
+        }
+
+        mScanning = false;
+        mScanGeneration++;
+        return true;
+    }
+
+    @Override
+    public boolean connect(final String deviceName, boolean txNotify)
+    {
+        final long delay;
+        synchronized (this)
+        {
+            if (mCallbacks == null || mLinks.containsKey(deviceName)
+                    || mConnecting.contains(deviceName))
+            {
+                return false;
+            }
+            mConnecting.add(deviceName);
+            delay = mConnectDelayMs;
+        }
+
+        mClock.schedule(delay, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                finishConnect(deviceName);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean disconnect(final String deviceName, boolean txNotify)
+    {
+        synchronized (this)
+        {
+            if (!mLinks.containsKey(deviceName))
+            {
+                return false;
+            }
+        }
+
+        mClock.schedule(roundTrip(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                dropConnection(deviceName);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized boolean readStringData(String deviceName)
+    {
+        return mLinks.containsKey(deviceName);//data is always pushed as notifications
+    }
+
+    @Override
+    public synchronized boolean readBinaryData(String deviceName)
+    {
+        return mLinks.containsKey(deviceName);
+    }
+
+    @Override
+    public synchronized ReceiveMode getReceiveMode()
+    {
+        return mReceiveMode;
+    }
+
+    @Override
+    public synchronized boolean setReceiveMode(ReceiveMode mode)
+    {
+        mReceiveMode = mode;
+        return true;
+    }
+
+    @Override
+    public boolean writeData(String deviceName, String data)
+    {
+        return write(deviceName, data.getBytes(SimulatedModule.CHARSET), false);
+    }
+
+    @Override
+    public boolean writeData(String deviceName, ByteBuffer data)
+    {
+        byte[] bytes = new byte[data.remaining()];
+        int position = data.position();
+        data.get(bytes);
+        if (!write(deviceName, bytes, true))
+        {
+            data.position(position);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void abortBinaryWrite()
+    {
+        //writes are handed to the link as soon as they are made, there is nothing to abort
+    }
+
+    @Override
+    public boolean readMode(final String deviceName)
+    {
+        final Link link = getLink(deviceName);
+        if (link == null)
+        {
+            return false;
+        }
+
+        mClock.schedule(roundTrip(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                BLECallbacks callbacks = callbacksFor(deviceName, link);
+                if (callbacks != null)
+                {
+                    callbacks.onModeRead(deviceName, link.mModule.getMode());
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeMode(final String deviceName, final int mode)
+    {
+        final Link link = getLink(deviceName);
+        if (link == null)
+        {
+            return false;
+        }
+
+        mClock.schedule(roundTrip(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                BLECallbacks callbacks = callbacksFor(deviceName, link);
+                if (callbacks != null)
+                {
+                    link.mModule.setMode(mode);
+                    callbacks.onModeChanged(deviceName, mode);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized boolean setTxNotify(String deviceName, boolean enable)
+    {
+        return mLinks.containsKey(deviceName);
+    }
+
+    @Override
+    public boolean setOTAControlNotify(String deviceName, boolean enable)
+    {
+        return false;
+    }
+
+    @Override
+    public boolean writeOTAControl(String deviceName, ByteBuffer data)
+    {
+        return false;
+    }
+
+    @Override
+    public boolean writeOTAData(String deviceName, ByteBuffer data)
+    {
+        return false;
+    }
+
+    @Override
+    public boolean readFirmwareRev(final String deviceName)
+    {
+        final Link link = getLink(deviceName);
+        if (link == null)
+        {
+            return false;
+        }
+
+        mClock.schedule(roundTrip(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                BLECallbacks callbacks = callbacksFor(deviceName, link);
+                if (callbacks != null)
+                {
+                    callbacks.onFirmwareVersionRead(deviceName, link.mModule.getFirmwareVersion());
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeCharacteristic(String deviceName, UUID service, UUID characteristic,
+                                       ByteBuffer data)
+    {
+        return false;
+    }
+
+    @Override
+    public boolean readCharacteristic(String deviceName, UUID service, UUID characteristic)
+    {
+        return false;
+    }
+
+    @Override
+    public boolean setNotification(String deviceName, UUID service, UUID characteristic,
+                                   boolean enable)
+    {
+        return false;
+    }
+
+    @Override
+    public synchronized String getAddress(String deviceName)
+    {
+        SimulatedModule module = mModules.get(deviceName);
+        return module != null ? module.getAddress() : null;
+    }
+
+    //module to central, called by SimulatedModule
+    boolean notifyCentral(SimulatedModule module, byte[] data)
+    {
+        final String deviceName = module.getName();
+        final Link link = getLink(deviceName);
+        if (link == null)
+        {
+            return false;
+        }
+
+        int mtu = mtu();
+        for (int offset = 0; offset < data.length; offset += mtu)
+        {
+            final byte[] packet = slice(data, offset, mtu);
+            long deliverAt;
+            final boolean lost;
+            synchronized (this)
+            {
+                link.mRxFreeAt = Math.max(link.mRxFreeAt, mClock.now()) + transmitTime(packet.length);
+                deliverAt = Math.max(link.mLastRxDelivery, (long)Math.ceil(link.mRxFreeAt) + delay());
+                link.mLastRxDelivery = deliverAt;
+                lost = mRandom.nextDouble() < mLossRate;
+                mPacketsSent++;
+                if (lost)
+                {
+                    mPacketsLost++;
+                }
+            }
+
+            mClock.scheduleAt(deliverAt, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    BLECallbacks callbacks = callbacksFor(deviceName, link);
+                    if (callbacks == null || lost || randomDisconnect(deviceName))
+                    {
+                        return;
+                    }
+
+                    if (getReceiveMode() == ReceiveMode.STRING)
+                    {
+                        callbacks.onStringDataRead(deviceName, new String(packet, SimulatedModule.CHARSET));
+                    }
+                    else
+                    {
+                        callbacks.onBinaryDataRead(deviceName, packet);
+                    }
+                }
+            });
+        }
+        return true;
+    }
+
+    //central to module, the write callback follows the acknowledgement of each packet
+    private boolean write(final String deviceName, byte[] data, final boolean binary)
+    {
+        final Link link = getLink(deviceName);
+        if (link == null)
+        {
+            return false;
+        }
+
+        int mtu = mtu();
+        for (int offset = 0; offset < data.length; offset += mtu)
+        {
+            final byte[] packet = slice(data, offset, mtu);
+            long deliverAt;
+            final long ackDelay;
+            synchronized (this)
+            {
+                double time = transmitTime(packet.length);
+                while (mRandom.nextDouble() < mLossRate)
+                {
+                    time += mLatencyMs * 2;//no acknowledgement, sent again
+                    mPacketsLost++;
+                }
+                link.mTxFreeAt = Math.max(link.mTxFreeAt, mClock.now()) + time;
+                deliverAt = Math.max(link.mLastTxDelivery, (long)Math.ceil(link.mTxFreeAt) + delay());
+                link.mLastTxDelivery = deliverAt;
+                ackDelay = mLatencyMs;
+                mPacketsSent++;
+            }
+
+            mClock.scheduleAt(deliverAt, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (callbacksFor(deviceName, link) == null || randomDisconnect(deviceName))
+                    {
+                        return;
+                    }
+
+                    link.mModule.receive(packet);
+                    mClock.schedule(ackDelay, new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            BLECallbacks callbacks = callbacksFor(deviceName, link);
+                            if (callbacks == null)
+                            {
+                                return;
+                            }
+
+                            if (binary)
+                            {
+                                callbacks.onBinaryDataWrite(deviceName, packet);
+                            }
+                            else
+                            {
+                                callbacks.onStringDataWrite(deviceName,
+                                                            new String(packet, SimulatedModule.CHARSET));
+                            }
+                        }
+                    });
+                }
+            });
+        }
+        return true;
+    }
+
+    private void finishConnect(String deviceName)
+    {
+        SimulatedModule module;
+        BLECallbacks callbacks;
+        synchronized (this)
+        {
+            mConnecting.remove(deviceName);
+            module = mModules.get(deviceName);
+            callbacks = mCallbacks;
+            if (callbacks == null)
+            {
+                return;
+            }
+            if (module != null && module.isAdvertising())
+            {
+                mLinks.put(deviceName, new Link(module));
+            }
+        }
+
+        if (module == null || !module.isAdvertising())
+        {
+            callbacks.onConnectFailed(deviceName, BLECallbacks.Result.CONNECT_FAILURE);
+            return;
+        }
+
+        module.onConnected();
+        callbacks.onConnect(deviceName, 0);
+    }
+
+    private void scanTick(int generation, Runnable task)
+    {
+        ArrayList<SimulatedModule> advertising = new ArrayList<>();
+        BLECallbacks callbacks;
+        synchronized (this)
+        {
+            if (!mScanning || generation != mScanGeneration)
+            {
+                return;
+            }
+
+            for (SimulatedModule module : mModules.values())
+            {
+                if (module.isAdvertising() && !mLinks.containsKey(module.getName()))
+                {
+                    advertising.add(module);
+                }
+            }
+            callbacks = mCallbacks;
+            mClock.schedule(mScanIntervalMs, task);
+        }
+
+        if (callbacks != null)
+        {
+            for (SimulatedModule module : advertising)
+            {
+                callbacks.onScanResult(module.getName(), module.getAddress());
+            }
+        }
+    }
+
+    private boolean randomDisconnect(String deviceName)
+    {
+        boolean drop;
+        synchronized (this)
+        {
+            drop = mDisconnectRate > 0 && mRandom.nextDouble() < mDisconnectRate;
+        }
+        return drop && dropConnection(deviceName);
+    }
+
+    //callbacks if the link is still the one the task was scheduled for
+    private synchronized BLECallbacks callbacksFor(String deviceName, Link link)
+    {
+        return mLinks.get(deviceName) == link ? mCallbacks : null;
+    }
+
+    private synchronized Link getLink(String deviceName)
+    {
+        return mLinks.get(deviceName);
+    }
+
+    private synchronized long roundTrip()
+    {
+        return mLatencyMs * 2;
+    }
+
+    private synchronized int mtu()
+    {
+        return mMtu;
+    }
+
+    private double transmitTime(int bytes)
+    {
+        return mBytesPerSecond > 0 ? bytes * 1000.0 / mBytesPerSecond : 0;
+    }
+
+    private long delay()
+    {
+        return mJitterMs > 0 ? mLatencyMs + (long)(mRandom.nextDouble() * (mJitterMs + 1)) : mLatencyMs;
+    }
+
+    private static byte[] slice(byte[] data, int offset, int mtu)
+    {
+        int length = Math.min(mtu, data.length - offset);
+        byte[] packet = new byte[length];
+        System.arraycopy(data, offset, packet, 0, length);
+        return packet;
+    }
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import com.zentri.zentri_ble.BLEHandlerAPI;
+import com.zentri.zentri_ble_command.Result;
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * One simulated Zentri module for {@link SimulatedBLEHandler}.
+ *
+ * In command mode lines written by the central are run as ZentriOS commands (adc, gge, gse, gfu,
+ * gdi, get, set, save, reboot, fac, ver, str, beep, sleep, pwm) and answered with a response
+ * header and data, the format the ZentriOSBLEManager parses. Variables use the module's short
+ * names, e.g. "ua b" for the UART baud rate. In stream mode written data goes to the
+ * {@link StreamListener} and is echoed back when loopback is on, and {@link #send(byte[])} pushes
+ * data to the central.
+ *
+ * ADC readings and GPIO input levels are set by the test. Reboot and sleep drop the connection
+ * like the real module does.
+ */
+public class SimulatedModule
+{
+    public interface StreamListener
+    {
+        //stream data written by the central, called on the clock thread
+        void onStreamData(SimulatedModule module, byte[] data);
+    }
+
+    public static final int GPIO_COUNT = ZentriOSBLEManager.GPIO_MAX + 1;
+    public static final String DEFAULT_FIRMWARE_VERSION = "ZentriOS-BL-1.5.1.0";
+
+    static final Charset CHARSET = Charset.forName("ISO-8859-1");//one byte per char
+
+    //variables the module reports but refuses to set
+    private static final String[] READ_ONLY = {"bl a", "bl c c", "bl v m", "ce c c", "ce c m",
+                                               "ce s m", "gp u", "sy i s", "sy u", "sy v"};
+
+    private static final long REBOOT_DELAY_MS = 100;//after the response has gone out
+
+    private final String mName;
+    private final String mAddress;
+    private String mFirmwareVersion = DEFAULT_FIRMWARE_VERSION;
+    private volatile SimulatedBLEHandler mHandler;
+
+    private boolean mAdvertising = true;
+    private volatile int mMode = BLEHandlerAPI.MODE_STREAM;
+    private boolean mLoopback;
+    private StreamListener mStreamListener;
+    private long mCommandDelayMs;
+
+    private final int[] mAdc = new int[GPIO_COUNT];
+    private final int[] mGpio = new int[GPIO_COUNT];
+    private final String[] mGpioFunctions = new String[GPIO_COUNT];
+    private final String[] mGpioDirections = new String[GPIO_COUNT];
+    private final HashMap<String, String> mVariables = new HashMap<>();
+    private final HashMap<String, String> mSaved = new HashMap<>();
+
+    private final StringBuilder mLine = new StringBuilder();
+    private long mCommandCount;
+
+    public SimulatedModule(String name, String address)
+    {
+        mName = name;
+        mAddress = address;
+        factoryDefaults();
+        mSaved.putAll(mVariables);
+    }
+
+    public String getName()
+    {
+        return mName;
+    }
+
+    public String getAddress()
+    {
+        return mAddress;
+    }
+
+    public synchronized String getFirmwareVersion()
+    {
+        return mFirmwareVersion;
+    }
+
+    public synchronized void setFirmwareVersion(String version)
+    {
+        mFirmwareVersion = version;
+        mVariables.put("sy v", version);
+    }
+
+    public synchronized boolean isAdvertising()
+    {
+        return mAdvertising;
+    }
+
+    //modules that don't advertise aren't reported by scans and can't be connected to
+    public synchronized void setAdvertising(boolean advertising)
+    {
+        mAdvertising = advertising;
+    }
+
+    public int getMode()
+    {
+        return mMode;
+    }
+
+    void setMode(int mode)
+    {
+        mMode = mode;
+    }
+
+    //echo stream data back to the central
+    public synchronized void setLoopback(boolean loopback)
+    {
+        mLoopback = loopback;
+    }
+
+    public synchronized void setStreamListener(StreamListener listener)
+    {
+        mStreamListener = listener;
+    }
+
+    //time the module takes to run a command before it starts answering
+    public synchronized void setCommandDelay(long ms)
+    {
+        mCommandDelayMs = ms;
+    }
+
+    public synchronized void setAdc(int gpio, int value)
+    {
+        mAdc[gpio] = value;
+    }
+
+    //input level, or the level last written by gse for outputs
+    public synchronized int getGpio(int gpio)
+    {
+        return mGpio[gpio];
+    }
+
+    public synchronized void setGpio(int gpio, int value)
+    {
+        mGpio[gpio] = value;
+    }
+
+    public synchronized String getGpioFunction(int gpio)
+    {
+        return mGpioFunctions[gpio];
+    }
+
+    public synchronized String getGpioDirection(int gpio)
+    {
+        return mGpioDirections[gpio];
+    }
+
+    //by short name, e.g. "sy d n"
+    public synchronized String getVariable(String name)
+    {
+        return mVariables.get(name);
+    }
+
+    public synchronized void setVariable(String name, String value)
+    {
+        mVariables.put(name, value);
+    }
+
+    public synchronized long getCommandCount()
+    {
+        return mCommandCount;
+    }
+
+    /**
+     * Sends stream data to the central as notifications, split to the link MTU.
+     * @return false if the module isn't connected
+     */
+    public boolean send(byte[] data)
+    {
+        SimulatedBLEHandler handler = mHandler;
+        return handler != null && handler.notifyCentral(this, data);
+    }
+
+    public boolean send(String data)
+    {
+        return send(data.getBytes(CHARSET));
+    }
+
+    void attach(SimulatedBLEHandler handler)
+    {
+        mHandler = handler;
+    }
+
+    synchronized void onConnected()
+    {
+        mVariables.put("bl c c", "1");
+        mLine.setLength(0);
+    }
+
+    synchronized void onDisconnected()
+    {
+        mVariables.put("bl c c", "0");
+        mLine.setLength(0);
+    }
+
+    //data written by the central, arrives in MTU sized pieces
+    void receive(byte[] data)
+    {
+        if (mMode == BLEHandlerAPI.MODE_STREAM)
+        {
+            StreamListener listener;
+            boolean loopback;
+            synchronized (this)
+            {
+                listener = mStreamListener;
+                loopback = mLoopback;
+            }
+
+            if (listener != null)
+            {
+                listener.onStreamData(this, data);
+            }
+            if (loopback)
+            {
+                send(data);
+            }
+            return;
+        }
+
+        for (byte b : data)
+        {
+            char c = (char)(b & 0xFF);
+            if (c == '\n')
+            {
+                final String line;
+                synchronized (this)
+                {
+                    line = mLine.toString().trim();
+                    mLine.setLength(0);
+                }
+                if (line.length() > 0)
+                {
+                    runCommand(line);
+                }
+            }
+            else if (c != '\r')
+            {
+                synchronized (this)
+                {
+                    mLine.append(c);
+                }
+            }
+        }
+    }
+
+    private void runCommand(final String line)
+    {
+        long delay;
+        synchronized (this)
+        {
+            delay = mCommandDelayMs;
+            mCommandCount++;
+        }
+
+        SimulatedBLEHandler handler = mHandler;
+        if (handler == null)
+        {
+            return;
+        }
+
+        handler.getClock().schedule(delay, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                execute(line);
+            }
+        });
+    }
+
+    private void execute(String line)
+    {
+        String[] args = line.split(" ");
+        String command = args[0];
+
+        if (command.equals("adc"))
+        {
+            int gpio = parseGpio(args);
+            if (gpio < 0)
+            {
+                respond(Result.BAD_ARGS, "Invalid argument");
+            }
+            else
+            {
+                respond(Result.SUCCESS, String.format(Locale.US, "0x%X", readAdc(gpio)));
+            }
+        }
+        else if (command.equals("gge"))
+        {
+            int gpio = parseGpio(args);
+            if (gpio < 0)
+            {
+                respond(Result.BAD_ARGS, "Invalid argument");
+            }
+            else
+            {
+                respond(Result.SUCCESS, Integer.toString(getGpio(gpio)));
+            }
+        }
+        else if (command.equals("gse"))
+        {
+            int gpio = parseGpio(args);
+            if (gpio < 0 || args.length < 3)
+            {
+                respond(Result.BAD_ARGS, "Invalid argument");
+            }
+            else
+            {
+                setGpio(gpio, args[2].equals("1") ? 1 : 0);
+                respond(Result.SUCCESS, "Success");
+            }
+        }
+        else if (command.equals("gfu") || command.equals("gdi"))
+        {
+            int gpio = parseGpio(args);
+            if (gpio < 0 || args.length < 3)
+            {
+                respond(Result.BAD_ARGS, "Invalid argument");
+            }
+            else
+            {
+                synchronized (this)
+                {
+                    if (command.equals("gfu"))
+                    {
+                        mGpioFunctions[gpio] = args[2];
+                    }
+                    else
+                    {
+                        mGpioDirections[gpio] = args[2];
+                    }
+                }
+                respond(Result.SUCCESS, "Success");
+            }
+        }
+        else if (command.equals("get"))
+        {
+            String value = getVariable(variableName(line));
+            if (value == null)
+            {
+                respond(Result.UNKNOWN_OPTION, "Unknown variable");
+            }
+            else
+            {
+                respond(Result.SUCCESS, value);
+            }
+        }
+        else if (command.equals("set"))
+        {
+            set(line.substring(command.length()).trim());
+        }
+        else if (command.equals("save"))
+        {
+            synchronized (this)
+            {
+                mSaved.clear();
+                mSaved.putAll(mVariables);
+            }
+            respond(Result.SUCCESS, "Success");
+        }
+        else if (command.equals("reboot"))
+        {
+            respond(Result.SUCCESS, "Rebooting");
+            reboot(false);
+        }
+        else if (command.equals("fac"))
+        {
+            if (args.length < 2 || !args[1].equalsIgnoreCase(mAddress))
+            {
+                respond(Result.BAD_ARGS, "Invalid argument");
+            }
+            else
+            {
+                respond(Result.SUCCESS, "Rebooting");
+                reboot(true);
+            }
+        }
+        else if (command.equals("ver"))
+        {
+            respond(Result.SUCCESS, getFirmwareVersion());
+        }
+        else if (command.equals("str"))
+        {
+            respond(Result.SUCCESS, "Stream mode");
+            mMode = BLEHandlerAPI.MODE_STREAM;
+        }
+        else if (command.equals("sleep"))
+        {
+            respond(Result.SUCCESS, "Sleeping");
+            reboot(false);
+        }
+        else if (command.equals("beep") || command.equals("pwm"))
+        {
+            respond(Result.SUCCESS, "Success");
+        }
+        else
+        {
+            respond(Result.UNKNOWN_COMMAND, "Unknown command");
+        }
+    }
+
+    //"set <name> <value>", names contain spaces so the value is the last word
+    private void set(String nameAndValue)
+    {
+        int split = nameAndValue.lastIndexOf(' ');
+        if (split < 0)
+        {
+            respond(Result.TOO_FEW_ARGS, "Too few args");
+            return;
+        }
+
+        String name = nameAndValue.substring(0, split);
+        String value = nameAndValue.substring(split + 1);
+        int code;
+        synchronized (this)
+        {
+            if (!mVariables.containsKey(name))
+            {
+                code = Result.UNKNOWN_OPTION;
+            }
+            else if (isReadOnly(name))
+            {
+                code = Result.FAILED;
+            }
+            else
+            {
+                mVariables.put(name, value);
+                code = Result.SUCCESS;
+            }
+        }
+
+        respond(code, code == Result.SUCCESS ? "Set OK" : "Command failed");
+    }
+
+    private void reboot(final boolean factoryReset)
+    {
+        final SimulatedBLEHandler handler = mHandler;
+        handler.getClock().schedule(REBOOT_DELAY_MS, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (SimulatedModule.this)
+                {
+                    mVariables.clear();
+                    if (factoryReset)
+                    {
+                        factoryDefaults();
+                        mSaved.clear();
+                        mSaved.putAll(mVariables);
+                    }
+                    else
+                    {
+                        mVariables.putAll(mSaved);
+                    }
+                }
+                mMode = BLEHandlerAPI.MODE_STREAM;
+                handler.dropConnection(mName);
+            }
+        });
+    }
+
+    private synchronized int readAdc(int gpio)
+    {
+        return mAdc[gpio];
+    }
+
+    private void respond(int code, String data)
+    {
+        SimulatedBLEHandler handler = mHandler;
+        if (handler != null)
+        {
+            handler.notifyCentral(this, formatResponse(code, data).getBytes(CHARSET));
+        }
+    }
+
+    //R<code><length>\r\n<data>\r\n, the length counts the data and its line end
+    static String formatResponse(int code, String data)
+    {
+        return String.format(Locale.US, "R%d%05d\r\n%s\r\n", code, data.length() + 2, data);
+    }
+
+    private static String variableName(String line)
+    {
+        return line.substring(line.indexOf(' ') + 1).trim();
+    }
+
+    private static int parseGpio(String[] args)
+    {
+        if (args.length < 2)
+        {
+            return -1;
+        }
+
+        try
+        {
+            int gpio = Integer.parseInt(args[1]);
+            return gpio >= 0 && gpio < GPIO_COUNT ? gpio : -1;
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    private static boolean isReadOnly(String name)
+    {
+        for (String readOnly : READ_ONLY)
+        {
+            if (readOnly.equals(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void factoryDefaults()
+    {
+        mVariables.put("bl a", mAddress);
+        mVariables.put("bl c c", "0");
+        mVariables.put("bl e e", "0");
+        mVariables.put("bl e k", "");
+        mVariables.put("bl s u", "175f8f23-a570-49bd-9627-815a6a27de2a");
+        mVariables.put("bl t a", "4");
+        mVariables.put("bl t c", "4");
+        mVariables.put("bl v m", "high");
+        mVariables.put("bl v d b", "");
+        mVariables.put("bl v d f", "b");
+        mVariables.put("bl v d g", "0");
+        mVariables.put("bl v d i", "");
+        mVariables.put("bl v h d", "30");
+        mVariables.put("bl v h i", "32");
+        mVariables.put("bl v l d", "300");
+        mVariables.put("bl v l i", "1600");
+        mVariables.put("bu i", "stream");
+        mVariables.put("bu s c", "auto");
+        mVariables.put("ce a d", "");
+        mVariables.put("ce c c", "0");
+        mVariables.put("ce c m", "none");
+        mVariables.put("ce s h d", "30");
+        mVariables.put("ce s h i", "96");
+        mVariables.put("ce s l d", "300");
+        mVariables.put("ce s l i", "2048");
+        mVariables.put("ce s m", "off");
+        mVariables.put("gp u", "");
+        mVariables.put("sy a t", "0");
+        mVariables.put("sy b n", "AMS001");
+        mVariables.put("sy c e", "0");
+        mVariables.put("sy c h", "1");
+        mVariables.put("sy c m", "machine");
+        mVariables.put("sy c p", "0");
+        mVariables.put("sy d n", mName);
+        mVariables.put("sy i s", "0");
+        mVariables.put("sy o e", "1");
+        mVariables.put("sy p", "3");
+        mVariables.put("sy r e", "1");
+        mVariables.put("sy s t", "0");
+        mVariables.put("sy u", "0000" + mAddress.replace(":", ""));
+        mVariables.put("sy v", mFirmwareVersion);
+        mVariables.put("sy w t", "0");
+        mVariables.put("ua b", "115200");
+        mVariables.put("ua f", "0");
+        mVariables.put("us v", "");
+
+        for (int i = 0; i < GPIO_COUNT; i++)
+        {
+            mGpioFunctions[i] = "none";
+            mGpioDirections[i] = "hiz";
+        }
+    }
+}
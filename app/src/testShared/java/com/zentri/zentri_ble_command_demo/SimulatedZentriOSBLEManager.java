@@ -0,0 +1,1214 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.content.Context;
+
+import com.zentri.zentri_ble.BLECallbacks.ReceiveMode;
+import com.zentri.zentri_ble_command.BLEBeaconFormat;
+import com.zentri.zentri_ble_command.BLECallbacks;
+import com.zentri.zentri_ble_command.BaudRate;
+import com.zentri.zentri_ble_command.BusInitMode;
+import com.zentri.zentri_ble_command.CommandMode;
+import com.zentri.zentri_ble_command.ErrorCode;
+import com.zentri.zentri_ble_command.GPIODirection;
+import com.zentri.zentri_ble_command.GPIOFunction;
+import com.zentri.zentri_ble_command.PrintLevel;
+import com.zentri.zentri_ble_command.Result;
+import com.zentri.zentri_ble_command.SerialControl;
+import com.zentri.zentri_ble_command.ZentriOSBLEManager;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * ZentriOSBLEManager that runs on a {@link SimulatedBLEHandler} instead of the Android BLE stack.
+ *
+ * The library's manager always talks to the BLEHandlerSingleton, so this replaces its command
+ * layer: commands are queued per device and sent one at a time as ZentriOS command lines through
+ * the handler, responses are parsed from the received data and reported through onCommandResult,
+ * and commands that get no response within {@link #getCommandTimeout()} are failed with
+ * COMMAND_TIMEOUT. Everything else is passed through to the handler and its callbacks mapped to
+ * the command library's.
+ *
+ * Result has no public constructor, results are created through reflection. The library classes
+ * have no stack map frames, so on a desktop JVM run with -noverify.
+ */
+public class SimulatedZentriOSBLEManager extends ZentriOSBLEManager
+{
+    public static final long DEFAULT_COMMAND_TIMEOUT_MS = 5000;
+
+    private static final int HEADER_LENGTH = 9;//R<code><5 digit length>\r\n
+
+    private static final Constructor<Result> sResultConstructor;
+
+    static
+    {
+        try
+        {
+            sResultConstructor = Result.class.getDeclaredConstructor(int.class, String.class);
+            sResultConstructor.setAccessible(true);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new IllegalStateException("Unsupported command library version", e);
+        }
+    }
+
+    private static final class PendingCommand
+    {
+        final int mID;
+        final String mCommand;
+
+        PendingCommand(int id, String command)
+        {
+            mID = id;
+            mCommand = command;
+        }
+    }
+
+    //command state for one connected device
+    private static final class Channel
+    {
+        final ArrayDeque<PendingCommand> mQueue = new ArrayDeque<>();
+        PendingCommand mCurrent;
+        int mCommandBytes;//bytes of the current command line not yet acknowledged
+        final StringBuilder mResponse = new StringBuilder();
+        Runnable mTimeout;
+        boolean mDisconnecting;
+    }
+
+    private final SimulatedBLEHandler mHandler;
+    private final HashMap<String, Channel> mChannels = new HashMap<>();
+    private BLECallbacks mCallbacks;
+    private int mNextID;
+    private long mCommandTimeoutMs = DEFAULT_COMMAND_TIMEOUT_MS;
+
+    private final com.zentri.zentri_ble.BLECallbacks mHandlerCallbacks =
+            new com.zentri.zentri_ble.BLECallbacks()
+    {
+        @Override
+        public void onScanResult(String deviceName, String address)
+        {
+            BLECallbacks callbacks = getCallbacks();
+            if (callbacks != null)
+            {
+                callbacks.onScanResult(deviceName, address);
+            }
+        }
+
+        @Override
+        public void onConnect(String deviceName, int services)
+        {
+            BLECallbacks callbacks;
+            synchronized (SimulatedZentriOSBLEManager.this)
+            {
+                mChannels.put(deviceName, new Channel());
+                callbacks = mCallbacks;
+            }
+
+            if (callbacks != null)
+            {
+                callbacks.onConnected(deviceName, services);
+            }
+        }
+
+        @Override
+        public void onConnectFailed(String deviceName, com.zentri.zentri_ble.BLECallbacks.Result result)
+        {
+            BLECallbacks callbacks = getCallbacks();
+            if (callbacks != null)
+            {
+                callbacks.onError(deviceName, ErrorCode.CONNECT_FAILED);
+            }
+        }
+
+        @Override
+        public void onDisconnect(String deviceName)
+        {
+            Channel channel;
+            BLECallbacks callbacks;
+            synchronized (SimulatedZentriOSBLEManager.this)
+            {
+                channel = mChannels.remove(deviceName);
+                callbacks = mCallbacks;
+                if (channel != null && channel.mTimeout != null)
+                {
+                    mHandler.getClock().cancel(channel.mTimeout);
+                }
+            }
+
+            if (callbacks != null)
+            {
+                if (channel != null && !channel.mDisconnecting)
+                {
+                    callbacks.onError(deviceName, ErrorCode.CONNECTION_LOST);
+                }
+                callbacks.onDisconnected(deviceName);
+            }
+        }
+
+        @Override
+        public void onDisconnectFailed(String deviceName)
+        {
+            BLECallbacks callbacks = getCallbacks();
+            if (callbacks != null)
+            {
+                callbacks.onError(deviceName, ErrorCode.DISCONNECT_FAILED);
+            }
+        }
+
+        @Override
+        public void onStringDataRead(String deviceName, String data)
+        {
+            if (!onResponseData(deviceName, data))
+            {
+                BLECallbacks callbacks = getCallbacks();
+                if (callbacks != null)
+                {
+                    callbacks.onStringDataRead(deviceName, data);
+                }
+            }
+        }
+
+        @Override
+        public void onBinaryDataRead(String deviceName, byte[] data)
+        {
+            if (!onResponseData(deviceName, new String(data, SimulatedModule.CHARSET)))
+            {
+                BLECallbacks callbacks = getCallbacks();
+                if (callbacks != null)
+                {
+                    callbacks.onBinaryDataRead(deviceName, data);
+                }
+            }
+        }
+
+        @Override
+        public void onStringDataWrite(String deviceName, String data)
+        {
+            int streamBytes = onWriteAcknowledged(deviceName, data.length());
+            BLECallbacks callbacks = getCallbacks();
+            if (callbacks != null && streamBytes > 0)
+            {
+                callbacks.onStringDataWritten(deviceName,
+                                              data.substring(data.length() - streamBytes));
+            }
+        }
+
+        @Override
+        public void onBinaryDataWrite(String deviceName, byte[] data)
+        {
+            BLECallbacks callbacks = getCallbacks();
+            if (callbacks != null)
+            {
+                callbacks.onBinaryDataWritten(deviceName, data);
+            }
+        }
+
+        @Override
+        public void onModeChanged(String deviceName, int mode)
+        {
+            BLECallbacks callbacks = getCallbacks();
+            if (callbacks != null)
+            {
+                callbacks.onModeWritten(deviceName, mode);
+            }
+        }
+
+        @Override
+        public void onModeRead(String deviceName, int mode)
+        {
+            BLECallbacks callbacks = getCallbacks();
+            if (callbacks != null)
+            {
+                callbacks.onModeRead(deviceName, mode);
+            }
+        }
+
+        @Override
+        public void onFirmwareVersionRead(String deviceName, String version)
+        {
+            BLECallbacks callbacks = getCallbacks();
+            if (callbacks != null)
+            {
+                callbacks.onFirmwareVersionRead(deviceName, version);
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(String deviceName, UUID service, UUID characteristic,
+                                         byte[] value)
+        {
+            BLECallbacks callbacks = getCallbacks();
+            if (callbacks != null)
+            {
+                callbacks.onCharacteristicRead(deviceName, service, characteristic, value);
+            }
+        }
+
+        @Override
+        public void onCharacteristicWritten(String deviceName, UUID service, UUID characteristic,
+                                            byte[] value)
+        {
+            BLECallbacks callbacks = getCallbacks();
+            if (callbacks != null)
+            {
+                callbacks.onCharacteristicWritten(deviceName, service, characteristic, value);
+            }
+        }
+
+        @Override
+        public void onError(String deviceName, com.zentri.zentri_ble.BLECallbacks.Error error,
+                            String message)
+        {
+            BLECallbacks callbacks = getCallbacks();
+            if (callbacks != null)
+            {
+                callbacks.onError(deviceName, toErrorCode(error));
+            }
+        }
+    };
+
+    public SimulatedZentriOSBLEManager(SimulatedBLEHandler handler)
+    {
+        mHandler = handler;
+    }
+
+    public SimulatedBLEHandler getHandler()
+    {
+        return mHandler;
+    }
+
+    public synchronized long getCommandTimeout()
+    {
+        return mCommandTimeoutMs;
+    }
+
+    public synchronized void setCommandTimeout(long ms)
+    {
+        mCommandTimeoutMs = ms;
+    }
+
+    @Override
+    public boolean init(Context context, BLECallbacks callbacks)
+    {
+        synchronized (this)
+        {
+            mCallbacks = callbacks;
+        }
+        return mHandler.init(context, mHandlerCallbacks);
+    }
+
+    @Override
+    public void deinit()
+    {
+        mHandler.deinit();
+        synchronized (this)
+        {
+            mCallbacks = null;
+            mChannels.clear();
+        }
+    }
+
+    @Override
+    public synchronized boolean isInitialised()
+    {
+        return mCallbacks != null;
+    }
+
+    @Override
+    public boolean startScan()
+    {
+        return mHandler.startBLEScan();
+    }
+
+    @Override
+    public boolean stopScan()
+    {
+        return mHandler.stopBLEScan();
+    }
+
+    @Override
+    public boolean connect(String deviceName)
+    {
+        return mHandler.connect(deviceName, true);
+    }
+
+    @Override
+    public boolean connect(String deviceName, boolean txNotify)
+    {
+        return mHandler.connect(deviceName, txNotify);
+    }
+
+    @Override
+    public boolean disconnect(String deviceName, boolean txNotify)
+    {
+        synchronized (this)
+        {
+            Channel channel = mChannels.get(deviceName);
+            if (channel != null)
+            {
+                channel.mDisconnecting = true;
+            }
+        }
+        return mHandler.disconnect(deviceName, txNotify);
+    }
+
+    @Override
+    public boolean isConnected(String deviceName)
+    {
+        return mHandler.isConnected(deviceName);
+    }
+
+    @Override
+    public boolean setMode(String deviceName, int mode)
+    {
+        return mHandler.writeMode(deviceName, mode);
+    }
+
+    @Override
+    public boolean getMode(String deviceName)
+    {
+        return mHandler.readMode(deviceName);
+    }
+
+    @Override
+    public int adc(String deviceName, int gpio)
+    {
+        return isValidGPIO(gpio) ? send(deviceName, "adc " + gpio) : ID_INVALID;
+    }
+
+    @Override
+    public int beep(String deviceName, int duration)
+    {
+        return send(deviceName, "beep " + duration);
+    }
+
+    @Override
+    public int factoryReset(String deviceName, String address)
+    {
+        return send(deviceName, "fac " + address);
+    }
+
+    @Override
+    public int GPIOFunctionSet(String deviceName, int gpio, GPIOFunction function)
+    {
+        return isValidGPIO(gpio) ? send(deviceName, "gfu " + gpio + " " + function) : ID_INVALID;
+    }
+
+    @Override
+    public int GPIODirectionSet(String deviceName, int gpio, GPIODirection direction)
+    {
+        return isValidGPIO(gpio) ? send(deviceName, "gdi " + gpio + " " + direction) : ID_INVALID;
+    }
+
+    @Override
+    public int GPIOGet(String deviceName, int gpio)
+    {
+        return isValidGPIO(gpio) ? send(deviceName, "gge " + gpio) : ID_INVALID;
+    }
+
+    @Override
+    public int GPIOSet(String deviceName, int gpio, int value)
+    {
+        if (!isValidGPIO(gpio) || value < GPIO_VAL_MIN || value > GPIO_VAL_MAX)
+        {
+            return ID_INVALID;
+        }
+        return send(deviceName, "gse " + gpio + " " + value);
+    }
+
+    @Override
+    public int getVersion(String deviceName)
+    {
+        return send(deviceName, "ver");
+    }
+
+    @Override
+    public int getBluetoothAddress(String deviceName)
+    {
+        return get(deviceName, "bl a");
+    }
+
+    @Override
+    public int getBluetoothConnectionCount(String deviceName)
+    {
+        return get(deviceName, "bl c c");
+    }
+
+    @Override
+    public int getBluetoothEncryptionEnable(String deviceName)
+    {
+        return get(deviceName, "bl e e");
+    }
+
+    @Override
+    public int getBluetoothEncryptionKey(String deviceName)
+    {
+        return get(deviceName, "bl e k");
+    }
+
+    @Override
+    public int getBluetoothServiceUUID(String deviceName)
+    {
+        return get(deviceName, "bl s u");
+    }
+
+    @Override
+    public int getBluetoothTxPowerAdv(String deviceName)
+    {
+        return get(deviceName, "bl t a");
+    }
+
+    @Override
+    public int getBluetoothTxPowerCon(String deviceName)
+    {
+        return get(deviceName, "bl t c");
+    }
+
+    @Override
+    public int getBluetoothAdvMode(String deviceName)
+    {
+        return get(deviceName, "bl v m");
+    }
+
+    @Override
+    public int getBluetoothAdvBeaconData(String deviceName)
+    {
+        return get(deviceName, "bl v d b");
+    }
+
+    @Override
+    public int getBluetoothAdvBeaconFormat(String deviceName)
+    {
+        return get(deviceName, "bl v d f");
+    }
+
+    @Override
+    public int getBluetoothAdvBeaconGpioMask(String deviceName)
+    {
+        return get(deviceName, "bl v d g");
+    }
+
+    @Override
+    public int getBluetoothAdvIbeaconContent(String deviceName)
+    {
+        return get(deviceName, "bl v d i");
+    }
+
+    @Override
+    public int getBluetoothAdvHighDur(String deviceName)
+    {
+        return get(deviceName, "bl v h d");
+    }
+
+    @Override
+    public int getBluetoothAdvHighInt(String deviceName)
+    {
+        return get(deviceName, "bl v h i");
+    }
+
+    @Override
+    public int getBluetoothAdvLowDur(String deviceName)
+    {
+        return get(deviceName, "bl v l d");
+    }
+
+    @Override
+    public int getBluetoothAdvLowInt(String deviceName)
+    {
+        return get(deviceName, "bl v l i");
+    }
+
+    @Override
+    public int getBusInitMode(String deviceName)
+    {
+        return get(deviceName, "bu i");
+    }
+
+    @Override
+    public int getBusSerialControl(String deviceName)
+    {
+        return get(deviceName, "bu s c");
+    }
+
+    @Override
+    public int getCentralAutoConnectDevice(String deviceName)
+    {
+        return get(deviceName, "ce a d");
+    }
+
+    @Override
+    public int getCentralConCount(String deviceName)
+    {
+        return get(deviceName, "ce c c");
+    }
+
+    @Override
+    public int getCentralConMode(String deviceName)
+    {
+        return get(deviceName, "ce c m");
+    }
+
+    @Override
+    public int getCentralScanHighDur(String deviceName)
+    {
+        return get(deviceName, "ce s h d");
+    }
+
+    @Override
+    public int getCentralScanHighInt(String deviceName)
+    {
+        return get(deviceName, "ce s h i");
+    }
+
+    @Override
+    public int getCentralScanLowDur(String deviceName)
+    {
+        return get(deviceName, "ce s l d");
+    }
+
+    @Override
+    public int getCentralScanLowInt(String deviceName)
+    {
+        return get(deviceName, "ce s l i");
+    }
+
+    @Override
+    public int getCentralScanMode(String deviceName)
+    {
+        return get(deviceName, "ce s m");
+    }
+
+    @Override
+    public int getSystemActivityTimeout(String deviceName)
+    {
+        return get(deviceName, "sy a t");
+    }
+
+    @Override
+    public int getSystemBoardName(String deviceName)
+    {
+        return get(deviceName, "sy b n");
+    }
+
+    @Override
+    public int getSystemCommandEcho(String deviceName)
+    {
+        return get(deviceName, "sy c e");
+    }
+
+    @Override
+    public int getSystemCommandHeader(String deviceName)
+    {
+        return get(deviceName, "sy c h");
+    }
+
+    @Override
+    public int getSystemCommandPrompt(String deviceName)
+    {
+        return get(deviceName, "sy c p");
+    }
+
+    @Override
+    public int getSystemDeviceName(String deviceName)
+    {
+        return get(deviceName, "sy d n");
+    }
+
+    @Override
+    public int getSystemIndicatorStatus(String deviceName)
+    {
+        return get(deviceName, "sy i s");
+    }
+
+    @Override
+    public int getSystemOTAEnable(String deviceName)
+    {
+        return get(deviceName, "sy o e");
+    }
+
+    @Override
+    public int getSystemPrintLevel(String deviceName)
+    {
+        return get(deviceName, "sy p");
+    }
+
+    @Override
+    public int getSystemRemoteEnable(String deviceName)
+    {
+        return get(deviceName, "sy r e");
+    }
+
+    @Override
+    public int getSystemGoToSleepTimeout(String deviceName)
+    {
+        return get(deviceName, "sy s t");
+    }
+
+    @Override
+    public int getSystemUUID(String deviceName)
+    {
+        return get(deviceName, "sy u");
+    }
+
+    @Override
+    public int getSystemWakeUpTimeout(String deviceName)
+    {
+        return get(deviceName, "sy w t");
+    }
+
+    @Override
+    public int getUARTBaudRate(String deviceName)
+    {
+        return get(deviceName, "ua b");
+    }
+
+    @Override
+    public int getUARTFlowControl(String deviceName)
+    {
+        return get(deviceName, "ua f");
+    }
+
+    @Override
+    public int getUserVariable(String deviceName)
+    {
+        return get(deviceName, "us v");
+    }
+
+    @Override
+    public int setBluetoothAdvIbeaconContent(String deviceName, UUID uuid, short major, short minor)
+    {
+        return set(deviceName, "bl v d i",
+                   String.format(Locale.US, "%s,%04X,%04X", uuid, major & 0xFFFF, minor & 0xFFFF));
+    }
+
+    @Override
+    public int setBluetoothEncryptionEnable(String deviceName, boolean enable)
+    {
+        return set(deviceName, "bl e e", flag(enable));
+    }
+
+    @Override
+    public int setBluetoothEncryptionKey(String deviceName, String key)
+    {
+        return set(deviceName, "bl e k", key);
+    }
+
+    @Override
+    public int setBluetoothServiceUUID(String deviceName, UUID uuid)
+    {
+        return set(deviceName, "bl s u", uuid.toString());
+    }
+
+    @Override
+    public int setBluetoothServiceUUID(String deviceName, String uuid)
+    {
+        return set(deviceName, "bl s u", uuid);
+    }
+
+    @Override
+    public int setBluetoothTxPowerAdv(String deviceName, int power)
+    {
+        return set(deviceName, "bl t a", Integer.toString(power));
+    }
+
+    @Override
+    public int setBluetoothTxPowerCon(String deviceName, int power)
+    {
+        return set(deviceName, "bl t c", Integer.toString(power));
+    }
+
+    @Override
+    public int setBluetoothAdvBeaconData(String deviceName, String data)
+    {
+        return set(deviceName, "bl v d b", data);
+    }
+
+    @Override
+    public int setBluetoothAdvBeaconFormat(String deviceName, BLEBeaconFormat format)
+    {
+        return set(deviceName, "bl v d f", format.toString());
+    }
+
+    @Override
+    public int setBluetoothAdvBeaconGpioMask(String deviceName, String mask)
+    {
+        return set(deviceName, "bl v d g", mask);
+    }
+
+    @Override
+    public int setBluetoothAdvHighDur(String deviceName, int duration)
+    {
+        return set(deviceName, "bl v h d", Integer.toString(duration));
+    }
+
+    @Override
+    public int setBluetoothAdvHighInt(String deviceName, int interval)
+    {
+        return set(deviceName, "bl v h i", Integer.toString(interval));
+    }
+
+    @Override
+    public int setBluetoothAdvLowDur(String deviceName, int duration)
+    {
+        return set(deviceName, "bl v l d", Integer.toString(duration));
+    }
+
+    @Override
+    public int setBluetoothAdvLowInt(String deviceName, int interval)
+    {
+        return set(deviceName, "bl v l i", Integer.toString(interval));
+    }
+
+    @Override
+    public int setBusInitMode(String deviceName, BusInitMode mode)
+    {
+        return set(deviceName, "bu i", mode.toString());
+    }
+
+    @Override
+    public int setBusSerialControl(String deviceName, SerialControl control)
+    {
+        return set(deviceName, "bu s c", control.toString());
+    }
+
+    @Override
+    public int setCentralAutoConnectDevice(String deviceName, String address)
+    {
+        return set(deviceName, "ce a d", address);
+    }
+
+    @Override
+    public int setCentralScanHighDur(String deviceName, int duration)
+    {
+        return set(deviceName, "ce s h d", Integer.toString(duration));
+    }
+
+    @Override
+    public int setCentralScanHighInt(String deviceName, int interval)
+    {
+        return set(deviceName, "ce s h i", Integer.toString(interval));
+    }
+
+    @Override
+    public int setCentralScanLowDur(String deviceName, int duration)
+    {
+        return set(deviceName, "ce s l d", Integer.toString(duration));
+    }
+
+    @Override
+    public int setCentralScanLowInt(String deviceName, int interval)
+    {
+        return set(deviceName, "ce s l i", Integer.toString(interval));
+    }
+
+    @Override
+    public int setActivityTimeout(String deviceName, int timeout)
+    {
+        return set(deviceName, "sy a t", Integer.toString(timeout));
+    }
+
+    @Override
+    public int setSystemBoardName(String deviceName, String name)
+    {
+        return set(deviceName, "sy b n", name);
+    }
+
+    @Override
+    public int setSystemCommandEcho(String deviceName, boolean enable)
+    {
+        return set(deviceName, "sy c e", flag(enable));
+    }
+
+    @Override
+    public int setSystemCommandHeader(String deviceName, boolean enable)
+    {
+        return set(deviceName, "sy c h", flag(enable));
+    }
+
+    @Override
+    public int setSystemCommandMode(String deviceName, CommandMode mode)
+    {
+        return set(deviceName, "sy c m", mode.toString());
+    }
+
+    @Override
+    public int setSystemCommandPrompt(String deviceName, boolean enable)
+    {
+        return set(deviceName, "sy c p", flag(enable));
+    }
+
+    @Override
+    public int setSystemDeviceName(String deviceName, String name)
+    {
+        return set(deviceName, "sy d n", name);
+    }
+
+    @Override
+    public int setSystemOTAEnable(String deviceName, boolean enable)
+    {
+        return set(deviceName, "sy o e", flag(enable));
+    }
+
+    @Override
+    public int setSystemPrintLevel(String deviceName, PrintLevel level)
+    {
+        return set(deviceName, "sy p", level.toString());
+    }
+
+    @Override
+    public int setSystemRemoteCommandEnable(String deviceName, boolean enable)
+    {
+        return set(deviceName, "sy r e", flag(enable));
+    }
+
+    @Override
+    public int setSystemGoToSleepTimeout(String deviceName, int timeout)
+    {
+        return set(deviceName, "sy s t", Integer.toString(timeout));
+    }
+
+    @Override
+    public int setSystemGoWakeUpTimeout(String deviceName, int timeout)
+    {
+        return set(deviceName, "sy w t", Integer.toString(timeout));
+    }
+
+    @Override
+    public int setUARTBaudRate(String deviceName, BaudRate rate)
+    {
+        return set(deviceName, "ua b", rate.toString());
+    }
+
+    @Override
+    public int setUARTFlowControl(String deviceName, boolean enable)
+    {
+        return set(deviceName, "ua f", flag(enable));
+    }
+
+    @Override
+    public int setUserVariable(String deviceName, String value)
+    {
+        return set(deviceName, "us v", value);
+    }
+
+    //not simulated
+    @Override
+    public int setSystemIndicatorBlinkRate(String deviceName, float a, float b, float c, float d)
+    {
+        return ID_INVALID;
+    }
+
+    @Override
+    public int pwmStart(String deviceName, int gpio, float dutyCycle, int frequency)
+    {
+        return isValidGPIO(gpio) ? send(deviceName, String.format(Locale.US, "pwm %d %d %d", gpio,
+                                                                   Math.round(dutyCycle), frequency))
+                                 : ID_INVALID;
+    }
+
+    @Override
+    public int pwmStop(String deviceName, int gpio)
+    {
+        return isValidGPIO(gpio) ? send(deviceName, "pwm " + gpio + " stop") : ID_INVALID;
+    }
+
+    @Override
+    public int reboot(String deviceName)
+    {
+        return send(deviceName, "reboot");
+    }
+
+    @Override
+    public int save(String deviceName)
+    {
+        return send(deviceName, "save");
+    }
+
+    @Override
+    public int sleep(String deviceName)
+    {
+        return send(deviceName, "sleep");
+    }
+
+    @Override
+    public int streamMode(String deviceName)
+    {
+        return send(deviceName, "str");
+    }
+
+    @Override
+    public ReceiveMode getReceiveMode()
+    {
+        return mHandler.getReceiveMode();
+    }
+
+    @Override
+    public boolean setReceiveMode(ReceiveMode mode)
+    {
+        return mHandler.setReceiveMode(mode);
+    }
+
+    @Override
+    public boolean writeData(String deviceName, String data)
+    {
+        return mHandler.writeData(deviceName, data);
+    }
+
+    @Override
+    public boolean writeData(String deviceName, byte[] data)
+    {
+        return mHandler.writeData(deviceName, ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public boolean readFirmwareVersion(String deviceName)
+    {
+        return mHandler.readFirmwareRev(deviceName);
+    }
+
+    private int get(String deviceName, String variable)
+    {
+        return send(deviceName, "get " + variable);
+    }
+
+    private int set(String deviceName, String variable, String value)
+    {
+        return send(deviceName, "set " + variable + " " + value);
+    }
+
+    private int send(String deviceName, String command)
+    {
+        int id;
+        synchronized (this)
+        {
+            Channel channel = mChannels.get(deviceName);
+            if (channel == null)
+            {
+                return ID_INVALID;
+            }
+
+            id = mNextID++;
+            channel.mQueue.addLast(new PendingCommand(id, command));
+        }
+
+        sendNext(deviceName);
+        return id;
+    }
+
+    //sends the next queued command if none is outstanding
+    private void sendNext(final String deviceName)
+    {
+        String line;
+        synchronized (this)
+        {
+            final Channel channel = mChannels.get(deviceName);
+            if (channel == null || channel.mCurrent != null || channel.mQueue.isEmpty())
+            {
+                return;
+            }
+
+            final PendingCommand command = channel.mQueue.pollFirst();
+            channel.mCurrent = command;
+            channel.mResponse.setLength(0);
+            line = command.mCommand + "\r\n";
+            channel.mCommandBytes = line.length();
+            channel.mTimeout = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    onTimeout(deviceName, channel, command);
+                }
+            };
+            mHandler.getClock().schedule(mCommandTimeoutMs, channel.mTimeout);
+        }
+
+        mHandler.writeData(deviceName, line);
+    }
+
+    //returns the number of acknowledged bytes that were stream data rather than a command line
+    private int onWriteAcknowledged(String deviceName, int length)
+    {
+        PendingCommand sent = null;
+        int commandBytes;
+        synchronized (this)
+        {
+            Channel channel = mChannels.get(deviceName);
+            if (channel == null || channel.mCommandBytes == 0)
+            {
+                return length;
+            }
+
+            commandBytes = Math.min(length, channel.mCommandBytes);
+            channel.mCommandBytes -= commandBytes;
+            if (channel.mCommandBytes == 0)
+            {
+                sent = channel.mCurrent;
+            }
+        }
+
+        BLECallbacks callbacks = getCallbacks();
+        if (sent != null && callbacks != null)
+        {
+            callbacks.onCommandSent(deviceName, sent.mID, sent.mCommand);
+        }
+        return length - commandBytes;
+    }
+
+    //returns false if the data is not part of a command response
+    private boolean onResponseData(String deviceName, String data)
+    {
+        PendingCommand command;
+        int code;
+        String response;
+        synchronized (this)
+        {
+            Channel channel = mChannels.get(deviceName);
+            if (channel == null || channel.mCurrent == null)
+            {
+                return false;
+            }
+
+            StringBuilder buffer = channel.mResponse;
+            buffer.append(data);
+            if (buffer.length() < HEADER_LENGTH)
+            {
+                return true;
+            }
+
+            int length;
+            try
+            {
+                code = Integer.parseInt(buffer.substring(1, 2));
+                length = Integer.parseInt(buffer.substring(2, 7));
+            }
+            catch (NumberFormatException e)
+            {
+                code = Result.INCOMPLETE_RESPONSE;
+                length = buffer.length() - HEADER_LENGTH;//give up on the garbled response
+            }
+            if (buffer.length() < HEADER_LENGTH + length)
+            {
+                return true;
+            }
+
+            response = buffer.substring(HEADER_LENGTH, HEADER_LENGTH + length).trim();
+            buffer.setLength(0);
+            command = channel.mCurrent;
+            channel.mCurrent = null;
+            mHandler.getClock().cancel(channel.mTimeout);
+            channel.mTimeout = null;
+        }
+
+        BLECallbacks callbacks = getCallbacks();
+        if (callbacks != null)
+        {
+            callbacks.onCommandResult(deviceName, command.mID, command.mCommand,
+                                      newResult(code, response));
+        }
+        sendNext(deviceName);
+        return true;
+    }
+
+    private void onTimeout(String deviceName, Channel channel, PendingCommand command)
+    {
+        synchronized (this)
+        {
+            if (mChannels.get(deviceName) != channel || channel.mCurrent != command)
+            {
+                return;
+            }
+
+            channel.mCurrent = null;
+            channel.mTimeout = null;
+            channel.mResponse.setLength(0);
+        }
+
+        BLECallbacks callbacks = getCallbacks();
+        if (callbacks != null)
+        {
+            callbacks.onError(deviceName, ErrorCode.COMMAND_TIMEOUT);
+        }
+        sendNext(deviceName);
+    }
+
+    private synchronized BLECallbacks getCallbacks()
+    {
+        return mCallbacks;
+    }
+
+    private static Result newResult(int code, String data)
+    {
+        try
+        {
+            return sResultConstructor.newInstance(code, data);
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Failed to create result", e);
+        }
+    }
+
+    private static ErrorCode toErrorCode(com.zentri.zentri_ble.BLECallbacks.Error error)
+    {
+        switch (error)
+        {
+            case CONNECT_FAILED:
+                return ErrorCode.CONNECT_FAILED;
+            case SERVICE_DISCOVERY_FAILED:
+                return ErrorCode.SERVICE_DISCOVERY_ERROR;
+            case DATA_WRITE_FAILED:
+            case MODE_WRITE_FAILED:
+            case CHAR_WRITE_FAILED:
+                return ErrorCode.WRITE_FAILED;
+            case DATA_READ_FAILED:
+            case MODE_READ_FAILED:
+            case CHAR_READ_FAILED:
+            case VERSION_READ_FAILED:
+                return ErrorCode.READ_FAILED;
+            case SET_NOTIFY_FAILED:
+            case SET_TX_NOTIFY_FAILED:
+            case SET_OTA_CONTROL_NOTIFY_FAILED:
+                return ErrorCode.SET_NOTIFY_FAILED;
+            case NO_CONNECTION_FOUND:
+                return ErrorCode.NO_CONNECTION_FOUND;
+            case DISCONNECT_WITHOUT_REQUEST:
+                return ErrorCode.CONNECTION_LOST;
+            default:
+                return ErrorCode.INTERNAL_ERROR;
+        }
+    }
+
+    private static boolean isValidGPIO(int gpio)
+    {
+        return gpio >= GPIO_MIN && gpio <= GPIO_MAX;
+    }
+
+    private static String flag(boolean value)
+    {
+        return value ? "1" : "0";
+    }
+}
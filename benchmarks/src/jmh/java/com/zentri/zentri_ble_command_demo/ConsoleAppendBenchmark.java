@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending received text to the console. The old console appended to the TextView's text
+ * without bound, modelled here by a StringBuilder which grows for the whole iteration (text
+ * layout is not included). ConsoleBuffer keeps a fixed window and drops old lines instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConsoleAppendBenchmark
+{
+    @Param({"20", "244"})
+    public int mChunkLength;
+
+    private String mChunk;
+    private StringBuilder mText;
+    private ConsoleBuffer mConsole;
+    private char[] mLine;
+
+    @Setup
+    public void setUp()
+    {
+        //a newline roughly every 80 chars, as with line based device output
+        StringBuilder chunk = new StringBuilder(mChunkLength);
+        for (int i = 0; i < mChunkLength; i++)
+        {
+            chunk.append(i % 80 == 79 || i == mChunkLength - 1 ? '\n' : (char)('a' + i % 26));
+        }
+        mChunk = chunk.toString();
+
+        mConsole = new ConsoleBuffer(ConsoleBuffer.DEFAULT_MAX_CHARS,
+                                     ConsoleBuffer.DEFAULT_MAX_LINES);
+        mLine = new char[256];
+    }
+
+    @Setup(Level.Iteration)
+    public void reset()
+    {
+        mText = new StringBuilder();
+        mConsole.clear();
+    }
+
+    @Benchmark
+    public int textAppend()
+    {
+        mText.append(mChunk);
+        return mText.length();
+    }
+
+    @Benchmark
+    public int consoleAppend()
+    {
+        mConsole.append(mChunk);
+        return mConsole.getLineCount();
+    }
+
+    //append plus binding the newest row, what the list does when it scrolls to the end
+    @Benchmark
+    public int consoleAppendAndBind()
+    {
+        mConsole.append(mChunk);
+        return mConsole.getLine(mConsole.getLineCount() - 1, mLine);
+    }
+}
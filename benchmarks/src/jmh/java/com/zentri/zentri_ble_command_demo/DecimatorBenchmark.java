@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preparing one frame of SampleChartView, a 60s window on a 1080 pixel wide chart. Naive
+ * rendering turns every sample in the window into a line segment, the decimated frame reads at
+ * most two points per column from a filled Decimator and does the same. Appending is measured
+ * per sample, it happens as samples arrive rather than per frame. LTTB is the alternative for
+ * stored ranges. Canvas drawing itself is not included, it scales with the segment count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DecimatorBenchmark
+{
+    private static final int COLUMNS = 1080;
+    private static final long WINDOW_MS = 60000;
+
+    //samples per second, 20 is SamplingScheduler's maximum, 1000 a streamed sensor
+    @Param({"20", "1000"})
+    public int mRateHz;
+
+    private long[] mTimestamps;
+    private int[] mValues;
+    private int mCount;
+    private Decimator mDecimator;
+
+    private long[] mPointTimestamps;
+    private int[] mPointValues;
+    private float[] mLines;
+    private int mNext;
+
+    @Setup
+    public void setUp()
+    {
+        mCount = (int)(WINDOW_MS * mRateHz / 1000);
+        mTimestamps = new long[mCount];
+        mValues = new int[mCount];
+        long seed = 1;
+        for (int i = 0; i < mCount; i++)
+        {
+            //a slow wave with noise, like a thermistor on the ADC
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            mTimestamps[i] = i * 1000L / mRateHz;
+            mValues[i] = 2048 + (int)(1000 * Math.sin(i * 0.001)) + (int)((seed >>> 56) - 128);
+        }
+
+        mDecimator = new Decimator(COLUMNS, WINDOW_MS);
+        mDecimator.append(mTimestamps, mValues, mCount);
+
+        mPointTimestamps = new long[Math.max(mCount, mDecimator.getMaxPoints())];
+        mPointValues = new int[mPointTimestamps.length];
+        mLines = new float[mPointTimestamps.length * 4];
+    }
+
+    @Benchmark
+    public int naiveFrame()
+    {
+        return toLines(mTimestamps, mValues, mCount);
+    }
+
+    @Benchmark
+    public int decimatedFrame()
+    {
+        int count = mDecimator.getPoints(mPointTimestamps, mPointValues);
+        return toLines(mPointTimestamps, mPointValues, count);
+    }
+
+    @Benchmark
+    public int lttbFrame()
+    {
+        int count = Decimator.largestTriangleThreeBuckets(mTimestamps, mValues, mCount,
+                                                          COLUMNS * 2, mPointTimestamps,
+                                                          mPointValues);
+        return toLines(mPointTimestamps, mPointValues, count);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void append()
+    {
+        //keeps scrolling the window so buckets are reused as in the live chart
+        int i = mNext++;
+        mDecimator.append(WINDOW_MS + i * 1000L / mRateHz, mValues[i % mCount]);
+    }
+
+    //what SampleChartView.onDraw does with the points, scaled to the view
+    private int toLines(long[] timestamps, int[] values, int count)
+    {
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++)
+        {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        float range = Math.max(1, max - min);
+        long start = timestamps[count - 1] - WINDOW_MS;
+
+        int lines = 0;
+        float lastX = 0, lastY = 0;
+        for (int i = 0; i < count; i++)
+        {
+            float x = COLUMNS * (float)(timestamps[i] - start) / WINDOW_MS;
+            float y = 100 - 100 * (values[i] - min) / range;
+            if (i > 0)
+            {
+                mLines[lines++] = lastX;
+                mLines[lines++] = lastY;
+                mLines[lines++] = x;
+                mLines[lines++] = y;
+            }
+            lastX = x;
+            lastY = y;
+        }
+        return lines;
+    }
+}
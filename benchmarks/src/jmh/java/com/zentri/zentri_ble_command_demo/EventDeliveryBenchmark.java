@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import android.content.Intent;
+import android.support.v4.content.LocalBroadcastManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivering one received string to a receiver, through the ACTION_* broadcast the service
+ * used to send (Intent creation on publish, extra lookup on receive) and straight through the
+ * event bus.
+ *
+ * Intent and LocalBroadcastManager are stubs here, so parceling, receiver matching and the main
+ * looper hop of the real broadcast are not included, the broadcast numbers are a lower bound.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventDeliveryBenchmark
+{
+    private static final String DEVICE_NAME = "AMS001-1A2B";
+    private static final String DATA = "0123456789abcdefghi\n";//one 20 byte packet
+
+    private LocalBroadcastManager mBroadcastManager;
+    private BLEEventBus mBroadcastBus;
+    private BLEEventBus mDirectBus;
+    private int mReceived;
+
+    @Setup
+    public void setUp()
+    {
+        mBroadcastManager = new LocalBroadcastManager();
+        mBroadcastBus = new BLEEventBus();
+        mBroadcastBus.addListener(new IntentBroadcastAdapter(mBroadcastManager),
+                                  IntentBroadcastAdapter.EVENT_TYPES);
+
+        mDirectBus = new BLEEventBus();
+        mDirectBus.addListener(new BLEEventBus.Listener()
+        {
+            @Override
+            public void onEvent(BLEEvent event)
+            {
+                mReceived += event.getStringData().length();
+            }
+        }, BLEEvent.STRING_DATA_READ);
+    }
+
+    @Benchmark
+    public int broadcast()
+    {
+        publish(mBroadcastBus);
+
+        Intent intent = mBroadcastManager.getLastBroadcast();
+        if (BLEIntents.ACTION_STRING_DATA_READ.equals(intent.getAction()))
+        {
+            mReceived += intent.getStringExtra(BLEIntents.EXTRA_DATA).length();
+        }
+        return mReceived;
+    }
+
+    @Benchmark
+    public int eventBus()
+    {
+        publish(mDirectBus);
+        return mReceived;
+    }
+
+    //as ZentriOSBLEService does for every string read
+    private static void publish(BLEEventBus bus)
+    {
+        BLEEvent event = bus.obtain(BLEEvent.STRING_DATA_READ);
+        synchronized (event)
+        {
+            event.begin(DEVICE_NAME).setStringData(DATA);
+            bus.publish(event);
+        }
+    }
+}
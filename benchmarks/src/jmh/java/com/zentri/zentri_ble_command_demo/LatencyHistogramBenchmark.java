@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording latencies on the BLE thread. A single recorder, several threads recording into the
+ * same histogram, and a full command round trip through LatencyStats (two timestamps, the slot
+ * lookup and the type match). Run with -prof gc to confirm nothing is allocated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatencyHistogramBenchmark
+{
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+    private final LatencyStats mStats = new LatencyStats();
+
+    @State(Scope.Thread)
+    public static class Values
+    {
+        long mValue = 1;
+        int mID;
+
+        //spread over the range BLE round trips take, 1ms to about 1s
+        long next()
+        {
+            mValue = mValue * 6364136223846793005L + 1442695040888963407L;
+            return 1000 + ((mValue >>> 33) & 0xFFFFF);
+        }
+    }
+
+    @Benchmark
+    public void record(Values values)
+    {
+        mHistogram.record(values.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended(Values values)
+    {
+        mHistogram.record(values.next());
+    }
+
+    @Benchmark
+    public void commandRoundTrip(Values values)
+    {
+        int id = values.mID++;
+        mStats.onCommandSent(id);
+        mStats.onCommandResult(id, "gge 9");
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Scan results whose name is just the MAC address are dropped. MainActivity used to call
+ * Pattern.matches() for every result, which compiles the pattern each time. Compared with a
+ * pattern compiled once, with the plain character check ScanFilter uses and with ScanFilter
+ * itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MacAddressFilterBenchmark
+{
+    //the pattern MainActivity used
+    private static final String PATTERN_MAC_ADDRESS = "(\\p{XDigit}{2}:){5}\\p{XDigit}{2}";
+    private static final Pattern MAC_ADDRESS = Pattern.compile(PATTERN_MAC_ADDRESS);
+
+    private static final long ADDRESS = ScanRegistry.parseAddress("4C:55:CC:10:20:30");
+
+    @Param({"AMS001-1A2B", "4C:55:CC:10:20:30"})
+    public String mName;
+
+    private final ScanFilter mScanFilter = new ScanFilter();
+
+    @Benchmark
+    public boolean patternMatches()
+    {
+        return Pattern.matches(PATTERN_MAC_ADDRESS, mName);
+    }
+
+    @Benchmark
+    public boolean compiledPattern()
+    {
+        return MAC_ADDRESS.matcher(mName).matches();
+    }
+
+    @Benchmark
+    public boolean charCheck()
+    {
+        return ScanFilter.isMacAddress(mName);
+    }
+
+    //the whole filter as MainActivity runs it, with the default stages
+    @Benchmark
+    public boolean scanFilter()
+    {
+        return mScanFilter.accept(ADDRESS, mName, ScanRegistry.RSSI_UNKNOWN);
+    }
+}
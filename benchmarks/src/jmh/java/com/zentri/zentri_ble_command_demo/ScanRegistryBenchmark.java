@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.zentri.zentri_ble_command_demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handling one scan result, which happens for every advertisement received while
+ * scanning. The scan list used to do a linear equals() search over the adapter before every
+ * add, kept here as the baseline, and now goes through ScanRegistry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScanRegistryBenchmark
+{
+    @Param({"10", "1000", "10000"})
+    public int mDeviceCount;
+
+    private ArrayList<String> mNames;
+    private ScanRegistry mRegistry;
+    private ScanRegistry.ChangeSet mChanges;
+
+    private String[] mAddresses;
+    private String mLastName;//worst case for the linear search
+    private int mNext;
+    private long mNow;
+
+    @Setup
+    public void setUp()
+    {
+        mNames = new ArrayList<>();
+        mRegistry = new ScanRegistry(ScanRegistry.DEFAULT_TTL_MS, mDeviceCount);
+        mChanges = new ScanRegistry.ChangeSet();
+        mAddresses = new String[mDeviceCount];
+
+        for (int i = 0; i < mDeviceCount; i++)
+        {
+            String name = String.format("AMS001-%04X", i);
+            mAddresses[i] = String.format("4C:55:CC:10:%02X:%02X", i >> 8, i & 0xFF);
+
+            mNames.add(name);
+            mRegistry.update(mAddresses[i], name, -60, 0);
+            mLastName = name;
+        }
+        mRegistry.drainChanges(mChanges);
+
+        //a new String instance so equals() has to compare the characters, as with scan results
+        mLastName = new String(mLastName);
+    }
+
+    //the old DeviceList.add() for a device already listed
+    @Benchmark
+    public boolean linearSearch()
+    {
+        for (int i = 0; i < mNames.size(); i++)
+        {
+            if (mNames.get(i).equals(mLastName))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //repeated advertisement, round robin over every device
+    @Benchmark
+    public void registryUpdate()
+    {
+        mRegistry.update(mAddresses[mNext], null, ScanRegistry.RSSI_UNKNOWN, ++mNow);
+        mNext = (mNext + 1) % mDeviceCount;
+    }
+
+    //advertisement with a new RSSI, drained every 100 results as a frame would
+    @Benchmark
+    public boolean registryUpdateAndDrain()
+    {
+        mRegistry.update(mAddresses[mNext], null, (int)(-40 - (mNow & 31)), ++mNow);
+        mNext = (mNext + 1) % mDeviceCount;
+
+        return mNow % 100 == 0 && mRegistry.drainChanges(mChanges);
+    }
+
+    //a full eviction pass that finds nothing stale, as run once a second while scanning
+    @Benchmark
+    public int evictNone()
+    {
+        return mRegistry.evictStale(0);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015, Zentri, Inc. All Rights Reserved.
+ *
+ * The Zentri BLE Android Libraries and Zentri BLE example applications are provided free of charge
+ * by Zentri. The combined source code, and all derivatives, are licensed by Zentri SOLELY for use
+ * with devices manufactured by Zentri, or devices approved by Zentri.
+ *
+ * Use of this software on any other devices or hardware platforms is strictly prohibited.
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AS IS AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package android.content;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+/**
+ * Benchmark stub. Extras live in a map like the real Intent's Bundle, so creating and reading an
+ * Intent allocates and boxes about as much, parceling is not modelled.
+ */
+public class Intent
+{
+    private final String mAction;
+    private HashMap<String, Object> mExtras;
+
+    public Intent(String action)
+    {
+        mAction = action;
+    }
+
+    public String getAction()
+    {
+        return mAction;
+    }
+
+    public Intent putExtra(String name, String value)
+    {
+        return put(name, value);
+    }
+
+    public Intent putExtra(String name, int value)
+    {
+        return put(name, value);
+    }
+
+    public Intent putExtra(String name, byte[] value)
+    {
+        return put(name, value);
+    }
+
+    public Intent putExtra(String name, Serializable value)
+    {
+        return put(name, value);
+    }
+
+    public String getStringExtra(String name)
+    {
+        Object value = get(name);
+        return value instanceof String ? (String)value : null;
+    }
+
+    public int getIntExtra(String name, int defaultValue)
+    {
+        Object value = get(name);
+        return value instanceof Integer ? (Integer)value : defaultValue;
+    }
+
+    public byte[] getByteArrayExtra(String name)
+    {
+        Object value = get(name);
+        return value instanceof byte[] ? (byte[])value : null;
+    }
+
+    public Serializable getSerializableExtra(String name)
+    {
+        Object value = get(name);
+        return value instanceof Serializable ? (Serializable)value : null;
+    }
+
+    private Intent put(String name, Object value)
+    {
+        if (mExtras == null)
+        {
+            mExtras = new HashMap<>();
+        }
+        mExtras.put(name, value);
+        return this;
+    }
+
+    private Object get(String name)
+    {
+        return mExtras != null ? mExtras.get(name) : null;
+    }
+}